@@ -0,0 +1,30 @@
+package org.denis.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, i.e. throughput is reported along with allocation rate. No IDE is required,
+ * only the plugin classes, IDEA <code>annotations.jar</code>, <code>util.jar</code>, <code>trove4j.jar</code>,
+ * <code>openapi.jar</code> and JMH at the classpath. Benchmark sources have to be compiled with
+ * <code>jmh-generator-annprocess</code> at the annotation processor path, <code>benchmark/build.xml</code> does that:
+ * <pre>
+ *   ant -f benchmark/build.xml -Didea.home=&lt;IDEA installation&gt; -Dargs="RendererBenchmark -p size=100000"
+ * </pre>
+ * <p/>
+ * Arguments are standard JMH command line options, e.g. <code>RendererBenchmark -p size=100000</code> runs only renderer
+ * benchmarks for the corpora of 100000 symbols.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 5:35 PM
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build()).run();
+  }
+}
@@ -0,0 +1,65 @@
+package org.denis.benchmark;
+
+import org.denis.model.*;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures iteration over the output infos of a syntax info.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 5:30 PM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputInfoIterationBenchmark {
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"4", "32"})
+  public int runLength;
+
+  private SyntaxInfo myInfo;
+
+  @Setup
+  public void setUp() {
+    myInfo = SyntaxInfoCorpus.generate(size, runLength, 16, 0).syntaxInfo;
+  }
+
+  @Benchmark
+  public int cursor() {
+    int result = 0;
+    for (OutputInfoCursor cursor = myInfo.cursor(); cursor.advance(); ) {
+      result += cursor.getOpcode() + cursor.getOperand();
+    }
+    return result;
+  }
+
+  @Benchmark
+  public void visitor(final Blackhole blackhole) {
+    myInfo.invite(new OutputInfoVisitor() {
+      @Override
+      public void visit(@NotNull Text text) {
+        blackhole.consume(text.getEndOffset());
+      }
+
+      @Override
+      public void visit(@NotNull StyleChange change) {
+        blackhole.consume(change.getId());
+      }
+    });
+  }
+
+  @Benchmark
+  public int objects() {
+    return myInfo.getOutputInfos().size();
+  }
+}
@@ -0,0 +1,68 @@
+package org.denis.benchmark;
+
+import org.denis.model.ColorRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures registry lookups for the palettes of different size.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 5:25 PM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+  private static final int LOOKUPS = 1024;
+
+  @Param({"8", "64", "512"})
+  public int paletteSize;
+
+  private Color[]       myColors;
+  private int[]         myIds;
+  private ColorRegistry mySealedRegistry;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(paletteSize);
+    Color[] palette = new Color[paletteSize];
+    for (int i = 0; i < paletteSize; i++) {
+      palette[i] = new Color(random.nextInt(0x1000000));
+    }
+    myColors = new Color[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      // New instances, as colors of different text attributes are equal but not identical.
+      myColors[i] = new Color(palette[random.nextInt(paletteSize)].getRGB());
+    }
+    mySealedRegistry = new ColorRegistry();
+    myIds = new int[LOOKUPS];
+    for (int i = 0; i < LOOKUPS; i++) {
+      myIds[i] = mySealedRegistry.getId(myColors[i]);
+    }
+    mySealedRegistry.seal();
+  }
+
+  @Benchmark
+  public void getId(Blackhole blackhole) {
+    ColorRegistry registry = new ColorRegistry();
+    for (Color color : myColors) {
+      blackhole.consume(registry.getId(color));
+    }
+  }
+
+  @Benchmark
+  public void dataById(Blackhole blackhole) {
+    for (int id : myIds) {
+      blackhole.consume(mySealedRegistry.dataById(id));
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package org.denis.benchmark;
+
+import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.view.ByteArraySink;
+import org.denis.view.HtmlTransferableData;
+import org.denis.view.RtfTransferableData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RTF and HTML rendering of the whole syntax info.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 5:20 PM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RendererBenchmark {
+
+  @Param({"1000", "100000"})
+  public int size;
+
+  @Param({"4", "32"})
+  public int runLength;
+
+  @Param({"8", "64"})
+  public int paletteSize;
+
+  @Param({"0", "20"})
+  public int unicodePercent;
+
+  @Param({"COMPACT", "INLINE"})
+  public CopyOnSteroidSettings.HtmlProfile htmlProfile;
+
+  private SyntaxInfoCorpus myCorpus;
+
+  @Setup
+  public void setUp() {
+    myCorpus = SyntaxInfoCorpus.generate(size, runLength, paletteSize, unicodePercent);
+  }
+
+  @Benchmark
+  public int rtf() {
+    ByteArraySink buffer = new ByteArraySink();
+    RtfTransferableData.build(myCorpus.syntaxInfo, myCorpus.text, buffer);
+    return buffer.size();
+  }
+
+  @Benchmark
+  public int html() {
+    StringBuilder buffer = new StringBuilder();
+    HtmlTransferableData.build(myCorpus.syntaxInfo, myCorpus.text, htmlProfile, buffer);
+    return buffer.length();
+  }
+}
@@ -0,0 +1,93 @@
+package org.denis.benchmark;
+
+import org.denis.CopyRecording;
+import org.denis.model.SyntaxInfo;
+import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.view.ByteArraySink;
+import org.denis.view.HtmlTransferableData;
+import org.denis.view.RtfTransferableData;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays {@link CopyRecording copy recordings} from the given directory, i.e. measures the whole pipeline on the real
+ * documents, schemes and highlightings. Font resolution requires IDEA <code>idea.jar</code> at the classpath in addition to the
+ * jars listed at {@link BenchmarkRunner}.
+ * <p/>
+ * Example: <code>ReplayBenchmark -p directory=/path/to/recordings -prof stack</code>.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:40 PM
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+  @Param("recordings")
+  public String directory;
+
+  @Param({"COMPACT", "INLINE"})
+  public CopyOnSteroidSettings.HtmlProfile htmlProfile;
+
+  private final List<CopyRecording> myRecordings  = new ArrayList<CopyRecording>();
+  private final List<SyntaxInfo>    mySyntaxInfos = new ArrayList<SyntaxInfo>();
+  private final List<String>        myTexts       = new ArrayList<String>();
+
+  @Setup
+  public void setUp() throws IOException {
+    File[] files = new File(directory).listFiles();
+    if (files == null || files.length <= 0) {
+      throw new IllegalArgumentException("No copy recordings at " + directory);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      if (file.getName().endsWith("." + CopyRecording.EXTENSION)) {
+        CopyRecording recording = CopyRecording.read(file);
+        myRecordings.add(recording);
+        mySyntaxInfos.add(recording.replay());
+        myTexts.add(recording.getPlainText());
+      }
+    }
+  }
+
+  @Benchmark
+  public int syntaxInfo() {
+    int result = 0;
+    for (CopyRecording recording : myRecordings) {
+      result += recording.replay().getOutputInfoCount();
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int rtf() {
+    int result = 0;
+    for (int i = 0; i < mySyntaxInfos.size(); i++) {
+      ByteArraySink buffer = new ByteArraySink();
+      RtfTransferableData.build(mySyntaxInfos.get(i), myTexts.get(i), buffer);
+      result += buffer.size();
+    }
+    return result;
+  }
+
+  @Benchmark
+  public int html() {
+    int result = 0;
+    for (int i = 0; i < mySyntaxInfos.size(); i++) {
+      StringBuilder buffer = new StringBuilder();
+      HtmlTransferableData.build(mySyntaxInfos.get(i), myTexts.get(i), htmlProfile, buffer);
+      result += buffer.length();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,118 @@
+package org.denis.benchmark;
+
+import org.denis.model.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.Random;
+
+/**
+ * Synthetic {@link SyntaxInfo} with the text it refers to.
+ * <p/>
+ * Generated text looks like a source code - lines of up to 100 symbols with indents, tabs and symbols which have to be
+ * escaped by the renderers. Generation is deterministic for the same parameters.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 5:05 PM
+ */
+public class SyntaxInfoCorpus {
+
+  private static final String ASCII   = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ()[];.,=+-*/\"'";
+  private static final String ESCAPED = "{}\\<>&";
+  /** Cyrillic, Latin-1, CJK and math symbols. */
+  private static final String BMP     = "\u0430\u0431\u0432\u0433\u0434\u00e9\u00fc\u00df\u4e2d\u6587\u65e5\u672c\u2192\u2260";
+
+  private static final int[] FONT_STYLES = {Font.PLAIN, Font.BOLD, Font.ITALIC, Font.BOLD | Font.ITALIC};
+
+  @NotNull public final SyntaxInfo syntaxInfo;
+  @NotNull public final String     text;
+
+  private SyntaxInfoCorpus(@NotNull SyntaxInfo syntaxInfo, @NotNull String text) {
+    this.syntaxInfo = syntaxInfo;
+    this.text = text;
+  }
+
+  /**
+   * @param size            number of text symbols
+   * @param runLength       average number of symbols per style run, i.e. style density
+   * @param paletteSize     number of distinct colors
+   * @param unicodePercent  percent of non-ascii symbols, every tenth of them is a supplementary code point
+   * @return                generated corpus
+   */
+  @NotNull
+  public static SyntaxInfoCorpus generate(int size, int runLength, int paletteSize, int unicodePercent) {
+    Random random = new Random(size * 31L + runLength * 17L + paletteSize * 7L + unicodePercent);
+    StringBuilder text = new StringBuilder(size + 1);
+    int column = 0;
+    while (text.length() < size) {
+      if (column == 0) {
+        for (int indent = random.nextInt(4) * 4; indent > 0; indent--) {
+          text.append(' ');
+        }
+        if (random.nextInt(10) == 0) {
+          text.append('\t');
+        }
+      }
+      int dice = random.nextInt(100);
+      if (dice < unicodePercent) {
+        if (random.nextInt(10) == 0) {
+          text.appendCodePoint(0x1F600 + random.nextInt(0x40));
+        }
+        else {
+          text.append(BMP.charAt(random.nextInt(BMP.length())));
+        }
+      }
+      else if (dice < unicodePercent + 2) {
+        text.append(ESCAPED.charAt(random.nextInt(ESCAPED.length())));
+      }
+      else {
+        text.append(ASCII.charAt(random.nextInt(ASCII.length())));
+      }
+      if (++column >= 40 + random.nextInt(60)) {
+        text.append('\n');
+        column = 0;
+      }
+    }
+    if (Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+      text.setLength(text.length() - 1);
+    }
+
+    ColorRegistry colorRegistry = new ColorRegistry();
+    FontNameRegistry fontNameRegistry = new FontNameRegistry();
+    int[] colorIds = new int[paletteSize];
+    for (int i = 0; i < paletteSize; i++) {
+      colorIds[i] = colorRegistry.getId(new Color(random.nextInt(0x1000000)));
+    }
+    int defaultForeground = colorRegistry.getId(Color.BLACK);
+    int defaultBackground = colorRegistry.getId(Color.WHITE);
+    int fontId = fontNameRegistry.getId("Monospaced");
+
+    StyleRegistry styleRegistry = new StyleRegistry();
+    OutputInfoStream infos = new OutputInfoStream();
+    int fontStyle = Font.PLAIN;
+    int background = 0;
+    for (int start = 0; start < text.length(); ) {
+      int end = Math.min(text.length(), start + 1 + random.nextInt(runLength * 2));
+      if (end < text.length() && Character.isLowSurrogate(text.charAt(end))) {
+        end++;
+      }
+      int foreground = colorIds[random.nextInt(paletteSize)];
+      if (random.nextInt(4) == 0) {
+        fontStyle = FONT_STYLES[random.nextInt(FONT_STYLES.length)];
+      }
+      if (random.nextInt(8) == 0) {
+        background = colorIds[random.nextInt(paletteSize)];
+      }
+      infos.addStyleChange(styleRegistry.getId(new TextStyle(foreground, background, fontId, fontStyle, 12)));
+      infos.addText(start, end);
+      start = end;
+    }
+    colorRegistry.seal();
+    fontNameRegistry.seal();
+    styleRegistry.seal();
+    infos.trimToSize();
+    Palette palette = new Palette(colorRegistry, fontNameRegistry, defaultForeground, defaultBackground);
+    SyntaxInfo syntaxInfo = new SyntaxInfo(infos, palette, styleRegistry, fontId, 12);
+    return new SyntaxInfoCorpus(syntaxInfo, text.toString());
+  }
+}
@@ -5,137 +5,859 @@ import com.intellij.codeInsight.daemon.impl.HighlightInfoType;
 import com.intellij.codeInsight.editorActions.CopyPastePostProcessor;
 import com.intellij.codeInsight.editorActions.TextBlockTransferableData;
 import com.intellij.ide.highlighter.HighlighterFactory;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationAdapter;
+import com.intellij.openapi.application.ApplicationListener;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.*;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
 import com.intellij.openapi.editor.colors.TextAttributesKey;
 import com.intellij.openapi.editor.ex.DisposableIterator;
+import com.intellij.openapi.editor.ex.EditorEx;
 import com.intellij.openapi.editor.ex.MarkupModelEx;
 import com.intellij.openapi.editor.ex.RangeHighlighterEx;
+import com.intellij.openapi.editor.ex.util.EmptyEditorHighlighter;
 import com.intellij.openapi.editor.highlighter.EditorHighlighter;
 import com.intellij.openapi.editor.highlighter.HighlighterIterator;
-import com.intellij.openapi.editor.impl.ComplementaryFontsRegistry;
 import com.intellij.openapi.editor.impl.DocumentMarkupModel;
 import com.intellij.openapi.editor.markup.HighlighterLayer;
 import com.intellij.openapi.editor.markup.MarkupModel;
 import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.TokenType;
-import com.intellij.util.containers.ContainerUtilRt;
+import gnu.trove.TIntArrayList;
 import org.denis.model.*;
 import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.stats.CopyStatistics;
+import org.denis.stats.FlightRecorderEvent;
+import org.denis.stats.Metric;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
 import java.awt.datatransfer.Transferable;
-import java.util.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockTransferableData> implements CopyPastePostProcessor<T> {
 
   private static final Logger LOG = Logger.getInstance("#" + AbstractCopyPasteSyntaxAwareProcessor.class.getName());
   
-  private static ThreadLocal<Pair<Long, SyntaxInfo>> CACHED = new ThreadLocal<Pair<Long, SyntaxInfo>>();
-  private static final long CACHE_TTL_MS = 100;
+  /** Is accessed from the EDT only. */
+  @Nullable private static LastCopy ourLastCopy;
+
+  /** Min number of symbols per chunk of a region which is processed in parallel, smaller regions are processed sequentially. */
+  private static final int PARALLEL_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * Max number of markup highlighters examined at the EDT in order to check if the copied text is unhighlighted. Highlighters
+   * which don't change text appearance (e.g. typos) are skipped, so, a large selection might have lots of them.
+   */
+  private static final int MAX_HIGHLIGHTERS_TO_CHECK = 128;
+
+  /** Runs tasks at the application's pooled threads. */
+  @NotNull private static final Executor POOLED_THREAD_EXECUTOR = new Executor() {
+    @Override
+    public void execute(@NotNull Runnable command) {
+      ApplicationManager.getApplication().executeOnPooledThread(command);
+    }
+  };
+
+  /** Merger buffers are reused between copies. */
+  private static final ThreadLocal<SegmentMerger> MERGER = new ThreadLocal<SegmentMerger>() {
+    @Override
+    protected SegmentMerger initialValue() {
+      return new SegmentMerger();
+    }
+  };
+
+  @NotNull private static final TextAttributesSource EMPTY_SOURCE = new TextAttributesSource() {
+    @Override
+    public boolean advance() {
+      return false;
+    }
+
+    @Override
+    public int getStartOffset() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getEndOffset() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getLayer() {
+      throw new UnsupportedOperationException();
+    }
+
+    @NotNull
+    @Override
+    public TextAttributes getAttributes() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispose() {
+    }
+  };
 
-  @SuppressWarnings("unchecked")
   @Nullable
   @Override
-  public T collectTransferableData(PsiFile file, Editor editor, int[] startOffsets, int[] endOffsets) {
+  public T collectTransferableData(final PsiFile file, final Editor editor, final int[] startOffsets, final int[] endOffsets) {
     CopyOnSteroidSettings settings = CopyOnSteroidSettings.getInstance();
     if (!isEnabled(settings) || startOffsets.length <= 0) {
       return null;
     }
 
-    SyntaxInfo cached = getCached();
-    if (cached != null) {
-      return build(cached);
+    final Document document = editor.getDocument();
+    final long modificationStamp = document.getModificationStamp();
+    final EditorColorsScheme schemeToUse = settings.getColorsScheme(editor);
+    int settingsModificationCount = settings.getModificationCount();
+    if (ourLastCopy != null) {
+      if (ourLastCopy.isSame(editor, modificationStamp, schemeToUse, settingsModificationCount, startOffsets, endOffsets)) {
+        if (ourLastCopy.isPlainText()) {
+          return null;
+        }
+        Future<SyntaxInfo> shared = ourLastCopy.getSyntaxInfo();
+        if (shared != null) {
+          return build(shared);
+        }
+      }
+      // Newer copy supersedes the previous one.
+      ourLastCopy.cancel();
+    }
+
+    int maxCharacters = settings.getMaxCharacters();
+    if (maxCharacters > 0 && getSelectionSize(startOffsets, endOffsets) > maxCharacters) {
+      // Don't even start formatting of a huge selection, paste targets get plain text only.
+      ourLastCopy = new LastCopy(editor, modificationStamp, schemeToUse, settingsModificationCount, startOffsets, endOffsets, null);
+      CopyStatistics statistics = CopyStatistics.getInstance();
+      if (statistics.isEnabled()) {
+        statistics.recordFidelity(Fidelity.PLAIN_TEXT);
+      }
+      return null;
     }
 
     SelectionModel selectionModel = editor.getSelectionModel();
     LogicalPosition blockStart = selectionModel.getBlockStart();
     LogicalPosition blockEnd = selectionModel.getBlockEnd();
-    final int indentSymbolsToStrip;
-    final int firstLineStartOffset;
     final int lineWidth;
+    final boolean stripIndents;
     if (blockStart != null && blockEnd != null) {
       lineWidth = Math.abs(blockEnd.column - blockStart.column);
-      indentSymbolsToStrip = 0;
-      firstLineStartOffset = startOffsets[0];
+      stripIndents = false;
     }
     else {
       lineWidth = -1;
-      if (settings.isStripIndents()) {
-        Pair<Integer, Integer> p = calcIndentSymbolsToStrip(editor.getDocument(), startOffsets[0], endOffsets[endOffsets.length - 1]);
-        firstLineStartOffset = p.first;
-        indentSymbolsToStrip = p.second;
+      stripIndents = settings.isStripIndents();
+    }
+    final boolean unhighlighted = isUnhighlighted(file, editor, schemeToUse, startOffsets, endOffsets);
+    final AttributeRunCache cache = settings.isIndexAttributeRuns() && !unhighlighted
+                                    ? AttributeRunCacheManager.getInstance().getCache(editor, file.getProject(), schemeToUse)
+                                    : null;
+    final Palette palette = PaletteManager.getInstance().getPalette(schemeToUse);
+    // Only the copied lines are kept in case the document is changed before the background computation gets the read access.
+    // Document text is not copied as a whole at the EDT, the computation reads it directly when it's not changed.
+    final int snapshotStart = document.getLineStartOffset(document.getLineNumber(startOffsets[0]));
+    final String snapshot = document.getCharsSequence().subSequence(snapshotStart, endOffsets[endOffsets.length - 1]).toString();
+    Future<SyntaxInfo> future = schedule(new Computable<SyntaxInfo>() {
+      @Override
+      public SyntaxInfo compute() {
+        // Editor highlighting describes the current document text which might differ from the copied one.
+        boolean stale = document.getModificationStamp() != modificationStamp;
+        SyntaxInfo syntaxInfo = stale
+                                ? collect(file, editor, snapshot, true, schemeToUse, palette, null, shift(startOffsets, -snapshotStart),
+                                          shift(endOffsets, -snapshotStart), lineWidth, stripIndents, unhighlighted)
+                                : collect(file, editor, document.getCharsSequence(), false, schemeToUse, palette, cache, startOffsets,
+                                          endOffsets, lineWidth, stripIndents, unhighlighted);
+        if (syntaxInfo.getPalette() != palette) {
+          PaletteManager.getInstance().offer(schemeToUse, syntaxInfo.getPalette());
+        }
+        return syntaxInfo;
       }
-      else {
-        firstLineStartOffset = startOffsets[0];
-        indentSymbolsToStrip = 0;
+    });
+    ourLastCopy = new LastCopy(editor, modificationStamp, schemeToUse, settingsModificationCount, startOffsets, endOffsets, future);
+    return build(future);
+  }
+
+  /**
+   * Runs given computation under a read action at a pooled thread.
+   * <p/>
+   * The computation doesn't hold write actions off: it's cancelled as soon as a write action is about to start and is
+   * restarted from scratch when the write action is finished. Hence, the computation must not rely on the document being the
+   * same as at the moment of the copy.
+   *
+   * @param computation  computation to run
+   * @return             future for the computation result, its cancellation cancels progress indicator the computation is
+   *                     run with, i.e. it's interrupted at the nearest {@link ProgressManager#checkCanceled() check}
+   */
+  @NotNull
+  private static Future<SyntaxInfo> schedule(@NotNull final Computable<SyntaxInfo> computation) {
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    final AtomicReference<ProgressIndicator> currentIndicator = new AtomicReference<ProgressIndicator>();
+    FutureTask<SyntaxInfo> result = new FutureTask<SyntaxInfo>(new Callable<SyntaxInfo>() {
+      @Override
+      public SyntaxInfo call() throws Exception {
+        Application application = ApplicationManager.getApplication();
+        final Ref<SyntaxInfo> syntaxInfo = new Ref<SyntaxInfo>();
+        while (true) {
+          final ProgressIndicator indicator = new ProgressIndicatorBase();
+          currentIndicator.set(indicator);
+          if (cancelled.get()) {
+            throw new ProcessCanceledException();
+          }
+          ApplicationListener listener = new ApplicationAdapter() {
+            @Override
+            public void beforeWriteActionStart(Object action) {
+              indicator.cancel();
+            }
+          };
+          application.addApplicationListener(listener);
+          try {
+            ProgressManager.getInstance().runProcess(new Runnable() {
+              @Override
+              public void run() {
+                syntaxInfo.set(ApplicationManager.getApplication().runReadAction(computation));
+              }
+            }, indicator);
+            return syntaxInfo.get();
+          }
+          catch (ProcessCanceledException e) {
+            if (cancelled.get()) {
+              throw e;
+            }
+            // Interrupted by a write action, the next read action is granted only after it's finished.
+          }
+          finally {
+            application.removeApplicationListener(listener);
+          }
+        }
+      }
+    }) {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        cancelled.set(true);
+        ProgressIndicator indicator = currentIndicator.get();
+        if (indicator != null) {
+          indicator.cancel();
+        }
+        return super.cancel(mayInterruptIfRunning);
       }
+    };
+    ApplicationManager.getApplication().executeOnPooledThread(result);
+    return result;
+  }
+
+  /**
+   * Checks if the copied text is known to have no highlighting, e.g. it belongs to a plain text file or to a file which
+   * highlighting is disabled. Such text is formatted by the default style right away, without setting up a highlighter
+   * and walking it.
+   * <p/>
+   * The check is expected to be cheap as it's performed at the EDT: only the lexer token at the selection start and a
+   * {@link #MAX_HIGHLIGHTERS_TO_CHECK limited} number of markup highlighters are examined.
+   *
+   * @return    <code>true</code> if the copied text has no highlighting; <code>false</code> if it has or might have it
+   */
+  static boolean isUnhighlighted(@NotNull PsiFile file,
+                                         @NotNull Editor editor,
+                                         @NotNull EditorColorsScheme scheme,
+                                         @NotNull int[] startOffsets,
+                                         @NotNull int[] endOffsets)
+  {
+    if (file.getFileType() != PlainTextFileType.INSTANCE
+        && !isSingleDefaultToken(editor, scheme, startOffsets[0], endOffsets[endOffsets.length - 1]))
+    {
+      return false;
     }
-    logInitial(editor, startOffsets, endOffsets, indentSymbolsToStrip, firstLineStartOffset, lineWidth);
-    CharSequence text = editor.getDocument().getCharsSequence();
-    EditorHighlighter highlighter = HighlighterFactory.createHighlighter(file.getProject(), file.getVirtualFile());
-    highlighter.setText(text);
-    EditorColorsScheme schemeToUse = settings.getColorsScheme(editor);
-    highlighter.setColorScheme(schemeToUse);
     MarkupModel markupModel = DocumentMarkupModel.forDocument(editor.getDocument(), file.getProject(), false);
-    Context context = new Context(editor, schemeToUse, indentSymbolsToStrip);
+    // Block selection regions are checked as a whole, i.e. highlighters between them make the check fail.
+    TextAttributesSource markup = wrap(markupModel, scheme, startOffsets[0], endOffsets[endOffsets.length - 1],
+                                       MAX_HIGHLIGHTERS_TO_CHECK);
+    try {
+      return !markup.advance();
+    }
+    catch (CopyBudget.ExceededException e) {
+      // Too many highlighters to examine them at the EDT.
+      return false;
+    }
+    finally {
+      markup.dispose();
+    }
+  }
+
+  /**
+   * @return    <code>true</code> if the given range is covered by a single lexer token which is displayed by the default style
+   *            of the given scheme; <code>false</code> otherwise
+   */
+  private static boolean isSingleDefaultToken(@NotNull Editor editor, @NotNull EditorColorsScheme scheme, int startOffset, int endOffset) {
+    if (!(editor instanceof EditorEx)) {
+      return false;
+    }
+    EditorHighlighter highlighter = ((EditorEx)editor).getHighlighter();
+    if (highlighter instanceof EmptyEditorHighlighter) {
+      return true;
+    }
+    if (scheme != editor.getColorsScheme()) {
+      // Token attributes would have to be remapped to the target scheme.
+      return false;
+    }
+    HighlighterIterator iterator = highlighter.createIterator(startOffset);
+    if (iterator.atEnd() || iterator.getEnd() < endOffset) {
+      return false;
+    }
+    TextAttributes attributes = iterator.getTextAttributes();
+    return attributes == null
+           || attributes.getBackgroundColor() == null
+              && attributes.getFontType() == Font.PLAIN
+              && (attributes.getForegroundColor() == null || attributes.getForegroundColor().equals(scheme.getDefaultForeground()));
+  }
+
+  @NotNull
+  private static int[] shift(@NotNull int[] offsets, int shift) {
+    int[] result = new int[offsets.length];
+    for (int i = 0; i < offsets.length; i++) {
+      result[i] = offsets[i] + shift;
+    }
+    return result;
+  }
+
+  private static int getSelectionSize(@NotNull int[] startOffsets, @NotNull int[] endOffsets) {
+    int result = 0;
+    for (int i = 0; i < startOffsets.length; i++) {
+      result += endOffsets[i] - startOffsets[i];
+    }
+    return result;
+  }
+
+  /**
+   * @param text   document text at the moment of the copy, given offsets refer to it
+   * @param stale  <code>true</code> if the document has been changed since the copy, i.e. its highlighting doesn't match the
+   *               given text anymore. Given text holds only the copied lines then and it's lexed from scratch
+   */
+  @NotNull
+  private static SyntaxInfo collect(@NotNull PsiFile file,
+                                    @NotNull Editor editor,
+                                    @NotNull CharSequence text,
+                                    boolean stale,
+                                    @NotNull final EditorColorsScheme schemeToUse,
+                                    @Nullable Palette palette,
+                                    @Nullable AttributeRunCache cache,
+                                    @NotNull int[] startOffsets,
+                                    @NotNull int[] endOffsets,
+                                    int lineWidth,
+                                    boolean stripIndents,
+                                    boolean unhighlighted)
+  {
+    CopyOnSteroidSettings settings = CopyOnSteroidSettings.getInstance();
+    CopyStatistics statistics = CopyStatistics.getInstance();
+    boolean collectStatistics = statistics.isEnabled();
+    long allocatedBytesBefore = collectStatistics ? CopyStatistics.getThreadAllocatedBytes() : -1;
+    FlightRecorderEvent collectEvent = FlightRecorderEvent.begin(FlightRecorderEvent.Type.COLLECT);
+    long collectStart = System.nanoTime();
+    
+    final int indentSymbolsToStrip;
+    final int firstLineStartOffset;
+    if (stripIndents) {
+      Pair<Integer, Integer> p = calcIndentSymbolsToStrip(text, startOffsets[0], endOffsets[endOffsets.length - 1]);
+      firstLineStartOffset = p.first;
+      indentSymbolsToStrip = p.second;
+    }
+    else {
+      firstLineStartOffset = startOffsets[0];
+      indentSymbolsToStrip = 0;
+    }
+    long indentEnd = System.nanoTime();
+    logInitial(text, startOffsets, endOffsets, indentSymbolsToStrip, firstLineStartOffset, lineWidth);
+    // Markup of the changed document doesn't match the copied text, lexer tokens are built for the text from scratch then.
+    Fidelity fidelity = unhighlighted ? Fidelity.SINGLE_STYLE : stale ? Fidelity.LEXER_ONLY : Fidelity.FULL;
+    SegmentSources fullSources = null;
+    SegmentSources lexerSources = null;
+    long highlighterStart = System.nanoTime();
+    if (!unhighlighted) {
+      Pair<EditorHighlighter, TokenAttributesRemapper> highlighterInfo = getHighlighter(file, editor, schemeToUse, text, stale);
+      final EditorHighlighter highlighter = highlighterInfo.first;
+      final TokenAttributesRemapper remapper = highlighterInfo.second;
+      final MarkupModel markupModel = DocumentMarkupModel.forDocument(editor.getDocument(), file.getProject(), false);
+      fullSources = new SegmentSources() {
+        @NotNull
+        @Override
+        public TextAttributesSource getTokens(int startOffset, int endOffset) {
+          return wrap(highlighter, remapper, startOffset, endOffset);
+        }
+
+        @NotNull
+        @Override
+        public TextAttributesSource getMarkup(int startOffset, int endOffset) {
+          return wrap(markupModel, schemeToUse, startOffset, endOffset, 0);
+        }
+      };
+      lexerSources = new SegmentSources() {
+        @NotNull
+        @Override
+        public TextAttributesSource getTokens(int startOffset, int endOffset) {
+          return wrap(highlighter, remapper, startOffset, endOffset);
+        }
+
+        @NotNull
+        @Override
+        public TextAttributesSource getMarkup(int startOffset, int endOffset) {
+          return EMPTY_SOURCE;
+        }
+      };
+    }
+    long highlighterEnd = System.nanoTime();
+    
+    CopyRequest request = new CopyRequest(text, schemeToUse.getName(),
+                                          schemeToUse.getEditorFontName(), schemeToUse.getEditorFontSize(),
+                                          schemeToUse.getDefaultForeground(), schemeToUse.getDefaultBackground(),
+                                          startOffsets, endOffsets, firstLineStartOffset, lineWidth, indentSymbolsToStrip);
+    CopyBudget budget = new CopyBudget(collectStart, settings.getMaxMillis(), settings.getMaxHighlighters());
+    Attempt attempt = buildWithFallback(request, palette, cache, fullSources, lexerSources, fidelity, budget,
+                                        collectStatistics || collectEvent != null, settings.isRecordCopies(),
+                                        settings.isDebugProcessing(), POOLED_THREAD_EXECUTOR, Runtime.getRuntime().availableProcessors());
+    fidelity = attempt.fidelity;
+    CollectTrace trace = attempt.trace;
+    SyntaxInfo syntaxInfo = attempt.syntaxInfo;
+    long collectEnd = System.nanoTime();
+    
+    if (attempt.recorder != null) {
+      attempt.recorder.save();
+    }
+    int selectionSize = getSelectionSize(startOffsets, endOffsets);
+    if (collectEvent != null) {
+      collectEvent.setSelectionLength(selectionSize);
+      collectEvent.setRegions(startOffsets.length);
+      collectEvent.setHighlighters(trace.highlighters);
+      collectEvent.setOutputInfos(syntaxInfo.getOutputInfoCount());
+      collectEvent.setScheme(schemeToUse.getName());
+      collectEvent.setFidelity(fidelity);
+      collectEvent.commit();
+    }
+    if (collectStatistics) {
+      statistics.recordFidelity(fidelity);
+      statistics.record(Metric.SELECTION_SIZE, selectionSize);
+      statistics.record(Metric.INDENT_CALCULATION, indentEnd - collectStart);
+      if (!unhighlighted) {
+        statistics.record(Metric.HIGHLIGHTER_SETUP, highlighterEnd - highlighterStart);
+      }
+      statistics.record(Metric.LEXER_WALK, trace.lexerNanos);
+      statistics.record(Metric.MARKUP_WALK, trace.markupNanos);
+      statistics.record(Metric.MERGE, trace.iterationNanos - trace.lexerNanos - trace.markupNanos);
+      statistics.record(Metric.CONTEXT_BUILD, trace.contextNanos);
+      statistics.record(Metric.COLLECT_TOTAL, collectEnd - collectStart);
+      statistics.record(Metric.OUTPUT_INFOS, syntaxInfo.getOutputInfoCount());
+      long allocatedBytesAfter = CopyStatistics.getThreadAllocatedBytes();
+      if (allocatedBytesBefore >= 0 && allocatedBytesAfter >= 0) {
+        statistics.record(Metric.COLLECT_ALLOCATION, allocatedBytesAfter - allocatedBytesBefore + trace.chunkAllocatedBytes);
+      }
+    }
+    logSyntaxInfo(syntaxInfo);
+    return syntaxInfo;
+  }
+
+  /**
+   * Builds syntax info with the highest fidelity which fits the given budget. Every attempt builds the syntax info from
+   * scratch, i.e. colors and fonts registered by an aborted attempt don't get to the result's palette.
+   *
+   * @param fidelity      fidelity of the first attempt
+   * @param fullSources   segment sources for the {@link Fidelity#FULL full} fidelity, <code>null</code> if the text is not highlighted
+   * @param lexerSources  segment sources for the {@link Fidelity#LEXER_ONLY lexer only} fidelity, <code>null</code> if the text
+   *                      is not highlighted
+   * @param trace         flag if lexer and markup walks should be traced
+   * @param record        flag if the successful attempt should be {@link CopyRecorder recorded}
+   * @param debug         flag if fallbacks should be logged
+   * @param executor      executor for the regions chunks, <code>null</code> to process the regions at the calling thread
+   * @param parallelism   max number of chunks per region
+   * @return              the successful attempt
+   */
+  @NotNull
+  static Attempt buildWithFallback(@NotNull CopyRequest request,
+                                   @Nullable Palette palette,
+                                   @Nullable AttributeRunCache cache,
+                                   @Nullable SegmentSources fullSources,
+                                   @Nullable SegmentSources lexerSources,
+                                   @NotNull Fidelity fidelity,
+                                   @NotNull CopyBudget budget,
+                                   boolean trace,
+                                   boolean record,
+                                   boolean debug,
+                                   @Nullable Executor executor,
+                                   int parallelism)
+  {
+    while (true) {
+      // Single style copies don't depend on highlighting, so, there is nothing to record for them.
+      SegmentSources sources = fidelity == Fidelity.FULL ? fullSources : fidelity == Fidelity.LEXER_ONLY ? lexerSources : null;
+      CopyRecorder recorder = sources != null && record ? new CopyRecorder(request, palette, sources) : null;
+      // Cached attribute runs would bypass the sources.
+      AttributeRunCache cacheToUse = fidelity == Fidelity.FULL && recorder == null ? cache : null;
+      CollectTrace collectTrace = new CollectTrace(trace);
+      try {
+        // Recorder remembers ranges per region, so, regions can't be split into chunks.
+        SyntaxInfo syntaxInfo = buildSyntaxInfo(request, palette, cacheToUse, recorder == null ? sources : recorder, collectTrace,
+                                                fidelity == Fidelity.SINGLE_STYLE ? null : budget,
+                                                recorder == null ? executor : null, parallelism);
+        return new Attempt(fidelity, syntaxInfo, collectTrace, recorder);
+      }
+      catch (CopyBudget.ExceededException e) {
+        // There is no time left for the lexer walk if the deadline has passed, otherwise it's the markup which is too heavy.
+        fidelity = e.deadline ? Fidelity.SINGLE_STYLE : Fidelity.LEXER_ONLY;
+        if (debug) {
+          LOG.info(String.format("Copy budget is exceeded (%s), falling back to %s fidelity",
+                                 e.deadline ? "deadline" : "highlighters", fidelity));
+        }
+      }
+    }
+  }
+
+  /**
+   * Merges attribute sources of the copied regions and builds syntax info from the result.
+   *
+   * @param request  copied regions and scheme properties
+   * @param palette  palette of the previous copies with the same scheme if any
+   * @param cache    cached attribute runs of the document if any
+   * @param sources  attribute sources of the regions which runs are not at the given cache, <code>null</code> means that
+   *                 the regions are formatted by the editor font and default colors
+   * @param trace    holder for the phase timings
+   * @param budget   limits of the copy if any
+   * @param executor executor for processing of large regions by chunks in parallel, <code>null</code> means that regions are
+   *                 processed sequentially. The given sources must support arbitrary sub-ranges of the regions and be usable
+   *                 from the executor threads then
+   * @param parallelism max number of chunks a region is split into
+   * @return         syntax info for the given request
+   * @throws CopyBudget.ExceededException  if the given budget is exceeded
+   */
+  @NotNull
+  static SyntaxInfo buildSyntaxInfo(@NotNull CopyRequest request,
+                                    @Nullable Palette palette,
+                                    @Nullable AttributeRunCache cache,
+                                    @Nullable SegmentSources sources,
+                                    @NotNull CollectTrace trace,
+                                    @Nullable CopyBudget budget,
+                                    @Nullable Executor executor,
+                                    int parallelism) throws CopyBudget.ExceededException
+  {
+    int[] startOffsets = request.startOffsets;
+    int[] endOffsets = request.endOffsets;
+    Context context = new Context(request.text, request.defaultForeground, request.defaultBackground, palette,
+                                  request.indentSymbolsToStrip);
     int shift = 0;
     int prevEndOffset = 0;
     
     for (int i = 0; i < startOffsets.length; i++) {
-      int startOffsetToUse = i == 0 ? firstLineStartOffset : startOffsets[i];
+      int startOffsetToUse = request.getStartOffsetToUse(i);
       if (i > 0) { // Block selection is active.
-        int fillStringLength = lineWidth - (endOffsets[i - 1] - startOffsets[i - 1]); // Block selection fills short lines by white spaces.
+        int fillStringLength = request.lineWidth - (endOffsets[i - 1] - startOffsets[i - 1]); // Block selection fills short lines by white spaces.
         int endLineOffset = endOffsets[i - 1] + shift + fillStringLength;
-        context.outputInfos.add(new Text(endLineOffset, endLineOffset + 1));
+        context.outputInfos.addText(endLineOffset, endLineOffset + 1);
         shift++; // Block selection ends '\n' at line end
         shift += fillStringLength;
       }
       shift += prevEndOffset - startOffsets[i];
       prevEndOffset = endOffsets[i];
       context.reset(shift);
-      DisposableIterator<SegmentInfo> it = aggregateSyntaxInfo(editor,
-                                                               wrap(highlighter, editor, schemeToUse, startOffsetToUse, endOffsets[i]),
-                                                               wrap(markupModel, editor, schemeToUse, startOffsetToUse, endOffsets[i]));
-      try {
-        while (it.hasNext()) {
-          SegmentInfo info = it.next();
-          if (info.startOffset >= endOffsets[i]) {
-            break;
-          }
-          context.onNewData(info);
+      int chunks = executor == null || sources == null || startOffsets.length > 1
+                   ? 1
+                   : Math.min(parallelism, (endOffsets[i] - startOffsetToUse) / PARALLEL_CHUNK_SIZE);
+      if (chunks > 1) {
+        assert executor != null;
+        processInParallel(context, request, palette, startOffsetToUse, endOffsets[i], shift, chunks, cache, sources, trace, budget,
+                          executor);
+      }
+      else {
+        process(context, request, startOffsetToUse, endOffsets[i], cache, sources, trace, budget);
+      }
+    }
+    long finishStart = System.nanoTime();
+    SyntaxInfo result = context.finish();
+    trace.contextNanos += System.nanoTime() - finishStart;
+    return result;
+  }
+
+  /**
+   * Feeds segments of the given document range to the given context.
+   *
+   * @param context      target context
+   * @param request      copied regions and scheme properties
+   * @param startOffset  target range start offset (inclusive)
+   * @param endOffset    target range end offset (exclusive)
+   * @param cache        cached attribute runs of the document if any
+   * @param sources      attribute sources of the ranges which runs are not at the given cache, <code>null</code> means that
+   *                     the range is formatted by the editor font and default colors
+   * @param trace        holder for the phase timings
+   * @param budget       limits of the copy if any
+   */
+  private static void process(@NotNull Context context,
+                              @NotNull CopyRequest request,
+                              int startOffset,
+                              int endOffset,
+                              @Nullable AttributeRunCache cache,
+                              @Nullable SegmentSources sources,
+                              @NotNull CollectTrace trace,
+                              @Nullable CopyBudget budget) throws CopyBudget.ExceededException
+  {
+    long processStart = System.nanoTime();
+    if (sources == null) {
+      Font font = FontResolver.getInstance(request.fontName, request.fontSize, Font.PLAIN).getFont(' ');
+      context.onNewData(new SegmentInfo(null, null, font.getFamily(), Font.PLAIN, font.getSize(), startOffset, endOffset));
+      context.onIterationEnd(endOffset);
+      trace.contextNanos += System.nanoTime() - processStart;
+      return;
+    }
+    long iterationNanosBefore = trace.iterationNanos;
+    FlightRecorderEvent mergeEvent = FlightRecorderEvent.begin(FlightRecorderEvent.Type.MERGE);
+    long mergeStart = System.nanoTime();
+    DisposableIterator<SegmentInfo> it = cache == null ? null : cache.slice(startOffset, endOffset);
+    TimedTextAttributesSource timedTokens = null;
+    TimedTextAttributesSource timedMarkup = null;
+    if (it == null) {
+      TextAttributesSource tokens = sources.getTokens(startOffset, endOffset);
+      TextAttributesSource markup = sources.getMarkup(startOffset, endOffset);
+      if (budget != null) {
+        markup = budget.limitHighlighters(markup);
+      }
+      if (trace.traceSources) {
+        tokens = timedTokens = new TimedTextAttributesSource(tokens);
+        markup = timedMarkup = new TimedTextAttributesSource(markup);
+      }
+      SegmentMerger merger = MERGER.get();
+      merger.start(request.text, request.fontName, request.fontSize, tokens, markup);
+      it = merger;
+      if (cache != null) {
+        it = cache.record(startOffset, endOffset, it);
+      }
+    }
+    trace.iterationNanos += System.nanoTime() - mergeStart;
+    try {
+      while (true) {
+        ProgressManager.checkCanceled();
+        if (budget != null) {
+          budget.checkDeadline();
+        }
+        long nextStart = trace.traceSources ? System.nanoTime() : 0;
+        SegmentInfo info = it.hasNext() ? it.next() : null;
+        if (trace.traceSources) {
+          trace.iterationNanos += System.nanoTime() - nextStart;
+        }
+        if (info == null || info.startOffset >= endOffset) {
+          break;
         }
+        context.onNewData(info);
+      }
+    }
+    finally {
+      it.dispose();
+    }
+    context.onIterationEnd(endOffset);
+    trace.contextNanos += System.nanoTime() - processStart - (trace.iterationNanos - iterationNanosBefore);
+    if (timedTokens != null) {
+      trace.lexerNanos += timedTokens.getNanos();
+      trace.markupNanos += timedMarkup.getNanos();
+      trace.highlighters += timedMarkup.getCount();
+    }
+    if (mergeEvent != null) {
+      mergeEvent.setSelectionLength(endOffset - startOffset);
+      mergeEvent.setRegions(1);
+      mergeEvent.setHighlighters(timedMarkup == null ? 0 : timedMarkup.getCount());
+      mergeEvent.setScheme(request.schemeName);
+      mergeEvent.commit();
+    }
+  }
+
+  /**
+   * Splits given document range into chunks at line starts, feeds every chunk to its own context at the given executor and
+   * appends the results to the given context. Highlighters provide tokens for any offset without re-lexing, so, chunks
+   * don't depend on each other.
+   * <p/>
+   * The first chunk is processed at the calling thread. The method doesn't return until all chunks are processed, i.e. the
+   * read action held by the calling thread protects the document and its markup for the whole processing. That's also why
+   * the other chunks don't acquire read actions themselves - that would deadlock if a write action is pending.
+   *
+   * @param context      target context
+   * @param request      copied regions and scheme properties
+   * @param palette      palette of the previous copies with the same scheme if any
+   * @param startOffset  target range start offset (inclusive)
+   * @param endOffset    target range end offset (exclusive)
+   * @param offsetShift  offset shift of the target range output
+   * @param chunks       desired number of chunks
+   * @param cache        cached attribute runs of the document if any
+   * @param sources      attribute sources of the chunks which runs are not at the given cache
+   * @param trace        holder for the phase timings
+   * @param budget       limits of the copy if any
+   * @param executor     executor for the chunks processing
+   */
+  private static void processInParallel(@NotNull Context context,
+                                        @NotNull final CopyRequest request,
+                                        @Nullable Palette palette,
+                                        int startOffset,
+                                        int endOffset,
+                                        int offsetShift,
+                                        int chunks,
+                                        @Nullable final AttributeRunCache cache,
+                                        @NotNull final SegmentSources sources,
+                                        @NotNull CollectTrace trace,
+                                        @Nullable final CopyBudget budget,
+                                        @NotNull Executor executor) throws CopyBudget.ExceededException
+  {
+    TIntArrayList bounds = new TIntArrayList();
+    bounds.add(startOffset);
+    for (int i = 1; i < chunks; i++) {
+      int lineStart = StringUtil.indexOf(request.text, '\n', startOffset + (int)((long)(endOffset - startOffset) * i / chunks)) + 1;
+      if (lineStart <= 0 || lineStart >= endOffset) {
+        break;
       }
-      finally {
-        it.dispose();
+      if (lineStart > bounds.get(bounds.size() - 1)) {
+        bounds.add(lineStart);
       }
-      context.onIterationEnd(endOffsets[i]);
     }
-    SyntaxInfo syntaxInfo = context.finish();
-    logSyntaxInfo(syntaxInfo);
-    CACHED.set(Pair.create(System.currentTimeMillis(), syntaxInfo));
-    return build(syntaxInfo);
+    bounds.add(endOffset);
+
+    final ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    List<Context> chunkContexts = new ArrayList<Context>();
+    List<CollectTrace> chunkTraces = new ArrayList<CollectTrace>();
+    List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+    for (int i = 1; i < bounds.size() - 1; i++) {
+      final Context chunkContext = new Context(request.text, request.defaultForeground, request.defaultBackground, palette,
+                                               request.indentSymbolsToStrip);
+      chunkContext.reset(offsetShift);
+      chunkContext.startAtLine(bounds.get(i));
+      final CollectTrace chunkTrace = new CollectTrace(trace.traceSources);
+      final int chunkStart = bounds.get(i);
+      final int chunkEnd = bounds.get(i + 1);
+      final Runnable runnable = new Runnable() {
+        @Override
+        public void run() {
+          long allocatedBytesBefore = chunkTrace.traceSources ? CopyStatistics.getThreadAllocatedBytes() : -1;
+          process(chunkContext, request, chunkStart, chunkEnd, cache, sources, chunkTrace, budget);
+          long allocatedBytesAfter = allocatedBytesBefore < 0 ? -1 : CopyStatistics.getThreadAllocatedBytes();
+          if (allocatedBytesAfter >= 0) {
+            chunkTrace.chunkAllocatedBytes = allocatedBytesAfter - allocatedBytesBefore;
+          }
+        }
+      };
+      FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+        @Override
+        public void run() {
+          if (indicator == null) {
+            runnable.run();
+          }
+          else {
+            // Makes the copy cancellation visible to the chunk.
+            ProgressManager.getInstance().runProcess(runnable, indicator);
+          }
+        }
+      }, null);
+      chunkContexts.add(chunkContext);
+      chunkTraces.add(chunkTrace);
+      tasks.add(task);
+      executor.execute(task);
+    }
+
+    Throwable error = null;
+    try {
+      process(context, request, startOffset, bounds.get(1), cache, sources, trace, budget);
+    }
+    catch (Throwable e) {
+      error = e;
+    }
+    boolean interrupted = false;
+    for (FutureTask<Void> task : tasks) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          // Chunks can't be abandoned as they rely on the read action held by the current thread.
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          if (error == null) {
+            error = e.getCause();
+          }
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (error instanceof RuntimeException) {
+      throw (RuntimeException)error;
+    }
+    if (error instanceof Error) {
+      throw (Error)error;
+    }
+    if (error != null) {
+      throw new RuntimeException(error);
+    }
+
+    long appendStart = System.nanoTime();
+    for (Context chunkContext : chunkContexts) {
+      context.append(chunkContext);
+    }
+    trace.contextNanos += System.nanoTime() - appendStart;
+    for (CollectTrace chunkTrace : chunkTraces) {
+      trace.iterationNanos += chunkTrace.iterationNanos;
+      trace.lexerNanos += chunkTrace.lexerNanos;
+      trace.markupNanos += chunkTrace.markupNanos;
+      trace.contextNanos += chunkTrace.contextNanos;
+      trace.chunkAllocatedBytes += chunkTrace.chunkAllocatedBytes;
+      trace.highlighters += chunkTrace.highlighters;
+    }
   }
 
-  @Nullable
-  protected SyntaxInfo getCached() {
-    Pair<Long, SyntaxInfo> pair = CACHED.get();
-    if (pair != null && System.currentTimeMillis() - pair.first < CACHE_TTL_MS) {
-      return pair.second;
+  /**
+   * Editor's highlighter is kept up to date with the document by the editor itself, so, it's possible to iterate only
+   * selected range from it. That's not the case for a highlighter built from scratch - it has to lex the whole document first,
+   * hence, we do that only if editor's highlighter can't be used for the given colors scheme or the document has been changed
+   * since the copy.
+   * 
+   * @param text    copied document text
+   * @param stale   <code>true</code> if editor's highlighter doesn't match the given text
+   * @return    highlighter to use and an optional remapper to apply to its tokens in order to get attributes of the given scheme
+   */
+  @NotNull
+  private static Pair<EditorHighlighter, TokenAttributesRemapper> getHighlighter(@NotNull PsiFile file,
+                                                                                 @NotNull Editor editor,
+                                                                                 @NotNull EditorColorsScheme scheme,
+                                                                                 @NotNull CharSequence text,
+                                                                                 boolean stale)
+  {
+    if (!stale && editor instanceof EditorEx) {
+      EditorHighlighter highlighter = ((EditorEx)editor).getHighlighter();
+      if (scheme == editor.getColorsScheme()) {
+        return Pair.create(highlighter, null);
+      }
+      TokenAttributesRemapper remapper = TokenAttributesRemapper.create(highlighter, scheme);
+      if (remapper != null) {
+        return Pair.create(highlighter, remapper);
+      }
     }
-    return null;
+    EditorHighlighter result = HighlighterFactory.createHighlighter(file.getProject(), file.getVirtualFile());
+    result.setText(text);
+    result.setColorScheme(scheme);
+    return Pair.create(result, null);
   }
-  
-  private static void logInitial(@NotNull Editor editor,
+
+  private static void logInitial(@NotNull CharSequence text,
                                  @NotNull int[] startOffsets,
                                  @NotNull int[] endOffsets,
                                  int indentSymbolsToStrip,
@@ -148,13 +870,14 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
     }
     
     StringBuilder buffer = new StringBuilder();
-    Document document = editor.getDocument();
-    CharSequence text = document.getCharsSequence();
     for (int i = 0; i < startOffsets.length; i++) {
       int start = startOffsets[i];
-      int lineStart = document.getLineStartOffset(document.getLineNumber(start));
+      int lineStart = getLineStartOffset(text, start);
       int end = endOffsets[i];
-      int lineEnd = document.getLineEndOffset(document.getLineNumber(end));
+      int lineEnd = StringUtil.indexOf(text, '\n', end);
+      if (lineEnd < 0) {
+        lineEnd = text.length();
+      }
       buffer.append("    region #").append(i).append(": ").append(start).append('-').append(end).append(", text at range ")
         .append(lineStart).append('-').append(lineEnd).append(": \n'").append(text.subSequence(lineStart, lineEnd)).append("'\n");
     }
@@ -177,27 +900,20 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
   }
 
   private static Pair<Integer/* start offset to use */, Integer /* indent symbols to strip */> calcIndentSymbolsToStrip(
-    @NotNull Document document, int startOffset, int endOffset)
+    @NotNull CharSequence text, int startOffset, int endOffset)
   {
-    int startLine = document.getLineNumber(startOffset);
-    int endLine = document.getLineNumber(endOffset);
-    CharSequence text = document.getCharsSequence();
-    for (int line = startLine; line <= endLine; line++) {
-      int lineStartOffset = document.getLineStartOffset(line);
-      int lineEndOffset = document.getLineEndOffset(line);
-      int nonWsOffset = lineEndOffset;
-      for (int i = lineStartOffset; i < lineEndOffset; i++) {
-        char c = text.charAt(i);
-        if (c != ' ' && c != '\t') {
-          nonWsOffset = i;
-          break;
-        }
+    int lineStartOffset = getLineStartOffset(text, startOffset);
+    for (boolean firstLine = true; lineStartOffset <= endOffset; firstLine = false) {
+      int nonWsOffset = lineStartOffset;
+      while (nonWsOffset < text.length() && (text.charAt(nonWsOffset) == ' ' || text.charAt(nonWsOffset) == '\t')) {
+        nonWsOffset++;
       }
-      if (nonWsOffset >= lineEndOffset) {
-        continue; // Blank line
+      if (nonWsOffset >= text.length() || text.charAt(nonWsOffset) == '\n') {
+        lineStartOffset = nonWsOffset + 1; // Blank line
+        continue;
       }
       final int startOffsetToUse;
-      if (line == startLine && nonWsOffset > startOffset) {
+      if (firstLine && nonWsOffset > startOffset) {
         startOffsetToUse = nonWsOffset;
       }
       else {
@@ -208,266 +924,195 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
     return Pair.create(startOffset, 0);
   }
 
+  private static int getLineStartOffset(@NotNull CharSequence text, int offset) {
+    int result = offset;
+    while (result > 0 && text.charAt(result - 1) != '\n') {
+      result--;
+    }
+    return result;
+  }
+
+  /**
+   * @param info  syntax info which is being computed in background
+   * @return      transferable data which waits for the given syntax info only when its content is requested
+   */
   @Nullable
-  protected abstract T build(@NotNull SyntaxInfo info);
+  protected abstract T build(@NotNull Future<SyntaxInfo> info);
 
   protected abstract boolean isEnabled(@NotNull CopyOnSteroidSettings settings);
 
-  private static DisposableIterator<SegmentInfo> aggregateSyntaxInfo(@NotNull Editor editor,
-                                                                     @NotNull final DisposableIterator<List<SegmentInfo>>... iterators)
+  @NotNull
+  private static TextAttributesSource wrap(@NotNull EditorHighlighter highlighter,
+                                           @Nullable final TokenAttributesRemapper remapper,
+                                           final int startOffset,
+                                           final int endOffset)
   {
-    EditorColorsScheme colorsScheme = editor.getColorsScheme();
-    final Color defaultForeground = colorsScheme.getDefaultForeground();
-    final Color defaultBackground = colorsScheme.getDefaultBackground();
-    return new DisposableIterator<SegmentInfo>() {
+    final HighlighterIterator highlighterIterator = highlighter.createIterator(startOffset);
+    return new TextAttributesSource() {
 
-      @NotNull private final Queue<SegmentInfo> myInfos = new PriorityQueue<SegmentInfo>();
-      @NotNull private final Map<SegmentInfo, DisposableIterator<List<SegmentInfo>>> myEndMarkers
-        = new IdentityHashMap<SegmentInfo, DisposableIterator<List<SegmentInfo>>>();
+      private int            myStartOffset;
+      private int            myEndOffset;
+      private TextAttributes myAttributes;
+      private boolean        myStarted;
 
-      {
-        for (DisposableIterator<List<SegmentInfo>> iterator : iterators) {
-          extract(iterator);
+      @Override
+      public boolean advance() {
+        if (myStarted) {
+          highlighterIterator.advance();
         }
+        myStarted = true;
+        for (; !highlighterIterator.atEnd(); highlighterIterator.advance()) {
+          int tokenStart = Math.max(highlighterIterator.getStart(), startOffset);
+          if (tokenStart >= endOffset) {
+            return false;
+          }
+          if (highlighterIterator.getTokenType() == TokenType.BAD_CHARACTER) {
+            // Skip syntax errors.
+            continue;
+          }
+          myStartOffset = tokenStart;
+          myEndOffset = Math.min(highlighterIterator.getEnd(), endOffset);
+          myAttributes = remapper == null
+                         ? highlighterIterator.getTextAttributes()
+                         : remapper.getAttributes(highlighterIterator.getTokenType());
+          return true;
+        }
+        return false;
       }
 
       @Override
-      public boolean hasNext() {
-        return !myInfos.isEmpty();
+      public int getStartOffset() {
+        return myStartOffset;
       }
 
       @Override
-      public SegmentInfo next() {
-        SegmentInfo result = myInfos.remove();
-        DisposableIterator<List<SegmentInfo>> iterator = myEndMarkers.remove(result);
-        if (iterator != null) {
-          extract(iterator);
-        }
-        while (!myInfos.isEmpty()) {
-          SegmentInfo toMerge = myInfos.peek();
-          if (toMerge.endOffset > result.endOffset) {
-            break;
-          }
-          myInfos.remove();
-          result = merge(result, toMerge);
-          DisposableIterator<List<SegmentInfo>> it = myEndMarkers.remove(toMerge);
-          if (it != null) {
-            extract(it);
-          }
-        }
-        return result;
+      public int getEndOffset() {
+        return myEndOffset;
       }
 
-      @NotNull
-      private SegmentInfo merge(@NotNull SegmentInfo info1, @NotNull SegmentInfo info2) {
-        Color background = info1.background;
-        if (background == null || defaultBackground.equals(background)) {
-          background = info2.background;
-        }
-        
-        Color foreground = info1.foreground;
-        if (foreground == null || defaultForeground.equals(foreground)) {
-          foreground = info2.foreground;
-        }
-        
-        int fontStyle = info1.fontStyle;
-        if (fontStyle == Font.PLAIN) {
-          fontStyle = info2.fontStyle;
-        }
-        return new SegmentInfo(foreground, background, info1.fontFamilyName, fontStyle, info1.fontSize, info1.startOffset, info1.endOffset);
+      @Override
+      public int getLayer() {
+        return HighlighterLayer.SYNTAX;
       }
 
+      @NotNull
       @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+      public TextAttributes getAttributes() {
+        return myAttributes;
       }
 
       @Override
       public void dispose() {
-        for (DisposableIterator<List<SegmentInfo>> iterator : iterators) {
-          iterator.dispose();
-        }
-      }
-
-      private void extract(@NotNull DisposableIterator<List<SegmentInfo>> iterator) {
-        while (iterator.hasNext()) {
-          List<SegmentInfo> infos = iterator.next();
-          if (infos.isEmpty()) {
-            continue;
-          }
-          myInfos.addAll(infos);
-          myEndMarkers.put(infos.get(infos.size() - 1), iterator);
-          break;
-        }
+        myAttributes = null;
       }
     };
   }
 
+  /**
+   * @param maxHighlighters  max number of highlighters to examine including the ones which don't change text appearance,
+   *                         non-positive value means no limit
+   * @return                 source of the markup highlighters of the given range which change text appearance, it throws
+   *                         {@link CopyBudget.ExceededException} when the given number of highlighters is exceeded
+   */
   @NotNull
-  private static DisposableIterator<List<SegmentInfo>> wrap(@NotNull final EditorHighlighter highlighter,
-                                                            @NotNull final Editor editor,
-                                                            @NotNull final EditorColorsScheme colorsScheme,
-                                                            final int startOffset,
-                                                            final int endOffset)
+  private static TextAttributesSource wrap(@NotNull MarkupModel model,
+                                           @NotNull EditorColorsScheme colorsScheme,
+                                           final int startOffset,
+                                           final int endOffset,
+                                           final int maxHighlighters)
   {
-    final HighlighterIterator highlighterIterator = highlighter.createIterator(startOffset);
-    return new DisposableIterator<List<SegmentInfo>>() {
+    if (!(model instanceof MarkupModelEx)) {
+      return EMPTY_SOURCE;
+    }
+    final DisposableIterator<RangeHighlighterEx> iterator = ((MarkupModelEx)model).overlappingIterator(startOffset, endOffset);
+    final ResolvedAttributesCache attributesCache = ResolvedAttributesCache.getInstance(colorsScheme);
+    return new TextAttributesSource() {
 
-      @Nullable private List<SegmentInfo> myCached;
+      private int            myStartOffset;
+      private int            myEndOffset;
+      private int            myLayer;
+      private TextAttributes myAttributes;
+      private int            myHighlighters;
 
       @Override
-      public boolean hasNext() {
-        return myCached != null || updateCached();
+      public boolean advance() {
+        while (iterator.hasNext()) {
+          if (++myHighlighters > maxHighlighters && maxHighlighters > 0) {
+            throw new CopyBudget.ExceededException(false);
+          }
+          RangeHighlighterEx highlighter = iterator.next();
+          if (highlighter == null || !highlighter.isValid() || !isInterestedHighlightLayer(highlighter.getLayer())) {
+            continue;
+          }
+          
+          int tokenStart = Math.max(highlighter.getStartOffset(), startOffset);
+          if (tokenStart >= endOffset) {
+            return false;
+          }
+          int tokenEnd = Math.min(highlighter.getEndOffset(), endOffset);
+          if (tokenEnd <= tokenStart) {
+            continue;
+          }
+          
+          TextAttributes attributes = getAttributes(highlighter);
+          if (attributes == null) {
+            // Highlighters which don't change text appearance are skipped.
+            continue;
+          }
+          
+          myStartOffset = tokenStart;
+          myEndOffset = tokenEnd;
+          myLayer = highlighter.getLayer();
+          myAttributes = attributes;
+          return true;
+        }
+        return false;
       }
 
-      @Override
-      public List<SegmentInfo> next() {
-        if (myCached != null) {
-          List<SegmentInfo> result = myCached;
-          myCached = null;
-          return result;
+      @Nullable
+      private TextAttributes getAttributes(@NotNull RangeHighlighterEx highlighter) {
+        Object tooltip = highlighter.getErrorStripeTooltip();
+        if (!(tooltip instanceof HighlightInfo)) {
+          return null;
         }
-
-        if (!updateCached()) {
-          throw new UnsupportedOperationException();
+        HighlightInfo info = (HighlightInfo)tooltip;
+        TextAttributesKey key = info.forcedTextAttributesKey;
+        if (key == null) {
+          HighlightInfoType type = info.type;
+          if (type != null) {
+            key = type.getAttributesKey();
+          }
         }
-        return myCached;
-      }
-
-      @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+        return key == null ? null : attributesCache.getMarkupAttributes(key);
       }
 
       @Override
-      public void dispose() {
-      }
-
-      private boolean updateCached() {
-        if (highlighterIterator.atEnd()) {
-          return false;
-        }
-        int tokenStart = Math.max(highlighterIterator.getStart(), startOffset);
-        if (tokenStart >= endOffset) {
-          return false;
-        }
-
-        if (highlighterIterator.getTokenType() == TokenType.BAD_CHARACTER) {
-          // Skip syntax errors.
-          highlighterIterator.advance();
-          return updateCached();
-        }
-        TextAttributes attributes = highlighterIterator.getTextAttributes();
-        int tokenEnd = Math.min(highlighterIterator.getEnd(), endOffset);
-        myCached = SegmentInfo.produce(attributes, editor, colorsScheme, tokenStart, tokenEnd);
-        highlighterIterator.advance();
-        return true;
+      public int getStartOffset() {
+        return myStartOffset;
       }
-    };
-  }
-
-  @SuppressWarnings("unchecked")
-  @NotNull
-  private static DisposableIterator<List<SegmentInfo>> wrap(@NotNull MarkupModel model,
-                                                            @NotNull final Editor editor,
-                                                            @NotNull final EditorColorsScheme colorsScheme,
-                                                            final int startOffset,
-                                                            final int endOffset)
-  {
-    if (!(model instanceof MarkupModelEx)) {
-      return DisposableIterator.EMPTY;
-    }
-    final DisposableIterator<RangeHighlighterEx> iterator = ((MarkupModelEx)model).overlappingIterator(startOffset, endOffset);
-    final Color defaultForeground = colorsScheme.getDefaultForeground();
-    final Color defaultBackground = colorsScheme.getDefaultBackground();
-    return new DisposableIterator<List<SegmentInfo>>() {
 
-      @Nullable private List<SegmentInfo> myCached;
-      
       @Override
-      public boolean hasNext() {
-        return myCached != null || updateCached();
+      public int getEndOffset() {
+        return myEndOffset;
       }
 
       @Override
-      public List<SegmentInfo> next() {
-        if (myCached != null) {
-          List<SegmentInfo> result = myCached;
-          myCached = null;
-          return result;
-        }
-
-        if (!updateCached()) {
-          throw new UnsupportedOperationException();
-        }
-        return myCached;
+      public int getLayer() {
+        return myLayer;
       }
 
+      @NotNull
       @Override
-      public void remove() {
-        throw new UnsupportedOperationException();
+      public TextAttributes getAttributes() {
+        return myAttributes;
       }
 
       @Override
       public void dispose() {
         iterator.dispose();
+        myAttributes = null;
       }
 
-      private boolean updateCached() {
-        if (!iterator.hasNext()) {
-          return false;
-        }
-        
-        RangeHighlighterEx highlighter = iterator.next();
-        while (highlighter == null
-               || !highlighter.isValid()
-               || !isInterestedHighlightLayer(highlighter.getLayer()))
-        {
-          if (!iterator.hasNext()) {
-            return false;
-          }
-          highlighter = iterator.next();
-        }
-        
-        int tokenStart = Math.max(highlighter.getStartOffset(), startOffset);
-        if (tokenStart >= endOffset) {
-          return false;
-        }
-        
-        TextAttributes attributes = null;
-        Object tooltip = highlighter.getErrorStripeTooltip();
-        if (tooltip instanceof HighlightInfo) {
-          HighlightInfo info = (HighlightInfo)tooltip;
-          TextAttributesKey key = info.forcedTextAttributesKey;
-          if (key == null) {
-            HighlightInfoType type = info.type;
-            if (type != null) {
-              key = type.getAttributesKey();
-            }
-          }
-          if (key != null) {
-            attributes = colorsScheme.getAttributes(key);
-          }
-        }
-        
-        if (attributes == null) {
-          return updateCached();
-        }
-        Color foreground = attributes.getForegroundColor();
-        Color background = attributes.getBackgroundColor();
-        if ((foreground == null || defaultForeground.equals(foreground))
-            && (background == null || defaultBackground.equals(background))
-            && attributes.getFontType() == Font.PLAIN)
-        {
-          return updateCached();
-        }
-        
-        int tokenEnd = Math.min(highlighter.getEndOffset(), endOffset);
-        //noinspection ConstantConditions
-        myCached = SegmentInfo.produce(attributes, editor, colorsScheme, tokenStart, tokenEnd);
-        return true;
-      }
-      
       private boolean isInterestedHighlightLayer(int layer) {
         return layer != HighlighterLayer.CARET_ROW && layer != HighlighterLayer.SELECTION && layer != HighlighterLayer.ERROR
                && layer != HighlighterLayer.WARNING;
@@ -491,17 +1136,123 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
   {
   }
   
+  /**
+   * Every registered processor is asked for its data on every copy. This class allows them to share a single syntax info
+   * computation - it's identified by the editor, document modification stamp and copied ranges.
+   * <p/>
+   * Copies which exceed {@link Fidelity#PLAIN_TEXT plain text} threshold don't have the computation at all.
+   * <p/>
+   * The computation is referenced weakly, i.e. it's kept only while a transferable built for it is alive (e.g. at the clipboard).
+   */
+  private static class LastCopy {
+
+    @NotNull private final WeakReference<Editor>              myEditor;
+    @NotNull private final WeakReference<EditorColorsScheme>  myScheme;
+    @Nullable private final WeakReference<Future<SyntaxInfo>> mySyntaxInfo;
+    @NotNull private final int[]                              myStartOffsets;
+    @NotNull private final int[]                              myEndOffsets;
+
+    private final long myModificationStamp;
+    private final int  mySettingsModificationCount;
+
+    /**
+     * @param scheme                     colors scheme the copy is formatted with
+     * @param settingsModificationCount  {@link CopyOnSteroidSettings#getModificationCount() settings state} at the moment
+     *                                   of the copy
+     * @param syntaxInfo                 syntax info computation, <code>null</code> for a {@link Fidelity#PLAIN_TEXT plain text}
+     *                                   copy
+     */
+    LastCopy(@NotNull Editor editor,
+             long modificationStamp,
+             @NotNull EditorColorsScheme scheme,
+             int settingsModificationCount,
+             @NotNull int[] startOffsets,
+             @NotNull int[] endOffsets,
+             @Nullable Future<SyntaxInfo> syntaxInfo)
+    {
+      myEditor = new WeakReference<Editor>(editor);
+      myScheme = new WeakReference<EditorColorsScheme>(scheme);
+      myModificationStamp = modificationStamp;
+      mySettingsModificationCount = settingsModificationCount;
+      myStartOffsets = startOffsets.clone();
+      myEndOffsets = endOffsets.clone();
+      mySyntaxInfo = syntaxInfo == null ? null : new WeakReference<Future<SyntaxInfo>>(syntaxInfo);
+    }
+
+    /**
+     * @return    <code>true</code> if the given copy would produce the same formatting as the current one; <code>false</code>
+     *            otherwise
+     */
+    public boolean isSame(@NotNull Editor editor,
+                          long modificationStamp,
+                          @NotNull EditorColorsScheme scheme,
+                          int settingsModificationCount,
+                          @NotNull int[] startOffsets,
+                          @NotNull int[] endOffsets)
+    {
+      return myEditor.get() == editor
+             && myModificationStamp == modificationStamp
+             && myScheme.get() == scheme
+             && mySettingsModificationCount == settingsModificationCount
+             && Arrays.equals(myStartOffsets, startOffsets)
+             && Arrays.equals(myEndOffsets, endOffsets);
+    }
+
+    public boolean isPlainText() {
+      return mySyntaxInfo == null;
+    }
+
+    /**
+     * @return    syntax info computation of the current copy if it's still alive; <code>null</code> otherwise
+     */
+    @Nullable
+    public Future<SyntaxInfo> getSyntaxInfo() {
+      Future<SyntaxInfo> result = mySyntaxInfo == null ? null : mySyntaxInfo.get();
+      return result == null || result.isCancelled() ? null : result;
+    }
+
+    public void cancel() {
+      Future<SyntaxInfo> syntaxInfo = mySyntaxInfo == null ? null : mySyntaxInfo.get();
+      if (syntaxInfo != null) {
+        syntaxInfo.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * Successful {@link #buildWithFallback syntax info construction attempt}.
+   */
+  static class Attempt {
+
+    @NotNull public final Fidelity     fidelity;
+    @NotNull public final SyntaxInfo   syntaxInfo;
+    @NotNull public final CollectTrace trace;
+    /** Recorder of the attempt's sources if the copies are recorded. */
+    @Nullable public final CopyRecorder recorder;
+
+    Attempt(@NotNull Fidelity fidelity, @NotNull SyntaxInfo syntaxInfo, @NotNull CollectTrace trace, @Nullable CopyRecorder recorder) {
+      this.fidelity = fidelity;
+      this.syntaxInfo = syntaxInfo;
+      this.trace = trace;
+      this.recorder = recorder;
+    }
+  }
+
   private static class Context {
 
-    @NotNull public final List<OutputInfo> outputInfos = ContainerUtilRt.newArrayList();
+    @NotNull public final OutputInfoStream outputInfos = new OutputInfoStream();
 
     @NotNull private final ColorRegistry    myColorRegistry    = new ColorRegistry();
     @NotNull private final FontNameRegistry myFontNameRegistry = new FontNameRegistry();
+    @NotNull private final StyleRegistry    myStyleRegistry    = new StyleRegistry();
 
     @NotNull private final CharSequence myText;
     @NotNull private final Color        myDefaultForeground;
     @NotNull private final Color        myDefaultBackground;
 
+    /** Palette of the previous copies with the same scheme, it's reused if the current copy doesn't extend it. */
+    @Nullable private final Palette myBasePalette;
+
     @Nullable private Color  myBackground;
     @Nullable private Color  myForeground;
     @Nullable private String myFontFamilyName;
@@ -513,15 +1264,30 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
     private int myStartOffset = -1;
     private int myOffsetShift = -1;
     
+    private int mySingleFontFamilyName;
     private int mySingleFontSize;
     
     private int myIndentSymbolsToStripAtCurrentLine;
 
-    Context(@NotNull Editor editor, @NotNull EditorColorsScheme scheme, int indentSymbolsToStrip) {
-      myText = editor.getDocument().getCharsSequence();
-      myDefaultForeground = scheme.getDefaultForeground();
-      myDefaultBackground = scheme.getDefaultBackground();
+    /** Id of the style which is defined for the subsequent text infos, zero if no style is defined yet. */
+    private int     myStyleId;
+    private boolean myStyleChanged;
+
+    Context(@NotNull CharSequence text,
+            @NotNull Color defaultForeground,
+            @NotNull Color defaultBackground,
+            @Nullable Palette basePalette,
+            int indentSymbolsToStrip)
+    {
+      myText = text;
+      myDefaultForeground = defaultForeground;
+      myDefaultBackground = defaultBackground;
+      myBasePalette = basePalette;
       myIndentSymbolsToStrip = indentSymbolsToStrip;
+      if (basePalette != null) {
+        myColorRegistry.addAll(basePalette.getColorRegistry());
+        myFontNameRegistry.addAll(basePalette.getFontNameRegistry());
+      }
     }
 
     public void reset(int offsetShift) {
@@ -530,6 +1296,78 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
       myIndentSymbolsToStripAtCurrentLine = 0;
     }
 
+    /**
+     * Prepares the current context to process a chunk of a region which starts at the given line start, i.e. the chunk text
+     * is output from the given offset and its first line indent is stripped.
+     * <p/>
+     * The chunk is {@link #append(Context) appended} to the output of the previous chunk, so, its first text must not inherit
+     * the previous chunk's style: the chunk starts with the default colors and plain font which are output explicitly.
+     *
+     * @param lineStartOffset  chunk start offset
+     */
+    public void startAtLine(int lineStartOffset) {
+      myStartOffset = lineStartOffset;
+      myIndentSymbolsToStripAtCurrentLine = myIndentSymbolsToStrip;
+      myForeground = myDefaultForeground;
+      myBackground = myDefaultBackground;
+      myFontStyle = Font.PLAIN;
+      myStyleChanged = true;
+    }
+
+    /**
+     * Appends output of the given context which has processed the text which follows the text processed by the current
+     * context. Ids of the given context's registries are remapped to the current context's ones.
+     *
+     * @param other  context to append
+     */
+    public void append(@NotNull Context other) {
+      int[] colorIds = new int[other.myColorRegistry.size() + 1];
+      for (int id = 1; id < colorIds.length; id++) {
+        colorIds[id] = myColorRegistry.getId(other.myColorRegistry.dataById(id));
+      }
+      int[] fontNameIds = new int[other.myFontNameRegistry.size() + 1];
+      for (int id = 1; id < fontNameIds.length; id++) {
+        fontNameIds[id] = myFontNameRegistry.getId(other.myFontNameRegistry.dataById(id));
+      }
+      int[] styleIds = new int[other.myStyleRegistry.size() + 1];
+      for (int id = 1; id < styleIds.length; id++) {
+        TextStyle style = other.myStyleRegistry.dataById(id);
+        styleIds[id] = myStyleRegistry.getId(new TextStyle(colorIds[style.getForeground()],
+                                                           colorIds[style.getBackground()],
+                                                           fontNameIds[style.getFontFamilyName()],
+                                                           style.getFontStyle(),
+                                                           style.getFontSize()));
+      }
+      for (OutputInfoCursor cursor = other.outputInfos.cursor(); cursor.advance(); ) {
+        if (cursor.getOpcode() == OutputInfoStream.TEXT) {
+          outputInfos.addText(cursor.getOperand(), cursor.getEndOffset());
+        }
+        else if (styleIds[cursor.getOperand()] != myStyleId) {
+          myStyleId = styleIds[cursor.getOperand()];
+          outputInfos.addStyleChange(myStyleId);
+        }
+      }
+      
+      int otherFontFamilyName = other.mySingleFontFamilyName > 0 ? fontNameIds[other.mySingleFontFamilyName]
+                                                                 : other.mySingleFontFamilyName;
+      mySingleFontFamilyName = merge(mySingleFontFamilyName, otherFontFamilyName);
+      mySingleFontSize = merge(mySingleFontSize, other.mySingleFontSize);
+    }
+
+    /**
+     * @return    single value of the given 'single value' properties (zero means that a property is not defined yet and
+     *            negative value means that there are different values)
+     */
+    private static int merge(int value1, int value2) {
+      if (value1 == 0) {
+        return value2;
+      }
+      if (value2 == 0) {
+        return value1;
+      }
+      return value1 == value2 ? value1 : -1;
+    }
+
     public void onNewData(@NotNull SegmentInfo info) {
       if (myStartOffset < 0) {
         myStartOffset = info.startOffset;
@@ -559,8 +1397,8 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
     private void processFontStyle(@NotNull SegmentInfo info) {
       if (info.fontStyle != myFontStyle) {
         addTextIfPossible(info.startOffset);
-        outputInfos.add(new FontStyle(info.fontStyle));
         myFontStyle = info.fontStyle;
+        myStyleChanged = true;
       }
     }
 
@@ -573,16 +1411,18 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
       }
       if (info.fontSize != myFontSize) {
         addTextIfPossible(info.startOffset);
-        outputInfos.add(new FontSize(info.fontSize));
         myFontSize = info.fontSize;
+        myStyleChanged = true;
       }
     }
 
     private void processFontFamilyName(@NotNull SegmentInfo info) {
       if (!info.fontFamilyName.equals(myFontFamilyName)) {
         addTextIfPossible(info.startOffset);
-        outputInfos.add(new FontFamilyName(myFontNameRegistry.getId(info.fontFamilyName)));
+        // Font family is changed for the second time only if different families are used.
+        mySingleFontFamilyName = myFontFamilyName == null ? myFontNameRegistry.getId(info.fontFamilyName) : -1;
         myFontFamilyName = info.fontFamilyName;
+        myStyleChanged = true;
       }
     }
 
@@ -590,14 +1430,14 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
       if (myForeground == null && info.foreground != null) {
         addTextIfPossible(info.startOffset);
         myForeground = info.foreground;
-        outputInfos.add(new Foreground(myColorRegistry.getId(info.foreground)));
+        myStyleChanged = true;
       }
       else if (myForeground != null) {
         Color c = info.foreground == null ? myDefaultForeground : info.foreground;
         if (!myForeground.equals(c)) {
           addTextIfPossible(info.startOffset);
-          outputInfos.add(new Foreground(myColorRegistry.getId(c)));
           myForeground = c;
+          myStyleChanged = true;
         }
       }
     }
@@ -606,14 +1446,14 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
       if (myBackground == null && info.background != null) {
         addTextIfPossible(info.startOffset);
         myBackground = info.background;
-        outputInfos.add(new Background(myColorRegistry.getId(info.background)));
+        myStyleChanged = true;
       }
       else if (myBackground != null) {
         Color c = info.background == null ? myDefaultBackground : info.background;
         if (!myBackground.equals(c)) {
           addTextIfPossible(info.startOffset);
-          outputInfos.add(new Background(myColorRegistry.getId(c)));
           myBackground = c;
+          myStyleChanged = true;
         }
       }
     }
@@ -623,12 +1463,13 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
         return;
       }
 
+      addStyleChangeIfNecessary();
       for (int i = myStartOffset; i < endOffset; i++) {
         char c = myText.charAt(i);
         switch (c) {
           case '\n':
             myIndentSymbolsToStripAtCurrentLine = myIndentSymbolsToStrip;
-            outputInfos.add(new Text(myStartOffset + myOffsetShift, i + myOffsetShift + 1));
+            outputInfos.addText(myStartOffset + myOffsetShift, i + myOffsetShift + 1);
             myStartOffset = i + 1;
             break;
           // Intended fall-through.
@@ -644,11 +1485,30 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
       }
 
       if (myStartOffset < endOffset) {
-        outputInfos.add(new Text(myStartOffset + myOffsetShift, endOffset + myOffsetShift));
+        outputInfos.addText(myStartOffset + myOffsetShift, endOffset + myOffsetShift);
         myStartOffset = endOffset;
       }
     }
 
+    private void addStyleChangeIfNecessary() {
+      if (!myStyleChanged) {
+        return;
+      }
+      myStyleChanged = false;
+      TextStyle style = new TextStyle(
+        myForeground == null ? 0 : myColorRegistry.getId(myForeground),
+        myBackground == null ? 0 : myColorRegistry.getId(myBackground),
+        myFontFamilyName == null ? 0 : myFontNameRegistry.getId(myFontFamilyName),
+        Math.max(myFontStyle, Font.PLAIN),
+        Math.max(myFontSize, 0)
+      );
+      int styleId = myStyleRegistry.getId(style);
+      if (styleId != myStyleId) {
+        outputInfos.addStyleChange(styleId);
+        myStyleId = styleId;
+      }
+    }
+
     public void onIterationEnd(int endOffset) {
       addTextIfPossible(endOffset);
     }
@@ -657,151 +1517,19 @@ public abstract class AbstractCopyPasteSyntaxAwareProcessor<T extends TextBlockT
     public SyntaxInfo finish() {
       int foreground = myColorRegistry.getId(myDefaultForeground);
       int background = myColorRegistry.getId(myDefaultBackground);
-      myColorRegistry.seal();
-      myFontNameRegistry.seal();
-      return new SyntaxInfo(outputInfos, foreground, background, mySingleFontSize, myFontNameRegistry, myColorRegistry);
-    }
-  }
-
-  private static class SegmentInfo implements Comparable<SegmentInfo> {
-
-    @Nullable public final Color  foreground;
-    @Nullable public final Color  background;
-    @NotNull public final  String fontFamilyName;
-
-    public final int fontStyle;
-    public final int fontSize;
-    public final int startOffset;
-    public final int endOffset;
-
-    SegmentInfo(@Nullable Color foreground,
-                @Nullable Color background,
-                @NotNull String fontFamilyName,
-                int fontStyle,
-                int fontSize,
-                int startOffset,
-                int endOffset)
-    {
-      this.foreground = foreground;
-      this.background = background;
-      this.fontFamilyName = fontFamilyName;
-      this.fontStyle = fontStyle;
-      this.fontSize = fontSize;
-      this.startOffset = startOffset;
-      this.endOffset = endOffset;
-    }
-
-    @NotNull
-    public static List<SegmentInfo> produce(@NotNull TextAttributes attribute,
-                                            @NotNull Editor editor,
-                                            @NotNull EditorColorsScheme colorsScheme,
-                                            int start,
-                                            int end)
-    {
-      if (end <= start) {
-        return Collections.emptyList();
-      }
-      List<SegmentInfo> result = ContainerUtilRt.newArrayList();
-      CharSequence text = editor.getDocument().getCharsSequence();
-      int currentStart = start;
-      int fontSize = colorsScheme.getEditorFontSize();
-      int fontStyle = attribute.getFontType();
-      String defaultFontFamily = colorsScheme.getEditorFontName();
-      Font font = ComplementaryFontsRegistry.getFontAbleToDisplay(text.charAt(start), fontSize, fontStyle, defaultFontFamily).getFont();
-      String currentFontFamilyName = font.getFamily();
-      int currentFontSize = font.getSize();
-      String candidateFontFamilyName;
-      int candidateFontSize;
-      for (int i = start + 1; i < end; i++) {
-        font = ComplementaryFontsRegistry.getFontAbleToDisplay(text.charAt(i), fontSize, fontStyle, defaultFontFamily).getFont();
-        candidateFontFamilyName = font.getFamily();
-        candidateFontSize = font.getSize();
-        if (!candidateFontFamilyName.equals(currentFontFamilyName) || currentFontSize != candidateFontSize) {
-          result.add(new SegmentInfo(attribute.getForegroundColor(),
-                                     attribute.getBackgroundColor(),
-                                     currentFontFamilyName,
-                                     fontStyle,
-                                     currentFontSize,
-                                     currentStart,
-                                     i
-          ));
-          currentStart = i;
-          currentFontFamilyName = candidateFontFamilyName;
-          currentFontSize = candidateFontSize;
-        }
-      }
-
-      if (currentStart < end) {
-        result.add(new SegmentInfo(attribute.getForegroundColor(),
-                                   attribute.getBackgroundColor(),
-                                   currentFontFamilyName,
-                                   fontStyle,
-                                   currentFontSize,
-                                   currentStart,
-                                   end
-        ));
-      }
-
-      return result;
-    }
-
-    @Override
-    public int compareTo(@NotNull SegmentInfo o) {
-      return startOffset - o.startOffset;
-    }
-
-    @Override
-    public int hashCode() {
-      int result = foreground != null ? foreground.hashCode() : 0;
-      result = 31 * result + (background != null ? background.hashCode() : 0);
-      result = 31 * result + fontFamilyName.hashCode();
-      result = 31 * result + fontStyle;
-      result = 31 * result + fontSize;
-      result = 31 * result + startOffset;
-      result = 31 * result + endOffset;
-      return result;
-    }
-
-    @SuppressWarnings("RedundantIfStatement")
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-
-      SegmentInfo info = (SegmentInfo)o;
-
-      if (endOffset != info.endOffset) return false;
-      if (fontStyle != info.fontStyle) return false;
-      if (fontSize != info.fontSize) return false;
-      if (startOffset != info.startOffset) return false;
-      if (background != null ? !background.equals(info.background) : info.background != null) return false;
-      if (!fontFamilyName.equals(info.fontFamilyName)) return false;
-      if (foreground != null ? !foreground.equals(info.foreground) : info.foreground != null) return false;
-
-      return true;
-    }
-
-    @Override
-    public String toString() {
-      StringBuilder fontStyleAsString = new StringBuilder();
-      if (fontStyle == Font.PLAIN) {
-        fontStyleAsString.append("plain");
-      }
-      else {
-        if ((fontStyle & Font.BOLD) != 0) {
-          fontStyleAsString.append("bold ");
-        }
-        if ((fontStyle & Font.ITALIC) != 0) {
-          fontStyleAsString.append("italic ");
-        }
-        if (fontStyleAsString.length() > 0) {
-          fontStyleAsString.setLength(fontStyleAsString.length() - 1);
-        }
-        else {
-          fontStyleAsString.append("unknown font style");
-        }
+      myStyleRegistry.seal();
+      OutputInfoStream infos = OutputInfoOptimizer.optimize(outputInfos);
+      infos.trimToSize();
+      Palette palette = myBasePalette;
+      if (palette == null
+          || myColorRegistry.size() > palette.getColorRegistry().size()
+          || myFontNameRegistry.size() > palette.getFontNameRegistry().size())
+      {
+        myColorRegistry.seal();
+        myFontNameRegistry.seal();
+        palette = new Palette(myColorRegistry, myFontNameRegistry, foreground, background);
       }
-      return String.format("%d-%d: %s, %s", startOffset, endOffset, fontFamilyName, fontStyleAsString);
+      return new SyntaxInfo(infos, palette, myStyleRegistry, mySingleFontFamilyName, mySingleFontSize);
     }
   }
 }
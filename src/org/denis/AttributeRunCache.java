@@ -0,0 +1,514 @@
+package org.denis;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.ex.DisposableIterator;
+import com.intellij.openapi.editor.ex.MarkupModelEx;
+import com.intellij.openapi.editor.ex.RangeHighlighterEx;
+import com.intellij.openapi.editor.impl.DocumentMarkupModel;
+import com.intellij.openapi.editor.impl.event.MarkupModelListener;
+import com.intellij.openapi.editor.markup.MarkupModel;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.containers.ContainerUtilRt;
+import gnu.trove.TIntArrayList;
+import org.denis.model.ColorRegistry;
+import org.denis.model.FontNameRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache of merged attribute runs (output of the lexer and markup model aggregation) of the document regions which have
+ * already been copied, so that subsequent copies of the same region don't have to iterate highlighters again.
+ * <p/>
+ * It's not a full document index: runs appear only for the copied regions and there is no incremental re-lexing, so, the
+ * cache speeds up repeated copies of unchanged text only. A region copied the first time or a region after an edit is
+ * processed by the regular merge.
+ * <p/>
+ * Runs are kept at parallel <code>int</code> arrays sorted by start offset. Colors and font family names are interned
+ * into registries local to the cache.
+ * <p/>
+ * The cache is kept valid by document and markup model listeners:
+ * <pre>
+ * <ul>
+ *   <li>
+ *     document change drops everything starting from the changed line - lexer state changes might affect any token after
+ *     the change (e.g. an opened comment) and the cache doesn't know where the highlighter stops re-lexing, so, runs after
+ *     the change are not shifted. The line before the change might be affected as well, e.g. an identifier becomes
+ *     a keyword when a symbol is typed after it;
+ *   </li>
+ *   <li>markup model change drops runs at the range of the added/removed/changed highlighter;</li>
+ * </ul>
+ * </pre>
+ * Runs are requested from background threads while the listeners are notified at the EDT, so, state access is synchronized.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:45 AM
+ */
+class AttributeRunCache implements Disposable {
+
+  /** Max number of runs kept at a single cache, it's cleared when the number is exceeded. */
+  private static final int MAX_RUNS = 1 << 18;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final ThreadLocal<Slice> SLICE = new ThreadLocal<Slice>() {
+    @Override
+    protected Slice initialValue() {
+      return new Slice();
+    }
+  };
+
+  @NotNull private final ColorRegistry    myColorRegistry    = new ColorRegistry();
+  @NotNull private final FontNameRegistry myFontNameRegistry = new FontNameRegistry();
+
+  /** Sorted disjoint <code>[start; end)</code> pairs of the document regions which runs are known. */
+  @NotNull private final TIntArrayList myCoveredRegions = new TIntArrayList();
+
+  @NotNull private final Document           myDocument;
+  @NotNull private final EditorColorsScheme myScheme;
+
+  @NotNull private int[] myStarts          = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myEnds            = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myForegroundIds   = new int[INITIAL_CAPACITY]; // Zero stands for 'no color'
+  @NotNull private int[] myBackgroundIds   = new int[INITIAL_CAPACITY]; // Zero stands for 'no color'
+  @NotNull private int[] myFontFamilyIds   = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myFontStyles      = new int[INITIAL_CAPACITY];
+  @NotNull private int[] myFontSizes       = new int[INITIAL_CAPACITY];
+
+  private int myRunsNumber;
+
+  AttributeRunCache(@NotNull Document document, @NotNull Project project, @NotNull EditorColorsScheme scheme) {
+    myDocument = document;
+    myScheme = scheme;
+    document.addDocumentListener(new DocumentAdapter() {
+      @Override
+      public void documentChanged(DocumentEvent e) {
+        invalidate(myDocument.getLineStartOffset(myDocument.getLineNumber(e.getOffset())), Integer.MAX_VALUE);
+      }
+    }, this);
+    MarkupModel markupModel = DocumentMarkupModel.forDocument(document, project, true);
+    if (markupModel instanceof MarkupModelEx) {
+      ((MarkupModelEx)markupModel).addMarkupModelListener(this, new MarkupModelListener() {
+        @Override
+        public void afterAdded(@NotNull RangeHighlighterEx highlighter) {
+          invalidate(highlighter);
+        }
+
+        @Override
+        public void beforeRemoved(@NotNull RangeHighlighterEx highlighter) {
+          invalidate(highlighter);
+        }
+
+        @Override
+        public void attributesChanged(@NotNull RangeHighlighterEx highlighter) {
+          invalidate(highlighter);
+        }
+      });
+    }
+  }
+
+  @NotNull
+  public Document getDocument() {
+    return myDocument;
+  }
+
+  @NotNull
+  public EditorColorsScheme getScheme() {
+    return myScheme;
+  }
+
+  /**
+   * @param start  target region start offset (inclusive)
+   * @param end    target region end offset (exclusive)
+   * @return       iterator over the cached runs of the given region if they are known; <code>null</code> otherwise.
+   *               The iterator and the segments it returns are reused by the calling thread, i.e. they are valid only until
+   *               the next call to this method
+   */
+  @Nullable
+  public synchronized DisposableIterator<SegmentInfo> slice(int start, int end) {
+    if (!isCovered(start, end)) {
+      return null;
+    }
+    // Runs are copied as the cache might be modified by the listeners while the caller iterates them.
+    int from = firstRunIndex(start);
+    int to = from;
+    while (to < myRunsNumber && myStarts[to] < end) {
+      to++;
+    }
+    Slice slice = SLICE.get();
+    slice.reset(to - from);
+    for (int i = from; i < to; i++) {
+      slice.add(color(myForegroundIds[i]),
+                color(myBackgroundIds[i]),
+                myFontNameRegistry.dataById(myFontFamilyIds[i]),
+                myFontStyles[i],
+                myFontSizes[i],
+                Math.max(start, myStarts[i]),
+                Math.min(end, myEnds[i]));
+    }
+    return slice;
+  }
+
+  /**
+   * Wraps given iterator in order to remember the runs it produces for the given region. They are stored at the current cache
+   * only if the whole region has been processed.
+   *
+   * @param start     target region start offset (inclusive)
+   * @param end       target region end offset (exclusive)
+   * @param delegate  iterator which produces runs for the given region
+   * @return          iterator which produces the same runs as the given one
+   */
+  @NotNull
+  public DisposableIterator<SegmentInfo> record(final int start, final int end, @NotNull final DisposableIterator<SegmentInfo> delegate) {
+    return new DisposableIterator<SegmentInfo>() {
+
+      @NotNull private final List<SegmentInfo> myInfos = ContainerUtilRt.newArrayList();
+
+      private boolean myCompleted;
+
+      @Override
+      public boolean hasNext() {
+        if (delegate.hasNext()) {
+          return true;
+        }
+        myCompleted = true;
+        return false;
+      }
+
+      @Override
+      public SegmentInfo next() {
+        SegmentInfo result = delegate.next();
+        if (result.startOffset >= end) {
+          myCompleted = true;
+        }
+        else {
+          // The merger reuses the same segment object.
+          myInfos.add(result.copy());
+        }
+        return result;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void dispose() {
+        delegate.dispose();
+        if (myCompleted) {
+          store(start, end, myInfos);
+        }
+      }
+    };
+  }
+
+  private synchronized void store(int start, int end, @NotNull List<SegmentInfo> infos) {
+    invalidate(start, end);
+    if (myRunsNumber + infos.size() > MAX_RUNS) {
+      clear();
+      return;
+    }
+    int insertionIndex = firstRunIndex(start);
+    ensureCapacity(myRunsNumber + infos.size());
+    makeRoom(insertionIndex, infos.size());
+    int i = insertionIndex;
+    for (SegmentInfo info : infos) {
+      myStarts[i] = Math.max(start, info.startOffset);
+      myEnds[i] = Math.min(end, info.endOffset);
+      myForegroundIds[i] = info.foreground == null ? 0 : myColorRegistry.getId(info.foreground);
+      myBackgroundIds[i] = info.background == null ? 0 : myColorRegistry.getId(info.background);
+      myFontFamilyIds[i] = myFontNameRegistry.getId(info.fontFamilyName);
+      myFontStyles[i] = info.fontStyle;
+      myFontSizes[i] = info.fontSize;
+      i++;
+    }
+    addCoveredRegion(start, end);
+  }
+
+  private void invalidate(@NotNull RangeHighlighterEx highlighter) {
+    invalidate(highlighter.getStartOffset(), highlighter.getEndOffset() + 1);
+  }
+
+  /**
+   * Drops information about the runs which intersect the given region.
+   *
+   * @param start  target region start offset (inclusive)
+   * @param end    target region end offset (exclusive)
+   */
+  private synchronized void invalidate(int start, int end) {
+    if (myCoveredRegions.isEmpty()) {
+      return;
+    }
+
+    // Update covered regions.
+    TIntArrayList regions = new TIntArrayList(myCoveredRegions.size() + 2);
+    for (int i = 0; i < myCoveredRegions.size(); i += 2) {
+      int regionStart = myCoveredRegions.get(i);
+      int regionEnd = myCoveredRegions.get(i + 1);
+      if (regionEnd <= start || regionStart >= end) {
+        regions.add(regionStart);
+        regions.add(regionEnd);
+        continue;
+      }
+      if (regionStart < start) {
+        regions.add(regionStart);
+        regions.add(start);
+      }
+      if (regionEnd > end) {
+        regions.add(end);
+        regions.add(regionEnd);
+      }
+    }
+    myCoveredRegions.clear();
+    for (int i = 0; i < regions.size(); i++) {
+      myCoveredRegions.add(regions.get(i));
+    }
+
+    // Update runs. Runs which cross region boundaries are clipped as their outer parts might still belong to covered regions.
+    int splitRunIndex = -1;
+    int splitRunEnd = -1;
+    int to = 0;
+    for (int from = 0; from < myRunsNumber; from++) {
+      if (myStarts[from] < end && myEnds[from] > start) {
+        if (myStarts[from] < start && myEnds[from] > end) {
+          if (splitRunIndex >= 0) {
+            // Several runs cover the whole invalidated region, that's possible only for overlapping markup, just start from scratch.
+            clear();
+            return;
+          }
+          splitRunIndex = to;
+          splitRunEnd = myEnds[from];
+        }
+        if (myStarts[from] < start) {
+          myEnds[from] = start;
+        }
+        else if (myEnds[from] > end) {
+          myStarts[from] = end;
+        }
+        else {
+          continue;
+        }
+      }
+      if (to != from) {
+        copyRun(from, to);
+      }
+      to++;
+    }
+    myRunsNumber = to;
+    
+    if (splitRunIndex >= 0) {
+      // The run which covers the whole invalidated region is split into two.
+      int insertionIndex = firstRunIndex(end);
+      ensureCapacity(myRunsNumber + 1);
+      makeRoom(insertionIndex, 1);
+      copyRun(splitRunIndex, insertionIndex);
+      myStarts[insertionIndex] = end;
+      myEnds[insertionIndex] = splitRunEnd;
+    }
+  }
+
+  private synchronized void clear() {
+    myCoveredRegions.clear();
+    myRunsNumber = 0;
+  }
+
+  private boolean isCovered(int start, int end) {
+    for (int i = 0; i < myCoveredRegions.size(); i += 2) {
+      if (myCoveredRegions.get(i) <= start && myCoveredRegions.get(i + 1) >= end) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void addCoveredRegion(int start, int end) {
+    int i = 0;
+    while (i < myCoveredRegions.size() && myCoveredRegions.get(i + 1) < start) {
+      i += 2;
+    }
+    if (i < myCoveredRegions.size() && myCoveredRegions.get(i) <= end) {
+      // Merge with adjacent regions.
+      int mergedStart = Math.min(start, myCoveredRegions.get(i));
+      int mergedEnd = Math.max(end, myCoveredRegions.get(i + 1));
+      myCoveredRegions.remove(i);
+      myCoveredRegions.remove(i);
+      while (i < myCoveredRegions.size() && myCoveredRegions.get(i) <= mergedEnd) {
+        mergedEnd = Math.max(mergedEnd, myCoveredRegions.get(i + 1));
+        myCoveredRegions.remove(i);
+        myCoveredRegions.remove(i);
+      }
+      myCoveredRegions.insert(i, mergedEnd);
+      myCoveredRegions.insert(i, mergedStart);
+    }
+    else {
+      myCoveredRegions.insert(i, end);
+      myCoveredRegions.insert(i, start);
+    }
+  }
+
+  /**
+   * @param offset  target offset
+   * @return        index of the first run which ends after the given offset or which starts after it
+   */
+  private int firstRunIndex(int offset) {
+    int start = 0;
+    int end = myRunsNumber - 1;
+    while (start <= end) {
+      int i = (start + end) >>> 1;
+      if (myStarts[i] < offset) {
+        start = i + 1;
+      }
+      else {
+        end = i - 1;
+      }
+    }
+    while (start > 0 && myEnds[start - 1] > offset) {
+      start--;
+    }
+    return start;
+  }
+
+  @Nullable
+  private Color color(int id) {
+    return id > 0 ? myColorRegistry.dataById(id) : null;
+  }
+
+  private void copyRun(int from, int to) {
+    myStarts[to] = myStarts[from];
+    myEnds[to] = myEnds[from];
+    myForegroundIds[to] = myForegroundIds[from];
+    myBackgroundIds[to] = myBackgroundIds[from];
+    myFontFamilyIds[to] = myFontFamilyIds[from];
+    myFontStyles[to] = myFontStyles[from];
+    myFontSizes[to] = myFontSizes[from];
+  }
+
+  private void makeRoom(int index, int length) {
+    int toMove = myRunsNumber - index;
+    if (toMove > 0) {
+      System.arraycopy(myStarts, index, myStarts, index + length, toMove);
+      System.arraycopy(myEnds, index, myEnds, index + length, toMove);
+      System.arraycopy(myForegroundIds, index, myForegroundIds, index + length, toMove);
+      System.arraycopy(myBackgroundIds, index, myBackgroundIds, index + length, toMove);
+      System.arraycopy(myFontFamilyIds, index, myFontFamilyIds, index + length, toMove);
+      System.arraycopy(myFontStyles, index, myFontStyles, index + length, toMove);
+      System.arraycopy(myFontSizes, index, myFontSizes, index + length, toMove);
+    }
+    myRunsNumber += length;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= myStarts.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, myStarts.length * 3 / 2);
+    myStarts = grow(myStarts, newCapacity);
+    myEnds = grow(myEnds, newCapacity);
+    myForegroundIds = grow(myForegroundIds, newCapacity);
+    myBackgroundIds = grow(myBackgroundIds, newCapacity);
+    myFontFamilyIds = grow(myFontFamilyIds, newCapacity);
+    myFontStyles = grow(myFontStyles, newCapacity);
+    myFontSizes = grow(myFontSizes, newCapacity);
+  }
+
+  @NotNull
+  private static int[] grow(@NotNull int[] array, int capacity) {
+    int[] result = new int[capacity];
+    System.arraycopy(array, 0, result, 0, array.length);
+    return result;
+  }
+
+  @Override
+  public void dispose() {
+    clear();
+  }
+
+  /**
+   * Runs copied from the cache. Arrays are reused, so, nothing is allocated when they are big enough for the requested region.
+   * Segments are exposed via the same reused object.
+   */
+  private static class Slice implements DisposableIterator<SegmentInfo> {
+
+    @NotNull private final SegmentInfo mySegment = new SegmentInfo(null, null, "", Font.PLAIN, 0, 0, 0);
+
+    @NotNull private Color[]  myForegrounds     = new Color[INITIAL_CAPACITY];
+    @NotNull private Color[]  myBackgrounds     = new Color[INITIAL_CAPACITY];
+    @NotNull private String[] myFontFamilyNames = new String[INITIAL_CAPACITY];
+    @NotNull private int[]    myFontStyles      = new int[INITIAL_CAPACITY];
+    @NotNull private int[]    myFontSizes       = new int[INITIAL_CAPACITY];
+    @NotNull private int[]    myStarts          = new int[INITIAL_CAPACITY];
+    @NotNull private int[]    myEnds            = new int[INITIAL_CAPACITY];
+
+    private int mySize;
+    private int myPosition;
+
+    void reset(int capacity) {
+      if (capacity > myStarts.length) {
+        // Previous content is not needed, so, the arrays are not copied.
+        int newCapacity = Math.max(capacity, myStarts.length * 3 / 2);
+        myForegrounds = new Color[newCapacity];
+        myBackgrounds = new Color[newCapacity];
+        myFontFamilyNames = new String[newCapacity];
+        myFontStyles = new int[newCapacity];
+        myFontSizes = new int[newCapacity];
+        myStarts = new int[newCapacity];
+        myEnds = new int[newCapacity];
+      }
+      mySize = 0;
+      myPosition = 0;
+    }
+
+    void add(@Nullable Color foreground,
+             @Nullable Color background,
+             @NotNull String fontFamilyName,
+             int fontStyle,
+             int fontSize,
+             int startOffset,
+             int endOffset)
+    {
+      myForegrounds[mySize] = foreground;
+      myBackgrounds[mySize] = background;
+      myFontFamilyNames[mySize] = fontFamilyName;
+      myFontStyles[mySize] = fontStyle;
+      myFontSizes[mySize] = fontSize;
+      myStarts[mySize] = startOffset;
+      myEnds[mySize] = endOffset;
+      mySize++;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myPosition < mySize;
+    }
+
+    @Override
+    public SegmentInfo next() {
+      int i = myPosition++;
+      mySegment.set(myForegrounds[i], myBackgrounds[i], myFontFamilyNames[i], myFontStyles[i], myFontSizes[i], myStarts[i],
+                    myEnds[i]);
+      return mySegment;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispose() {
+      // Don't keep colors of the disposed caches.
+      Arrays.fill(myForegrounds, 0, mySize, null);
+      Arrays.fill(myBackgrounds, 0, mySize, null);
+      mySize = 0;
+      myPosition = 0;
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package org.denis;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.colors.EditorColorsListener;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Manages {@link AttributeRunCache attribute run caches} of the documents opened at the visible editors.
+ * <p/>
+ * Memory is bounded - not more than {@link #MAX_CACHES} caches are kept (least recently used ones are dropped) and caches
+ * of the documents which are not shown at any editor are dropped.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 12:20 PM
+ */
+public class AttributeRunCacheManager implements ApplicationComponent, Disposable {
+
+  private static final int MAX_CACHES = 8;
+
+  /** Access-ordered, i.e. least recently used cache goes first. */
+  @NotNull private final Map<Document, AttributeRunCache> myCaches = new LinkedHashMap<Document, AttributeRunCache>(16, 0.75f, true);
+
+  @NotNull
+  public static AttributeRunCacheManager getInstance() {
+    return ApplicationManager.getApplication().getComponent(AttributeRunCacheManager.class);
+  }
+
+  /**
+   * @param editor  editor which document's cache is requested
+   * @param project project which given editor belongs to
+   * @param scheme  colors scheme which attributes should be cached
+   * @return        cache for the given editor's document
+   */
+  @NotNull
+  public AttributeRunCache getCache(@NotNull Editor editor, @NotNull Project project, @NotNull EditorColorsScheme scheme) {
+    Document document = editor.getDocument();
+    evictInvisible(document);
+    AttributeRunCache cache = myCaches.get(document);
+    if (cache != null && cache.getScheme() != scheme) {
+      myCaches.remove(document);
+      Disposer.dispose(cache);
+      cache = null;
+    }
+    if (cache == null) {
+      cache = new AttributeRunCache(document, project, scheme);
+      Disposer.register(this, cache);
+      myCaches.put(document, cache);
+      if (myCaches.size() > MAX_CACHES) {
+        Iterator<AttributeRunCache> it = myCaches.values().iterator();
+        AttributeRunCache eldest = it.next();
+        it.remove();
+        Disposer.dispose(eldest);
+      }
+    }
+    return cache;
+  }
+
+  public void clear() {
+    for (AttributeRunCache cache : myCaches.values()) {
+      Disposer.dispose(cache);
+    }
+    myCaches.clear();
+  }
+
+  private void evictInvisible(@Nullable Document toKeep) {
+    for (Iterator<Map.Entry<Document, AttributeRunCache>> it = myCaches.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<Document, AttributeRunCache> entry = it.next();
+      if (entry.getKey() != toKeep && !isVisible(entry.getKey())) {
+        it.remove();
+        Disposer.dispose(entry.getValue());
+      }
+    }
+  }
+
+  private static boolean isVisible(@NotNull Document document) {
+    for (Editor editor : EditorFactory.getInstance().getEditors(document)) {
+      if (!editor.isDisposed() && editor.getComponent().isShowing()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void initComponent() {
+    EditorFactory.getInstance().addEditorFactoryListener(new EditorFactoryListener() {
+      @Override
+      public void editorCreated(@NotNull EditorFactoryEvent event) {
+      }
+
+      @Override
+      public void editorReleased(@NotNull EditorFactoryEvent event) {
+        evictInvisible(null);
+      }
+    }, this);
+    EditorColorsManager.getInstance().addEditorColorsListener(new EditorColorsListener() {
+      @Override
+      public void globalSchemeChange(EditorColorsScheme scheme) {
+        clear();
+      }
+    }, this);
+  }
+
+  @Override
+  public void disposeComponent() {
+    Disposer.dispose(this);
+  }
+
+  @Override
+  public void dispose() {
+    myCaches.clear();
+  }
+
+  @NotNull
+  @Override
+  public String getComponentName() {
+    return getClass().getName();
+  }
+}
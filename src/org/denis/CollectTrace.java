@@ -0,0 +1,30 @@
+package org.denis;
+
+/**
+ * Accumulates timings of the syntax info construction phases which are interleaved per segment.
+ * <p/>
+ * Chunks of a region which is processed in parallel are traced separately and their traces are summed up, i.e. the timings
+ * reflect the work done by all threads rather than the elapsed time.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:10 PM
+ */
+class CollectTrace {
+
+  /** Flags if lexer and markup walks should be timed (and markup highlighters counted) separately. */
+  public final boolean traceSources;
+
+  /** Time of getting segments, includes lexer and markup walks. */
+  public long iterationNanos;
+  public long lexerNanos;
+  public long markupNanos;
+  /** Time of building syntax info from the segments. */
+  public long contextNanos;
+  /** Bytes allocated by the threads which processed chunks in parallel with the collecting thread. */
+  public long chunkAllocatedBytes;
+  public int  highlighters;
+
+  CollectTrace(boolean traceSources) {
+    this.traceSources = traceSources;
+  }
+}
@@ -0,0 +1,117 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits work of a single copy, {@link ExceededException} is thrown during syntax info construction when a limit is reached,
+ * so that the copy can be retried with lower {@link org.denis.model.Fidelity fidelity}.
+ * <p/>
+ * Is expected to be used for a single copy, might be shared by the threads which process chunks of the copy in parallel.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:55 PM
+ */
+class CopyBudget {
+
+  /** Deadline is checked once per the given number of segments as getting current time is relatively expensive. */
+  private static final int DEADLINE_CHECK_PERIOD = 256;
+
+  /** <code>System.nanoTime()</code> based, {@link Long#MAX_VALUE} means no deadline. */
+  private final long myDeadline;
+  private final int  myMaxHighlighters;
+
+  @NotNull private final AtomicInteger myHighlighters = new AtomicInteger();
+
+  /** Racy increments from different threads only affect frequency of the deadline checks. */
+  private int myChecks;
+
+  /**
+   * @param startNanos       <code>System.nanoTime()</code> of the copy start
+   * @param maxMillis        max copy duration, non-positive value means no limit
+   * @param maxHighlighters  max number of markup highlighters to process, non-positive value means no limit
+   */
+  CopyBudget(long startNanos, int maxMillis, int maxHighlighters) {
+    myDeadline = maxMillis > 0 ? startNanos + maxMillis * 1000000L : Long.MAX_VALUE;
+    myMaxHighlighters = maxHighlighters > 0 ? maxHighlighters : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Is expected to be called per processed segment.
+   *
+   * @throws ExceededException  if the deadline has passed
+   */
+  public void checkDeadline() throws ExceededException {
+    if (++myChecks % DEADLINE_CHECK_PERIOD == 0 && System.nanoTime() > myDeadline) {
+      throw new ExceededException(true);
+    }
+  }
+
+  /**
+   * @param markup  markup highlighters source
+   * @return        source which throws {@link ExceededException} when total number of highlighters provided by the
+   *                limited sources exceeds the budget
+   */
+  @NotNull
+  public TextAttributesSource limitHighlighters(@NotNull final TextAttributesSource markup) {
+    if (myMaxHighlighters == Integer.MAX_VALUE) {
+      return markup;
+    }
+    return new TextAttributesSource() {
+      @Override
+      public boolean advance() {
+        if (!markup.advance()) {
+          return false;
+        }
+        if (myHighlighters.incrementAndGet() > myMaxHighlighters) {
+          throw new ExceededException(false);
+        }
+        return true;
+      }
+
+      @Override
+      public int getStartOffset() {
+        return markup.getStartOffset();
+      }
+
+      @Override
+      public int getEndOffset() {
+        return markup.getEndOffset();
+      }
+
+      @Override
+      public int getLayer() {
+        return markup.getLayer();
+      }
+
+      @NotNull
+      @Override
+      public TextAttributes getAttributes() {
+        return markup.getAttributes();
+      }
+
+      @Override
+      public void dispose() {
+        markup.dispose();
+      }
+    };
+  }
+
+  static class ExceededException extends RuntimeException {
+
+    /** <code>true</code> if the deadline has passed; <code>false</code> if the highlighters number limit is exceeded. */
+    public final boolean deadline;
+
+    ExceededException(boolean deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      // Control flow exception, stack trace is not needed.
+      return this;
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package org.denis;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.denis.model.Palette;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link SegmentSources} which remembers ranges provided by the delegate sources and {@link #save() writes} them together with
+ * the copy request to a {@link CopyRecording recording} file. Only a limited number of the most recent recordings is kept.
+ * <p/>
+ * Not thread-safe, is expected to be used for a single copy.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:30 PM
+ */
+class CopyRecorder implements SegmentSources {
+
+  private static final Logger LOG = Logger.getInstance("#" + CopyRecorder.class.getName());
+
+  private static final int MAX_RECORDINGS = 20;
+
+  @NotNull private final List<TextAttributes>      myAttributes   = new ArrayList<TextAttributes>();
+  /** Holds attributes index incremented by one, i.e. zero means that attributes are not registered yet. */
+  @NotNull private final TObjectIntHashMap<TextAttributes> myAttributeIds = new TObjectIntHashMap<TextAttributes>();
+
+  @NotNull private final CopyRequest     myRequest;
+  @Nullable private final Palette        myPalette;
+  @NotNull private final SegmentSources  myDelegate;
+  @NotNull private final TIntArrayList[] myTokens;
+  @NotNull private final TIntArrayList[] myMarkup;
+
+  CopyRecorder(@NotNull CopyRequest request, @Nullable Palette palette, @NotNull SegmentSources delegate) {
+    myRequest = request;
+    myPalette = palette;
+    myDelegate = delegate;
+    myTokens = new TIntArrayList[request.startOffsets.length];
+    myMarkup = new TIntArrayList[request.startOffsets.length];
+  }
+
+  @NotNull
+  @Override
+  public TextAttributesSource getTokens(int startOffset, int endOffset) {
+    return record(myDelegate.getTokens(startOffset, endOffset), startOffset, myTokens);
+  }
+
+  @NotNull
+  @Override
+  public TextAttributesSource getMarkup(int startOffset, int endOffset) {
+    return record(myDelegate.getMarkup(startOffset, endOffset), startOffset, myMarkup);
+  }
+
+  @NotNull
+  private TextAttributesSource record(@NotNull final TextAttributesSource delegate,
+                                      int startOffset,
+                                      @NotNull TIntArrayList[] ranges)
+  {
+    final TIntArrayList regionRanges = new TIntArrayList();
+    for (int i = 0; i < myRequest.startOffsets.length; i++) {
+      if (myRequest.getStartOffsetToUse(i) == startOffset) {
+        ranges[i] = regionRanges;
+        break;
+      }
+    }
+    return new TextAttributesSource() {
+      @Override
+      public boolean advance() {
+        if (!delegate.advance()) {
+          return false;
+        }
+        regionRanges.add(delegate.getStartOffset());
+        regionRanges.add(delegate.getEndOffset());
+        regionRanges.add(delegate.getLayer());
+        regionRanges.add(getAttributesIndex(delegate.getAttributes()));
+        return true;
+      }
+
+      @Override
+      public int getStartOffset() {
+        return delegate.getStartOffset();
+      }
+
+      @Override
+      public int getEndOffset() {
+        return delegate.getEndOffset();
+      }
+
+      @Override
+      public int getLayer() {
+        return delegate.getLayer();
+      }
+
+      @NotNull
+      @Override
+      public TextAttributes getAttributes() {
+        return delegate.getAttributes();
+      }
+
+      @Override
+      public void dispose() {
+        delegate.dispose();
+      }
+    };
+  }
+
+  private int getAttributesIndex(@NotNull TextAttributes attributes) {
+    int result = myAttributeIds.get(attributes) - 1;
+    if (result < 0) {
+      result = myAttributes.size();
+      myAttributes.add(attributes);
+      myAttributeIds.put(attributes, result + 1);
+    }
+    return result;
+  }
+
+  /**
+   * Writes recorded copy to a new file at the {@link CopyRecording#getRecordingsDirectory() recordings directory}. Problems are
+   * logged, i.e. they don't affect the copy.
+   */
+  public void save() {
+    try {
+      File directory = CopyRecording.getRecordingsDirectory();
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Can't create directory " + directory);
+      }
+      File file = new File(directory, "copy-" + System.currentTimeMillis() + "." + CopyRecording.EXTENSION);
+      buildRecording().write(file);
+      LOG.info("Copy is recorded to " + file);
+      removeOldRecordings(directory);
+    }
+    catch (IOException e) {
+      LOG.warn("Can't record copy", e);
+    }
+  }
+
+  /**
+   * @return    recording with the text of the copied regions only and offsets relative to its start
+   */
+  @NotNull
+  CopyRecording buildRecording() {
+    int[] startOffsets = myRequest.startOffsets;
+    int[] endOffsets = myRequest.endOffsets;
+    int base = Math.min(myRequest.firstLineStartOffset, startOffsets[0]);
+    int[] rebasedStartOffsets = new int[startOffsets.length];
+    int[] rebasedEndOffsets = new int[endOffsets.length];
+    int[][] tokens = new int[startOffsets.length][];
+    int[][] markup = new int[startOffsets.length][];
+    for (int i = 0; i < startOffsets.length; i++) {
+      rebasedStartOffsets[i] = startOffsets[i] - base;
+      rebasedEndOffsets[i] = endOffsets[i] - base;
+      tokens[i] = rebase(myTokens[i], base);
+      markup[i] = rebase(myMarkup[i], base);
+    }
+    CharSequence text = myRequest.text.subSequence(base, endOffsets[endOffsets.length - 1]).toString();
+    CopyRequest request = new CopyRequest(text, myRequest.schemeName, myRequest.fontName, myRequest.fontSize,
+                                          myRequest.defaultForeground, myRequest.defaultBackground,
+                                          rebasedStartOffsets, rebasedEndOffsets, myRequest.firstLineStartOffset - base,
+                                          myRequest.lineWidth, myRequest.indentSymbolsToStrip);
+    return new CopyRecording(request, myPalette, myAttributes.toArray(new TextAttributes[myAttributes.size()]), tokens, markup);
+  }
+
+  @NotNull
+  private static int[] rebase(@Nullable TIntArrayList ranges, int base) {
+    if (ranges == null) {
+      return new int[0];
+    }
+    int[] result = ranges.toNativeArray();
+    for (int i = 0; i < result.length; i += CopyRecording.RANGE_SIZE) {
+      result[i] -= base;
+      result[i + 1] -= base;
+    }
+    return result;
+  }
+
+  private static void removeOldRecordings(@NotNull File directory) {
+    File[] files = directory.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith("." + CopyRecording.EXTENSION);
+      }
+    });
+    if (files == null || files.length <= MAX_RECORDINGS) {
+      return;
+    }
+    // File names contain creation time, so, the oldest files go first.
+    Arrays.sort(files);
+    for (int i = 0; i < files.length - MAX_RECORDINGS; i++) {
+      if (!files[i].delete()) {
+        LOG.warn("Can't remove old copy recording " + files[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package org.denis;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.denis.model.ColorRegistry;
+import org.denis.model.FontNameRegistry;
+import org.denis.model.Palette;
+import org.denis.model.SyntaxInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Everything a syntax info of a particular copy is built from: copied text, regions, resolved attributes of the lexer tokens
+ * and markup highlighters, relevant colors scheme properties and palette of the previous copies.
+ * <p/>
+ * Recordings are written by the {@link CopyRecorder} when {@link org.denis.settings.CopyOnSteroidSettings#isRecordCopies()
+ * enabled} and can be {@link #replay() replayed} without IDE, i.e. slow copies reported by users can be reproduced under
+ * a profiler and kept as a regression corpus.
+ * <p/>
+ * Recording contains only the text of the copied regions, all offsets are relative to its start. Attributes are stored
+ * resolved against the scheme, so, replay doesn't depend on the scheme, lexer or highlighting passes. Format is a gzipped
+ * stream of:
+ * <pre>
+ *   magic, version,
+ *   scheme name, editor font name, editor font size, default foreground, default background,
+ *   block selection width, indent symbols to strip,
+ *   text, first line start offset, regions number and their start and end offsets,
+ *   optional palette: colors, font names, default foreground id, default background id,
+ *   distinct attributes: flags which colors are defined, foreground, background, font type,
+ *   per region: tokens number, (start, end, layer, attributes index) per token, the same for the markup highlighters.
+ * </pre>
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:20 PM
+ */
+public class CopyRecording {
+
+  @NotNull public static final String EXTENSION = "cosr";
+
+  private static final int MAGIC   = 0x434F5352;
+  private static final int VERSION = 1;
+
+  private static final int FOREGROUND_DEFINED = 1;
+  private static final int BACKGROUND_DEFINED = 2;
+
+  /** Number of ints per recorded range: start offset, end offset, layer and attributes index. */
+  static final int RANGE_SIZE = 4;
+
+  @NotNull private final CopyRequest      myRequest;
+  @Nullable private final Palette         myPalette;
+  @NotNull private final TextAttributes[] myAttributes;
+  /** Recorded token ranges per region. */
+  @NotNull private final int[][]          myTokens;
+  /** Recorded markup ranges per region. */
+  @NotNull private final int[][]          myMarkup;
+
+  CopyRecording(@NotNull CopyRequest request,
+                @Nullable Palette palette,
+                @NotNull TextAttributes[] attributes,
+                @NotNull int[][] tokens,
+                @NotNull int[][] markup)
+  {
+    myRequest = request;
+    myPalette = palette;
+    myAttributes = attributes;
+    myTokens = tokens;
+    myMarkup = markup;
+  }
+
+  /**
+   * @return    directory where recordings of the copies performed at the current IDE are stored
+   */
+  @NotNull
+  public static File getRecordingsDirectory() {
+    return new File(PathManager.getSystemPath(), "copy-on-steroids" + File.separator + "recordings");
+  }
+
+  @NotNull
+  public static CopyRecording read(@NotNull File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+    try {
+      return read(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  @NotNull
+  private static CopyRecording read(@NotNull DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a copy recording");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported copy recording version " + version);
+    }
+    String schemeName = in.readUTF();
+    String fontName = in.readUTF();
+    int fontSize = in.readInt();
+    Color defaultForeground = new Color(in.readInt(), true);
+    Color defaultBackground = new Color(in.readInt(), true);
+    int lineWidth = in.readInt();
+    int indentSymbolsToStrip = in.readInt();
+    char[] text = new char[in.readInt()];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = in.readChar();
+    }
+    int firstLineStartOffset = in.readInt();
+    int regions = in.readInt();
+    int[] startOffsets = new int[regions];
+    int[] endOffsets = new int[regions];
+    for (int i = 0; i < regions; i++) {
+      startOffsets[i] = in.readInt();
+      endOffsets[i] = in.readInt();
+    }
+    CopyRequest request = new CopyRequest(new String(text), schemeName, fontName, fontSize, defaultForeground, defaultBackground,
+                                          startOffsets, endOffsets, firstLineStartOffset, lineWidth, indentSymbolsToStrip);
+
+    Palette palette = null;
+    if (in.readBoolean()) {
+      ColorRegistry colorRegistry = new ColorRegistry();
+      for (int i = in.readInt(); i > 0; i--) {
+        colorRegistry.getId(new Color(in.readInt(), true));
+      }
+      FontNameRegistry fontNameRegistry = new FontNameRegistry();
+      for (int i = in.readInt(); i > 0; i--) {
+        fontNameRegistry.getId(in.readUTF());
+      }
+      colorRegistry.seal();
+      fontNameRegistry.seal();
+      palette = new Palette(colorRegistry, fontNameRegistry, in.readInt(), in.readInt());
+    }
+
+    TextAttributes[] attributes = new TextAttributes[in.readInt()];
+    for (int i = 0; i < attributes.length; i++) {
+      int flags = in.readByte();
+      TextAttributes a = new TextAttributes();
+      if ((flags & FOREGROUND_DEFINED) != 0) {
+        a.setForegroundColor(new Color(in.readInt(), true));
+      }
+      if ((flags & BACKGROUND_DEFINED) != 0) {
+        a.setBackgroundColor(new Color(in.readInt(), true));
+      }
+      a.setFontType(in.readInt());
+      attributes[i] = a;
+    }
+
+    int[][] tokens = new int[regions][];
+    int[][] markup = new int[regions][];
+    for (int i = 0; i < regions; i++) {
+      tokens[i] = readRanges(in);
+      markup[i] = readRanges(in);
+    }
+    return new CopyRecording(request, palette, attributes, tokens, markup);
+  }
+
+  @NotNull
+  private static int[] readRanges(@NotNull DataInputStream in) throws IOException {
+    int[] result = new int[in.readInt() * RANGE_SIZE];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = in.readInt();
+    }
+    return result;
+  }
+
+  public void write(@NotNull File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+    try {
+      write(out);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private void write(@NotNull DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeUTF(myRequest.schemeName);
+    out.writeUTF(myRequest.fontName);
+    out.writeInt(myRequest.fontSize);
+    out.writeInt(myRequest.defaultForeground.getRGB());
+    out.writeInt(myRequest.defaultBackground.getRGB());
+    out.writeInt(myRequest.lineWidth);
+    out.writeInt(myRequest.indentSymbolsToStrip);
+    CharSequence text = myRequest.text;
+    out.writeInt(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      out.writeChar(text.charAt(i));
+    }
+    out.writeInt(myRequest.firstLineStartOffset);
+    out.writeInt(myRequest.startOffsets.length);
+    for (int i = 0; i < myRequest.startOffsets.length; i++) {
+      out.writeInt(myRequest.startOffsets[i]);
+      out.writeInt(myRequest.endOffsets[i]);
+    }
+
+    out.writeBoolean(myPalette != null);
+    if (myPalette != null) {
+      ColorRegistry colorRegistry = myPalette.getColorRegistry();
+      out.writeInt(colorRegistry.size());
+      for (int id = 1; id <= colorRegistry.size(); id++) {
+        out.writeInt(colorRegistry.dataById(id).getRGB());
+      }
+      FontNameRegistry fontNameRegistry = myPalette.getFontNameRegistry();
+      out.writeInt(fontNameRegistry.size());
+      for (int id = 1; id <= fontNameRegistry.size(); id++) {
+        out.writeUTF(fontNameRegistry.dataById(id));
+      }
+      out.writeInt(myPalette.getDefaultForeground());
+      out.writeInt(myPalette.getDefaultBackground());
+    }
+
+    out.writeInt(myAttributes.length);
+    for (TextAttributes attributes : myAttributes) {
+      Color foreground = attributes.getForegroundColor();
+      Color background = attributes.getBackgroundColor();
+      out.writeByte((foreground == null ? 0 : FOREGROUND_DEFINED) | (background == null ? 0 : BACKGROUND_DEFINED));
+      if (foreground != null) {
+        out.writeInt(foreground.getRGB());
+      }
+      if (background != null) {
+        out.writeInt(background.getRGB());
+      }
+      out.writeInt(attributes.getFontType());
+    }
+
+    for (int i = 0; i < myTokens.length; i++) {
+      writeRanges(myTokens[i], out);
+      writeRanges(myMarkup[i], out);
+    }
+  }
+
+  private static void writeRanges(@NotNull int[] ranges, @NotNull DataOutputStream out) throws IOException {
+    out.writeInt(ranges.length / RANGE_SIZE);
+    for (int value : ranges) {
+      out.writeInt(value);
+    }
+  }
+
+  /**
+   * Builds syntax info from the current recording the same way as it's done for a copy in IDE.
+   *
+   * @return    syntax info for the recorded copy
+   */
+  @NotNull
+  public SyntaxInfo replay() {
+    SegmentSources sources = new SegmentSources() {
+      @NotNull
+      @Override
+      public TextAttributesSource getTokens(int startOffset, int endOffset) {
+        return new ReplaySource(myTokens[getRegion(startOffset)]);
+      }
+
+      @NotNull
+      @Override
+      public TextAttributesSource getMarkup(int startOffset, int endOffset) {
+        return new ReplaySource(myMarkup[getRegion(startOffset)]);
+      }
+    };
+    return AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(myRequest, myPalette, null, sources, new CollectTrace(false), null, null, 1);
+  }
+
+  private int getRegion(int startOffset) {
+    for (int i = 0; i < myRequest.startOffsets.length; i++) {
+      if (myRequest.getStartOffsetToUse(i) == startOffset) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("No recorded region starts at offset " + startOffset);
+  }
+
+  /**
+   * @return    plain text of the recorded copy, i.e. the text output infos of the {@link #replay() replayed} syntax info refer to
+   */
+  @NotNull
+  public String getPlainText() {
+    int[] startOffsets = myRequest.startOffsets;
+    int[] endOffsets = myRequest.endOffsets;
+    StringBuilder buffer = new StringBuilder();
+    for (int i = 0; i < startOffsets.length; i++) {
+      if (i > 0) {
+        // Block selection fills short lines by white spaces and ends '\n' at line end.
+        for (int j = endOffsets[i - 1] - startOffsets[i - 1]; j < myRequest.lineWidth; j++) {
+          buffer.append(' ');
+        }
+        buffer.append('\n');
+      }
+      buffer.append(myRequest.text, startOffsets[i], endOffsets[i]);
+    }
+    return buffer.toString();
+  }
+
+  @NotNull
+  public String getSchemeName() {
+    return myRequest.schemeName;
+  }
+
+  /**
+   * @return    number of the recorded lexer tokens and markup highlighters
+   */
+  public int getRangesCount() {
+    int result = 0;
+    for (int i = 0; i < myTokens.length; i++) {
+      result += (myTokens[i].length + myMarkup[i].length) / RANGE_SIZE;
+    }
+    return result;
+  }
+
+  private class ReplaySource implements TextAttributesSource {
+
+    @NotNull private final int[] myRanges;
+
+    /** Index of the current range start at {@link #myRanges}. */
+    private int myIndex = -RANGE_SIZE;
+
+    ReplaySource(@NotNull int[] ranges) {
+      myRanges = ranges;
+    }
+
+    @Override
+    public boolean advance() {
+      myIndex += RANGE_SIZE;
+      return myIndex < myRanges.length;
+    }
+
+    @Override
+    public int getStartOffset() {
+      return myRanges[myIndex];
+    }
+
+    @Override
+    public int getEndOffset() {
+      return myRanges[myIndex + 1];
+    }
+
+    @Override
+    public int getLayer() {
+      return myRanges[myIndex + 2];
+    }
+
+    @NotNull
+    @Override
+    public TextAttributes getAttributes() {
+      return myAttributes[myRanges[myIndex + 3]];
+    }
+
+    @Override
+    public void dispose() {
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.denis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+/**
+ * Everything a syntax info is built from besides the attribute sources, i.e. copied text regions and the colors scheme
+ * properties which affect the result. Doesn't refer to the editor or the scheme, so, it can be {@link CopyRecording recorded}
+ * and replayed without IDE.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:10 PM
+ */
+class CopyRequest {
+
+  @NotNull public final CharSequence text;
+  @NotNull public final String       schemeName;
+  @NotNull public final String       fontName;
+  @NotNull public final Color        defaultForeground;
+  @NotNull public final Color        defaultBackground;
+  @NotNull public final int[]        startOffsets;
+  @NotNull public final int[]        endOffsets;
+
+  public final int fontSize;
+  public final int firstLineStartOffset;
+  /** Width of the block selection, negative value for the regular selection. */
+  public final int lineWidth;
+  public final int indentSymbolsToStrip;
+
+  CopyRequest(@NotNull CharSequence text,
+              @NotNull String schemeName,
+              @NotNull String fontName,
+              int fontSize,
+              @NotNull Color defaultForeground,
+              @NotNull Color defaultBackground,
+              @NotNull int[] startOffsets,
+              @NotNull int[] endOffsets,
+              int firstLineStartOffset,
+              int lineWidth,
+              int indentSymbolsToStrip)
+  {
+    this.text = text;
+    this.schemeName = schemeName;
+    this.fontName = fontName;
+    this.fontSize = fontSize;
+    this.defaultForeground = defaultForeground;
+    this.defaultBackground = defaultBackground;
+    this.startOffsets = startOffsets;
+    this.endOffsets = endOffsets;
+    this.firstLineStartOffset = firstLineStartOffset;
+    this.lineWidth = lineWidth;
+    this.indentSymbolsToStrip = indentSymbolsToStrip;
+  }
+
+  /**
+   * @param region  index of the copied region
+   * @return        offset where processing of the given region starts
+   */
+  public int getStartOffsetToUse(int region) {
+    return region == 0 ? firstLineStartOffset : startOffsets[region];
+  }
+}
@@ -0,0 +1,131 @@
+package org.denis;
+
+import com.intellij.openapi.editor.impl.ComplementaryFontsRegistry;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Caches {@link ComplementaryFontsRegistry#getFontAbleToDisplay(char, int, int, String) fonts able to display} the symbols
+ * for particular editor font family, size and style.
+ * <p/>
+ * Fonts for the Latin-1 range are resolved eagerly as it's the most common case, fonts for the other symbols are resolved on
+ * demand by whole 256-symbols pages. Symbols displayed by the same font share the same {@link Font} object, so, adjacent
+ * symbols can be compared by identity.
+ * <p/>
+ * Thread-safe - pages are published only when they are complete, so, lookups of the resolved symbols don't lock. Caches of
+ * {@link ComplementaryFontsRegistry} are not synchronized, that's why all pages of all resolvers are resolved under the same
+ * {@link #REGISTRY_LOCK global lock}.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 2:05 PM
+ */
+class FontResolver {
+
+  private static final int PAGE_SHIFT  = 8;
+  private static final int PAGE_SIZE   = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK   = PAGE_SIZE - 1;
+  private static final int MAX_CACHED  = 16;
+
+  /** Access-ordered, i.e. least recently used resolver goes first. */
+  private static final Map<String, FontResolver> CACHE = new LinkedHashMap<String, FontResolver>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, FontResolver> eldest) {
+      return size() > MAX_CACHED;
+    }
+  };
+
+  /** Guards all calls to {@link ComplementaryFontsRegistry} made by the resolvers. */
+  private static final Object REGISTRY_LOCK = new Object();
+
+  @NotNull private final AtomicReferenceArray<Font[]> myPages = new AtomicReferenceArray<Font[]>((Character.MAX_VALUE + 1) >> PAGE_SHIFT);
+
+  /** Latin-1 page, it's referenced directly as it's used by almost every lookup. */
+  @NotNull private final Font[] myFirstPage;
+
+  /** Distinct fonts resolved so far, guarded by the {@link #REGISTRY_LOCK}. */
+  @NotNull private Font[] myKnownFonts = new Font[0];
+
+  @NotNull private final String myFamily;
+
+  private final int mySize;
+  private final int myStyle;
+
+  private FontResolver(@NotNull String family, int size, int style) {
+    myFamily = family;
+    mySize = size;
+    myStyle = style;
+    synchronized (REGISTRY_LOCK) {
+      myFirstPage = resolvePage(0);
+    }
+    myPages.set(0, myFirstPage);
+  }
+
+  @NotNull
+  public static FontResolver getInstance(@NotNull String family, int size, int style) {
+    String key = family + ':' + size + ':' + style;
+    synchronized (CACHE) {
+      FontResolver result = CACHE.get(key);
+      if (result == null) {
+        result = new FontResolver(family, size, style);
+        CACHE.put(key, result);
+      }
+      return result;
+    }
+  }
+
+  @NotNull
+  public Font getFont(char c) {
+    if (c < PAGE_SIZE) {
+      return myFirstPage[c];
+    }
+    int pageIndex = c >> PAGE_SHIFT;
+    Font[] page = myPages.get(pageIndex);
+    if (page == null) {
+      page = installPage(pageIndex);
+    }
+    return page[c & PAGE_MASK];
+  }
+
+  @NotNull
+  private Font[] installPage(int pageIndex) {
+    synchronized (REGISTRY_LOCK) {
+      Font[] result = myPages.get(pageIndex);
+      if (result == null) {
+        result = resolvePage(pageIndex);
+        myPages.set(pageIndex, result);
+      }
+      return result;
+    }
+  }
+
+  /** Is called under the {@link #REGISTRY_LOCK}. */
+  @NotNull
+  private Font[] resolvePage(int pageIndex) {
+    Font[] result = new Font[PAGE_SIZE];
+    char c = (char)(pageIndex << PAGE_SHIFT);
+    for (int i = 0; i < PAGE_SIZE; i++, c++) {
+      result[i] = resolve(c);
+    }
+    return result;
+  }
+
+  @NotNull
+  private Font resolve(char c) {
+    Font font = ComplementaryFontsRegistry.getFontAbleToDisplay(c, mySize, myStyle, myFamily).getFont();
+    Font[] knownFonts = myKnownFonts;
+    for (Font knownFont : knownFonts) {
+      if (knownFont.getSize() == font.getSize() && knownFont.getFamily().equals(font.getFamily())) {
+        return knownFont;
+      }
+    }
+    Font[] newKnownFonts = new Font[knownFonts.length + 1];
+    System.arraycopy(knownFonts, 0, newKnownFonts, 0, knownFonts.length);
+    newKnownFonts[knownFonts.length] = font;
+    myKnownFonts = newKnownFonts;
+    return font;
+  }
+}
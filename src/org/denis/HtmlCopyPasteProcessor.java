@@ -6,6 +6,8 @@ import org.denis.view.HtmlTransferableData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.Future;
+
 /**
  * @author Denis Zhdanov
  * @since 3/28/13 1:05 PM
@@ -14,7 +16,7 @@ public class HtmlCopyPasteProcessor extends AbstractCopyPasteSyntaxAwareProcesso
 
   @Nullable
   @Override
-  protected HtmlTransferableData build(@NotNull SyntaxInfo info) {
+  protected HtmlTransferableData build(@NotNull Future<SyntaxInfo> info) {
     return new HtmlTransferableData(info);
   }
 
@@ -0,0 +1,105 @@
+package org.denis;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import com.intellij.openapi.editor.colors.EditorColorsListener;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.util.Disposer;
+import org.denis.model.Palette;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most complete known {@link Palette palette} per colors scheme, so that subsequent copies reuse its ids and the
+ * data renderers have derived from it.
+ * <p/>
+ * A palette is only an interning table, so, a stale one can't produce incorrect output - it merely might miss colors used by
+ * a new copy, then the copy builds an extended palette which replaces the stored one. Nevertheless, palettes are dropped on
+ * global scheme change and when the scheme's default colors don't match the palette anymore.
+ * <p/>
+ * Palettes are requested at the EDT and offered from the background threads, so, state access is synchronized.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 9:10 PM
+ */
+public class PaletteManager implements ApplicationComponent, Disposable {
+
+  private static final int MAX_PALETTES = 4;
+
+  /** Access-ordered, i.e. least recently used palette goes first. */
+  @NotNull private final Map<EditorColorsScheme, Palette> myPalettes = new LinkedHashMap<EditorColorsScheme, Palette>(8, 0.75f, true);
+
+  @NotNull
+  public static PaletteManager getInstance() {
+    return ApplicationManager.getApplication().getComponent(PaletteManager.class);
+  }
+
+  /**
+   * @param scheme  target colors scheme
+   * @return        palette known for the given scheme if any; <code>null</code> otherwise
+   */
+  @Nullable
+  public synchronized Palette getPalette(@NotNull EditorColorsScheme scheme) {
+    Palette palette = myPalettes.get(scheme);
+    if (palette != null && !matches(palette, scheme)) {
+      myPalettes.remove(scheme);
+      palette = null;
+    }
+    return palette;
+  }
+
+  private static boolean matches(@NotNull Palette palette, @NotNull EditorColorsScheme scheme) {
+    return palette.getColorRegistry().dataById(palette.getDefaultForeground()).equals(scheme.getDefaultForeground())
+           && palette.getColorRegistry().dataById(palette.getDefaultBackground()).equals(scheme.getDefaultBackground());
+  }
+
+  /**
+   * Remembers given palette as the one to use for the subsequent copies with the given scheme.
+   *
+   * @param scheme   colors scheme the palette is built for
+   * @param palette  palette built for the last copy
+   */
+  public synchronized void offer(@NotNull EditorColorsScheme scheme, @NotNull Palette palette) {
+    if (myPalettes.put(scheme, palette) == null && myPalettes.size() > MAX_PALETTES) {
+      Iterator<Palette> it = myPalettes.values().iterator();
+      it.next();
+      it.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    myPalettes.clear();
+  }
+
+  @Override
+  public void initComponent() {
+    EditorColorsManager.getInstance().addEditorColorsListener(new EditorColorsListener() {
+      @Override
+      public void globalSchemeChange(EditorColorsScheme scheme) {
+        clear();
+      }
+    }, this);
+  }
+
+  @Override
+  public void disposeComponent() {
+    Disposer.dispose(this);
+  }
+
+  @Override
+  public void dispose() {
+    clear();
+  }
+
+  @NotNull
+  @Override
+  public String getComponentName() {
+    return getClass().getName();
+  }
+}
@@ -0,0 +1,126 @@
+package org.denis;
+
+import com.intellij.openapi.editor.colors.EditorColorsListener;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Memoizes attributes resolved against a colors scheme, so that every {@link TextAttributesKey} and token type is resolved
+ * once per scheme instead of once per highlighter/token of every copy:
+ * <pre>
+ * <ul>
+ *   <li>markup highlighter keys are mapped to their attributes together with the 'is visually default' flag;</li>
+ *   <li>
+ *     token types are mapped to the merged attributes of their {@link SyntaxHighlighter#getTokenHighlights(IElementType) keys}
+ *     per syntax highlighter instance (the same token type might be highlighted differently by different highlighters, even
+ *     by the ones of the same class, e.g. depending on the file's language level). Highlighters are referenced weakly, i.e.
+ *     their mappings live as long as their editors;
+ *   </li>
+ * </ul>
+ * </pre>
+ * Caches are dropped on global scheme change as that's how scheme settings modifications are applied. They are used from
+ * the background threads, so, mappings are kept at the concurrent maps.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 9:40 PM
+ */
+class ResolvedAttributesCache {
+
+  /** Marks keys which attributes don't change text appearance, concurrent maps don't allow <code>null</code> values. */
+  @NotNull private static final TextAttributes DEFAULT = new TextAttributes();
+
+  /** Guarded by the class monitor. */
+  @NotNull private static final Map<EditorColorsScheme, ResolvedAttributesCache> ourCaches =
+    new WeakHashMap<EditorColorsScheme, ResolvedAttributesCache>();
+  private static boolean ourListenerRegistered;
+
+  @NotNull private final ConcurrentMap<TextAttributesKey, TextAttributes> myMarkupAttributes
+    = new ConcurrentHashMap<TextAttributesKey, TextAttributes>();
+  /** Guarded by the instance monitor. */
+  @NotNull private final Map<SyntaxHighlighter, ConcurrentMap<IElementType, TextAttributes>> myTokenAttributes
+    = new WeakHashMap<SyntaxHighlighter, ConcurrentMap<IElementType, TextAttributes>>();
+
+  @NotNull private final EditorColorsScheme myScheme;
+  @NotNull private final Color              myDefaultForeground;
+  @NotNull private final Color              myDefaultBackground;
+
+  private ResolvedAttributesCache(@NotNull EditorColorsScheme scheme) {
+    myScheme = scheme;
+    myDefaultForeground = scheme.getDefaultForeground();
+    myDefaultBackground = scheme.getDefaultBackground();
+  }
+
+  @NotNull
+  public static synchronized ResolvedAttributesCache getInstance(@NotNull EditorColorsScheme scheme) {
+    if (!ourListenerRegistered) {
+      ourListenerRegistered = true;
+      EditorColorsManager.getInstance().addEditorColorsListener(new EditorColorsListener() {
+        @Override
+        public void globalSchemeChange(EditorColorsScheme scheme) {
+          clear();
+        }
+      });
+    }
+    ResolvedAttributesCache result = ourCaches.get(scheme);
+    if (result == null) {
+      result = new ResolvedAttributesCache(scheme);
+      ourCaches.put(scheme, result);
+    }
+    return result;
+  }
+
+  public static synchronized void clear() {
+    ourCaches.clear();
+  }
+
+  /**
+   * @param key  key of a markup highlighter
+   * @return     attributes of the given key if they change text appearance; <code>null</code> otherwise
+   */
+  @Nullable
+  public TextAttributes getMarkupAttributes(@NotNull TextAttributesKey key) {
+    TextAttributes result = myMarkupAttributes.get(key);
+    if (result == null) {
+      result = myScheme.getAttributes(key);
+      if (result == null || isVisuallyDefault(result)) {
+        result = DEFAULT;
+      }
+      myMarkupAttributes.put(key, result);
+    }
+    return result == DEFAULT ? null : result;
+  }
+
+  private boolean isVisuallyDefault(@NotNull TextAttributes attributes) {
+    Color foreground = attributes.getForegroundColor();
+    Color background = attributes.getBackgroundColor();
+    return (foreground == null || myDefaultForeground.equals(foreground))
+           && (background == null || myDefaultBackground.equals(background))
+           && attributes.getFontType() == Font.PLAIN;
+  }
+
+  /**
+   * @param highlighter  syntax highlighter which tokens are resolved
+   * @return             token type to resolved attributes mappings of the given highlighter's tokens
+   */
+  @NotNull
+  public synchronized ConcurrentMap<IElementType, TextAttributes> getTokenAttributes(@NotNull SyntaxHighlighter highlighter) {
+    ConcurrentMap<IElementType, TextAttributes> result = myTokenAttributes.get(highlighter);
+    if (result == null) {
+      result = new ConcurrentHashMap<IElementType, TextAttributes>();
+      myTokenAttributes.put(highlighter, result);
+    }
+    return result;
+  }
+}
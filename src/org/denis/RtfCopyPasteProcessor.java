@@ -6,6 +6,8 @@ import org.denis.view.RtfTransferableData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.Future;
+
 /**
  * @author Denis Zhdanov
  * @since 3/25/13 2:18 PM
@@ -14,7 +16,7 @@ public class RtfCopyPasteProcessor extends AbstractCopyPasteSyntaxAwareProcessor
 
   @Nullable
   @Override
-  protected RtfTransferableData build(@NotNull SyntaxInfo info) {
+  protected RtfTransferableData build(@NotNull Future<SyntaxInfo> info) {
     return new RtfTransferableData(info);
   }
 
@@ -0,0 +1,123 @@
+package org.denis;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+
+/**
+ * Describes visual attributes of a document text range.
+ * <p/>
+ * Segments returned by {@link SegmentMerger} and by {@link AttributeRunCache#slice(int, int) cached runs} are valid only
+ * until the next call to them, {@link #copy()} has to be used in order to keep them.
+ * 
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:40 AM
+ */
+class SegmentInfo {
+
+  @Nullable public Color  foreground;
+  @Nullable public Color  background;
+  @NotNull  public String fontFamilyName;
+
+  public int fontStyle;
+  public int fontSize;
+  public int startOffset;
+  public int endOffset;
+
+  SegmentInfo(@Nullable Color foreground,
+              @Nullable Color background,
+              @NotNull String fontFamilyName,
+              int fontStyle,
+              int fontSize,
+              int startOffset,
+              int endOffset)
+  {
+    this.foreground = foreground;
+    this.background = background;
+    this.fontFamilyName = fontFamilyName;
+    this.fontStyle = fontStyle;
+    this.fontSize = fontSize;
+    this.startOffset = startOffset;
+    this.endOffset = endOffset;
+  }
+
+  /**
+   * Re-initializes current segment. {@link SegmentMerger} exposes all merged segments via the same reused object.
+   */
+  void set(@Nullable Color foreground,
+           @Nullable Color background,
+           @NotNull String fontFamilyName,
+           int fontStyle,
+           int fontSize,
+           int startOffset,
+           int endOffset)
+  {
+    this.foreground = foreground;
+    this.background = background;
+    this.fontFamilyName = fontFamilyName;
+    this.fontStyle = fontStyle;
+    this.fontSize = fontSize;
+    this.startOffset = startOffset;
+    this.endOffset = endOffset;
+  }
+
+  @NotNull
+  SegmentInfo copy() {
+    return new SegmentInfo(foreground, background, fontFamilyName, fontStyle, fontSize, startOffset, endOffset);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = foreground != null ? foreground.hashCode() : 0;
+    result = 31 * result + (background != null ? background.hashCode() : 0);
+    result = 31 * result + fontFamilyName.hashCode();
+    result = 31 * result + fontStyle;
+    result = 31 * result + fontSize;
+    result = 31 * result + startOffset;
+    result = 31 * result + endOffset;
+    return result;
+  }
+
+  @SuppressWarnings("RedundantIfStatement")
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    SegmentInfo info = (SegmentInfo)o;
+
+    if (endOffset != info.endOffset) return false;
+    if (fontStyle != info.fontStyle) return false;
+    if (fontSize != info.fontSize) return false;
+    if (startOffset != info.startOffset) return false;
+    if (background != null ? !background.equals(info.background) : info.background != null) return false;
+    if (!fontFamilyName.equals(info.fontFamilyName)) return false;
+    if (foreground != null ? !foreground.equals(info.foreground) : info.foreground != null) return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder fontStyleAsString = new StringBuilder();
+    if (fontStyle == Font.PLAIN) {
+      fontStyleAsString.append("plain");
+    }
+    else {
+      if ((fontStyle & Font.BOLD) != 0) {
+        fontStyleAsString.append("bold ");
+      }
+      if ((fontStyle & Font.ITALIC) != 0) {
+        fontStyleAsString.append("italic ");
+      }
+      if (fontStyleAsString.length() > 0) {
+        fontStyleAsString.setLength(fontStyleAsString.length() - 1);
+      }
+      else {
+        fontStyleAsString.append("unknown font style");
+      }
+    }
+    return String.format("%d-%d: %s, %s", startOffset, endOffset, fontFamilyName, fontStyleAsString);
+  }
+}
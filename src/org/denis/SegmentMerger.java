@@ -0,0 +1,296 @@
+package org.denis;
+
+import com.intellij.openapi.editor.ex.DisposableIterator;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Sweep-line merger of the {@link TextAttributesSource attribute sources}.
+ * <p/>
+ * The text is split at every range boundary and attributes of every resulting piece are merged from the ranges which cover it
+ * by {@link com.intellij.openapi.editor.markup.HighlighterLayer layer} priority the same way as the editor paints them - every
+ * color is taken from the top-most range which defines it, font style is taken from the top-most range with non-plain style.
+ * <p/>
+ * Active ranges and font-homogeneous pieces of the merged range are kept at the arrays which are reused between
+ * {@link #start(CharSequence, String, int, TextAttributesSource, TextAttributesSource) runs}, i.e. the same merger object is
+ * expected to be used for subsequent copies. Merged pieces are exposed via the same {@link SegmentInfo} object, so, it's valid
+ * only until the next {@link #next()} call. Not thread-safe.
+ * <p/>
+ * Active ranges refer to their {@link TextAttributes} objects as is - they are shared by the color scheme and highlighters,
+ * i.e. mapping them to ids would cost a lookup per token.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 1:15 PM
+ */
+class SegmentMerger implements DisposableIterator<SegmentInfo> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final int TOKENS = 0;
+  private static final int MARKUP = 1;
+
+  @NotNull private final SegmentInfo mySegment = new SegmentInfo(null, null, "", Font.PLAIN, 0, 0, 0);
+
+  /** Font resolvers by font style, they are reset when another editor font is used. */
+  @NotNull private final FontResolver[] myFontResolvers = new FontResolver[(Font.BOLD | Font.ITALIC) + 1];
+
+  /** Ranges which cover current offset, sorted by layer in descending order. */
+  @NotNull private int[]            myActiveEnds       = new int[INITIAL_CAPACITY];
+  @NotNull private int[]            myActiveLayers     = new int[INITIAL_CAPACITY];
+  @NotNull private TextAttributes[] myActiveAttributes = new TextAttributes[INITIAL_CAPACITY];
+
+  /** End offsets and fonts of the pieces of the last merged range, they share its colors and font style. */
+  @NotNull private int[]    myPieceEnds         = new int[INITIAL_CAPACITY];
+  @NotNull private String[] myPieceFontFamilies = new String[INITIAL_CAPACITY];
+  @NotNull private int[]    myPieceFontSizes    = new int[INITIAL_CAPACITY];
+
+  @NotNull private final TextAttributesSource[] mySources = new TextAttributesSource[2];
+  @NotNull private final boolean[]              myHasHead = new boolean[2];
+
+  private CharSequence myText;
+  private String       myFontName;
+  private Color        myForeground;
+  private Color        myBackground;
+
+  private int myFontSize;
+  private int myFontStyle;
+
+  private int myActiveSize;
+  private int myPieceStart;
+  private int myPiecesNumber;
+  private int myPieceIndex;
+  private int myOffset;
+
+  /**
+   * Starts merging of the given sources.
+   *
+   * @param text      document text
+   * @param fontName  editor font name
+   * @param fontSize  editor font size
+   * @param tokens    lexer tokens
+   * @param markup    markup highlighters
+   */
+  public void start(@NotNull CharSequence text,
+                    @NotNull String fontName,
+                    int fontSize,
+                    @NotNull TextAttributesSource tokens,
+                    @NotNull TextAttributesSource markup)
+  {
+    if (!fontName.equals(myFontName) || fontSize != myFontSize) {
+      Arrays.fill(myFontResolvers, null);
+    }
+    myText = text;
+    myFontName = fontName;
+    myFontSize = fontSize;
+    mySources[TOKENS] = tokens;
+    mySources[MARKUP] = markup;
+    for (int i = 0; i < mySources.length; i++) {
+      myHasHead[i] = mySources[i].advance();
+    }
+    myActiveSize = 0;
+    myPiecesNumber = 0;
+    myPieceIndex = 0;
+    myOffset = 0;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return myPieceIndex < myPiecesNumber || fill();
+  }
+
+  @Override
+  public SegmentInfo next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int start = myPieceIndex == 0 ? myPieceStart : myPieceEnds[myPieceIndex - 1];
+    mySegment.set(myForeground, myBackground, myPieceFontFamilies[myPieceIndex], myFontStyle, myPieceFontSizes[myPieceIndex],
+                  start, myPieceEnds[myPieceIndex]);
+    myPieceIndex++;
+    return mySegment;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void dispose() {
+    for (TextAttributesSource source : mySources) {
+      if (source != null) {
+        source.dispose();
+      }
+    }
+    // Don't hold references to the document text and attributes between copies. Font name and resolvers are kept as
+    // the editor font rarely changes.
+    Arrays.fill(myActiveAttributes, 0, myActiveSize, null);
+    Arrays.fill(mySources, null);
+    myPiecesNumber = 0;
+    myPieceIndex = 0;
+    myText = null;
+    myForeground = null;
+    myBackground = null;
+  }
+
+  private boolean fill() {
+    myPiecesNumber = 0;
+    myPieceIndex = 0;
+    while (myPiecesNumber <= 0) {
+      activate();
+      if (myActiveSize <= 0) {
+        int nextStart = minHeadStart();
+        if (nextStart == Integer.MAX_VALUE) {
+          return false;
+        }
+        myOffset = nextStart;
+        continue;
+      }
+      int end = Math.min(minActiveEnd(), minHeadStart());
+      emit(myOffset, end);
+      myOffset = end;
+      deactivate();
+    }
+    return true;
+  }
+
+  /**
+   * Moves all ranges which start at or before the current offset from the sources to the active ranges.
+   */
+  private void activate() {
+    for (int i = 0; i < mySources.length; i++) {
+      TextAttributesSource source = mySources[i];
+      while (myHasHead[i] && source.getStartOffset() <= myOffset) {
+        if (source.getEndOffset() > myOffset) {
+          addActive(source.getEndOffset(), source.getLayer(), source.getAttributes());
+        }
+        myHasHead[i] = source.advance();
+      }
+    }
+  }
+
+  private void addActive(int end, int layer, @NotNull TextAttributes attributes) {
+    if (myActiveSize >= myActiveEnds.length) {
+      int capacity = myActiveEnds.length * 2;
+      myActiveEnds = Arrays.copyOf(myActiveEnds, capacity);
+      myActiveLayers = Arrays.copyOf(myActiveLayers, capacity);
+      myActiveAttributes = Arrays.copyOf(myActiveAttributes, capacity);
+    }
+    
+    // The most recently started range goes first among the ranges of the same layer.
+    int i = 0;
+    while (i < myActiveSize && myActiveLayers[i] > layer) {
+      i++;
+    }
+    int toMove = myActiveSize - i;
+    if (toMove > 0) {
+      System.arraycopy(myActiveEnds, i, myActiveEnds, i + 1, toMove);
+      System.arraycopy(myActiveLayers, i, myActiveLayers, i + 1, toMove);
+      System.arraycopy(myActiveAttributes, i, myActiveAttributes, i + 1, toMove);
+    }
+    myActiveEnds[i] = end;
+    myActiveLayers[i] = layer;
+    myActiveAttributes[i] = attributes;
+    myActiveSize++;
+  }
+
+  /**
+   * Drops active ranges which end at or before the current offset.
+   */
+  private void deactivate() {
+    int to = 0;
+    for (int from = 0; from < myActiveSize; from++) {
+      if (myActiveEnds[from] <= myOffset) {
+        continue;
+      }
+      if (to != from) {
+        myActiveEnds[to] = myActiveEnds[from];
+        myActiveLayers[to] = myActiveLayers[from];
+        myActiveAttributes[to] = myActiveAttributes[from];
+      }
+      to++;
+    }
+    Arrays.fill(myActiveAttributes, to, myActiveSize, null);
+    myActiveSize = to;
+  }
+
+  private int minHeadStart() {
+    int result = Integer.MAX_VALUE;
+    for (int i = 0; i < mySources.length; i++) {
+      if (myHasHead[i]) {
+        result = Math.min(result, mySources[i].getStartOffset());
+      }
+    }
+    return result;
+  }
+
+  private int minActiveEnd() {
+    int result = Integer.MAX_VALUE;
+    for (int i = 0; i < myActiveSize; i++) {
+      result = Math.min(result, myActiveEnds[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Merges attributes of the active ranges and splits given range into pieces which can be displayed by the same font.
+   */
+  private void emit(int start, int end) {
+    Color foreground = null;
+    Color background = null;
+    int fontStyle = Font.PLAIN;
+    for (int i = 0; i < myActiveSize; i++) {
+      TextAttributes attributes = myActiveAttributes[i];
+      if (foreground == null) {
+        foreground = attributes.getForegroundColor();
+      }
+      if (background == null) {
+        background = attributes.getBackgroundColor();
+      }
+      if (fontStyle == Font.PLAIN) {
+        fontStyle = attributes.getFontType();
+      }
+    }
+    myForeground = foreground;
+    myBackground = background;
+    myFontStyle = fontStyle;
+    myPieceStart = start;
+    if (end <= start) {
+      return;
+    }
+
+    FontResolver fontResolver = myFontResolvers[fontStyle];
+    if (fontResolver == null) {
+      myFontResolvers[fontStyle] = fontResolver = FontResolver.getInstance(myFontName, myFontSize, fontStyle);
+    }
+    Font currentFont = fontResolver.getFont(myText.charAt(start));
+    for (int i = start + 1; i < end; i++) {
+      Font candidateFont = fontResolver.getFont(myText.charAt(i));
+      if (candidateFont == currentFont) {
+        continue;
+      }
+      if (!candidateFont.getFamily().equals(currentFont.getFamily()) || candidateFont.getSize() != currentFont.getSize()) {
+        addPiece(i, currentFont);
+      }
+      currentFont = candidateFont;
+    }
+    addPiece(end, currentFont);
+  }
+
+  private void addPiece(int end, @NotNull Font font) {
+    if (myPiecesNumber >= myPieceEnds.length) {
+      int capacity = myPieceEnds.length * 2;
+      myPieceEnds = Arrays.copyOf(myPieceEnds, capacity);
+      myPieceFontFamilies = Arrays.copyOf(myPieceFontFamilies, capacity);
+      myPieceFontSizes = Arrays.copyOf(myPieceFontSizes, capacity);
+    }
+    myPieceEnds[myPiecesNumber] = end;
+    myPieceFontFamilies[myPiecesNumber] = font.getFamily();
+    myPieceFontSizes[myPiecesNumber] = font.getSize();
+    myPiecesNumber++;
+  }
+}
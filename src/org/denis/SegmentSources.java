@@ -0,0 +1,28 @@
+package org.denis;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Provides attribute sources of the copied regions.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:10 PM
+ */
+interface SegmentSources {
+
+  /**
+   * @param startOffset  region start offset (inclusive)
+   * @param endOffset    region end offset (exclusive)
+   * @return             lexer tokens of the given region
+   */
+  @NotNull
+  TextAttributesSource getTokens(int startOffset, int endOffset);
+
+  /**
+   * @param startOffset  region start offset (inclusive)
+   * @param endOffset    region end offset (exclusive)
+   * @return             markup highlighters of the given region
+   */
+  @NotNull
+  TextAttributesSource getMarkup(int startOffset, int endOffset);
+}
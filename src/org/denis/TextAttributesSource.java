@@ -0,0 +1,36 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Cursor over text ranges which have particular attributes (e.g. lexer tokens or markup model highlighters).
+ * <p/>
+ * Ranges are expected to be provided in non-decreasing order of their start offsets, they might overlap.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 1:10 PM
+ */
+interface TextAttributesSource {
+
+  /**
+   * Moves current cursor to the next range.
+   *
+   * @return    <code>true</code> if there is the next range; <code>false</code> if current source is exhausted
+   */
+  boolean advance();
+
+  int getStartOffset();
+
+  int getEndOffset();
+
+  /**
+   * @return    {@link com.intellij.openapi.editor.markup.HighlighterLayer layer} of the current range
+   */
+  int getLayer();
+
+  @NotNull
+  TextAttributes getAttributes();
+
+  void dispose();
+}
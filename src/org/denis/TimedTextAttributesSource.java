@@ -0,0 +1,78 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Delegating {@link TextAttributesSource} which accumulates time spent at the delegate's {@link #advance()}, i.e. time of
+ * walking lexer tokens or markup highlighters, and counts provided ranges.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:20 PM
+ */
+class TimedTextAttributesSource implements TextAttributesSource {
+
+  @NotNull private final TextAttributesSource myDelegate;
+
+  private long myNanos;
+  private int  myCount;
+
+  TimedTextAttributesSource(@NotNull TextAttributesSource delegate) {
+    myDelegate = delegate;
+  }
+
+  /**
+   * @return    total time spent at the {@link #advance()} calls so far
+   */
+  public long getNanos() {
+    return myNanos;
+  }
+
+  /**
+   * @return    number of ranges provided so far
+   */
+  public int getCount() {
+    return myCount;
+  }
+
+  @Override
+  public boolean advance() {
+    long start = System.nanoTime();
+    try {
+      boolean result = myDelegate.advance();
+      if (result) {
+        myCount++;
+      }
+      return result;
+    }
+    finally {
+      myNanos += System.nanoTime() - start;
+    }
+  }
+
+  @Override
+  public int getStartOffset() {
+    return myDelegate.getStartOffset();
+  }
+
+  @Override
+  public int getEndOffset() {
+    return myDelegate.getEndOffset();
+  }
+
+  @Override
+  public int getLayer() {
+    return myDelegate.getLayer();
+  }
+
+  @NotNull
+  @Override
+  public TextAttributes getAttributes() {
+    return myDelegate.getAttributes();
+  }
+
+  @Override
+  public void dispose() {
+    myDelegate.dispose();
+  }
+}
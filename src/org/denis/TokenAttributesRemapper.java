@@ -0,0 +1,77 @@
+package org.denis;
+
+import com.intellij.openapi.editor.HighlighterColors;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.ex.util.LayeredLexerEditorHighlighter;
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Resolves attributes of the tokens produced by a highlighter against a colors scheme which differs from the highlighter's one.
+ * <p/>
+ * That allows to use editor's highlighter (which is already up to date with the document) when a custom scheme is configured
+ * at the {@link org.denis.settings.CopyOnSteroidSettings settings} instead of re-lexing the whole document by a new highlighter.
+ * 
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:02 AM
+ */
+class TokenAttributesRemapper {
+
+  /** Shared by all remappers of the same scheme and syntax highlighter. */
+  @NotNull private final Map<IElementType, TextAttributes> myCache;
+
+  @NotNull private final SyntaxHighlighter  mySyntaxHighlighter;
+  @NotNull private final EditorColorsScheme myScheme;
+  @NotNull private final TextAttributes     myDefaultAttributes;
+
+  private TokenAttributesRemapper(@NotNull SyntaxHighlighter highlighter, @NotNull EditorColorsScheme scheme) {
+    mySyntaxHighlighter = highlighter;
+    myScheme = scheme;
+    myCache = ResolvedAttributesCache.getInstance(scheme).getTokenAttributes(highlighter);
+    TextAttributes defaultAttributes = scheme.getAttributes(HighlighterColors.TEXT);
+    myDefaultAttributes = defaultAttributes == null ? new TextAttributes() : defaultAttributes;
+  }
+
+  /**
+   * @param highlighter  highlighter which tokens should be re-colored
+   * @param scheme       target colors scheme
+   * @return             remapper for the given arguments if tokens of the given highlighter can be re-colored;
+   *                     <code>null</code> otherwise (e.g. layered highlighters take attributes of embedded tokens from
+   *                     layer-specific syntax highlighters which are not exposed)
+   */
+  @Nullable
+  public static TokenAttributesRemapper create(@NotNull EditorHighlighter highlighter, @NotNull EditorColorsScheme scheme) {
+    if (!(highlighter instanceof LexerEditorHighlighter) || highlighter instanceof LayeredLexerEditorHighlighter) {
+      return null;
+    }
+    SyntaxHighlighter syntaxHighlighter = ((LexerEditorHighlighter)highlighter).getSyntaxHighlighter();
+    return syntaxHighlighter == null ? null : new TokenAttributesRemapper(syntaxHighlighter, scheme);
+  }
+
+  @NotNull
+  public TextAttributes getAttributes(@NotNull IElementType tokenType) {
+    TextAttributes result = myCache.get(tokenType);
+    if (result != null) {
+      return result;
+    }
+    
+    // Merge attributes of all token keys the same way as the lexer highlighter does.
+    result = myDefaultAttributes;
+    for (TextAttributesKey key : mySyntaxHighlighter.getTokenHighlights(tokenType)) {
+      TextAttributes attributes = myScheme.getAttributes(key);
+      if (attributes != null) {
+        result = TextAttributes.merge(result, attributes);
+      }
+    }
+    myCache.put(tokenType, result);
+    return result;
+  }
+}
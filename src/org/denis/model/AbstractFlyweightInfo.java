@@ -6,7 +6,7 @@ package org.denis.model;
  */
 public abstract class AbstractFlyweightInfo implements OutputInfo {
   
-  private final int myId;
+  private int myId;
 
   public AbstractFlyweightInfo(int id) {
     myId = id;
@@ -16,6 +16,10 @@ public abstract class AbstractFlyweightInfo implements OutputInfo {
     return myId;
   }
 
+  void setId(int id) {
+    myId = id;
+  }
+
   @Override
   public int hashCode() {
     return myId;
@@ -1,57 +1,106 @@
 package org.denis.model;
 
-import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
 
 /**
+ * Assigns sequential ids to the registered data, i.e. registered ids always form <code>[1; size()]</code> range and
+ * data is resolved by a plain array access.
+ * <p/>
+ * Subclasses might override {@link #lookupId(Object)} and {@link #rememberId(Object, int)} in order to index the data by
+ * a cheaper key.
+ *
  * @author Denis Zhdanov
  * @since 3/23/13 3:17 PM
  */
 public abstract class AbstractRegistry<T> {
 
-  @NotNull private final TIntObjectHashMap<T> myDataById = new TIntObjectHashMap<T>();
+  /** Registered data indexed by id, the first element is unused. */
+  @NotNull private Object[] myDataById = new Object[16];
 
-  private transient TObjectIntHashMap<T> myIdsByData = new TObjectIntHashMap<T>();
+  private int mySize;
+  private boolean mySealed;
 
+  private transient TObjectIntHashMap<T> myIdsByData;
+
+  @SuppressWarnings("unchecked")
   @NotNull
   public T dataById(int id) throws IllegalArgumentException {
-    T result = myDataById.get(id);
-    if (result == null) {
+    if (id <= 0 || id > mySize) {
       throw new IllegalArgumentException("No data is registered for id " + id);
     }
-    return result;
+    return (T)myDataById[id];
   }
   
   public int getId(@NotNull T data) throws IllegalStateException {
-    if (myIdsByData == null) {
+    if (mySealed) {
       throw new IllegalStateException(String.format(
         "Can't register data '%s'. Reason: the %s registry is already sealed", data, getClass().getName()
       ));
     }
-    int id = myIdsByData.get(data);
+    int id = lookupId(data);
     if (id <= 0) {
-      id = myIdsByData.size() + 1;
-      myDataById.put(id, data);
-      myIdsByData.put(data, id);
+      id = ++mySize;
+      if (id >= myDataById.length) {
+        myDataById = Arrays.copyOf(myDataById, myDataById.length * 2);
+      }
+      myDataById[id] = data;
+      rememberId(data, id);
     }
     return id;
   }
 
-  public int[] getAllIds() {
-    int[] result = myDataById.keys();
-    Arrays.sort(result);
-    return result;
+  /**
+   * Registers all data of the given registry in order of their ids, i.e. an empty registry gets the same ids as the given one.
+   *
+   * @param registry  registry which data should be registered
+   */
+  public void addAll(@NotNull AbstractRegistry<T> registry) {
+    for (int id = 1; id <= registry.size(); id++) {
+      getId(registry.dataById(id));
+    }
   }
 
+  /**
+   * @param data  target data
+   * @return      id of the given data if it's already registered; non-positive value otherwise
+   */
+  protected int lookupId(@NotNull T data) {
+    return myIdsByData == null ? 0 : myIdsByData.get(data);
+  }
+
+  /**
+   * Is called when new data is registered.
+   *
+   * @param data  registered data
+   * @param id    id assigned to the given data
+   */
+  protected void rememberId(@NotNull T data, int id) {
+    if (myIdsByData == null) {
+      myIdsByData = new TObjectIntHashMap<T>();
+    }
+    myIdsByData.put(data, id);
+  }
+
+  /**
+   * Is called when the registry is sealed, i.e. data to id mappings are not necessary anymore.
+   */
+  protected void dropIds() {
+    myIdsByData = null;
+  }
+
+  /**
+   * @return    number of registered data items, which is also the max registered id
+   */
   public int size() {
-    return myDataById.size();
+    return mySize;
   }
 
   public void seal() {
-    myIdsByData = null;
-    myDataById.compact();
+    mySealed = true;
+    dropIds();
+    myDataById = Arrays.copyOf(myDataById, mySize + 1);
   }
 }
@@ -1,10 +1,32 @@
 package org.denis.model;
 
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
 import java.awt.*;
 
 /**
+ * Colors are indexed by their packed ARGB value as equal colors are represented by different objects.
+ *
  * @author Denis Zhdanov
  * @since 3/23/13 3:13 PM
  */
 public class ColorRegistry extends AbstractRegistry<Color> {
+
+  private transient TIntIntHashMap myIdsByRgb = new TIntIntHashMap();
+
+  @Override
+  protected int lookupId(@NotNull Color data) {
+    return myIdsByRgb.get(data.getRGB());
+  }
+
+  @Override
+  protected void rememberId(@NotNull Color data, int id) {
+    myIdsByRgb.put(data.getRGB(), id);
+  }
+
+  @Override
+  protected void dropIds() {
+    myIdsByRgb = null;
+  }
 }
@@ -0,0 +1,23 @@
+package org.denis.model;
+
+/**
+ * Level of detail of the copied text formatting. Copies which exceed the budgets configured at the
+ * {@link org.denis.settings.CopyOnSteroidSettings settings} step down to the lower levels in order not to stall the IDE.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 11:55 PM
+ */
+public enum Fidelity {
+
+  /** Lexer tokens and markup highlighters (e.g. semantic highlighting). */
+  FULL,
+
+  /** Lexer tokens only, markup model is not walked. */
+  LEXER_ONLY,
+
+  /** Whole text is formatted by the editor font and default colors. */
+  SINGLE_STYLE,
+
+  /** Formatted flavors are not provided at all. */
+  PLAIN_TEXT
+}
@@ -0,0 +1,103 @@
+package org.denis.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Iterates {@link OutputInfoStream packed output infos} without allocating objects for them.
+ * <p/>
+ * Usage pattern:
+ * <pre>
+ *   for (OutputInfoCursor cursor = stream.cursor(); cursor.advance(); ) {
+ *     switch (cursor.getOpcode()) {
+ *       ...
+ *     }
+ *   }
+ * </pre>
+ * Not thread-safe.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 2:45 PM
+ */
+public class OutputInfoCursor {
+
+  // Flyweights to use for visiting current info.
+  @NotNull private final Text        myText        = new Text(0, 0);
+  @NotNull private final StyleChange myStyleChange = new StyleChange(0);
+
+  @NotNull private final int[] myData;
+
+  private final int mySize;
+
+  private int myPosition = -1;
+  private int myNextPosition;
+
+  OutputInfoCursor(@NotNull int[] data, int size) {
+    myData = data;
+    mySize = size;
+  }
+
+  /**
+   * Moves current cursor to the next info.
+   *
+   * @return    <code>true</code> if there is the next info; <code>false</code> otherwise
+   */
+  public boolean advance() {
+    if (myNextPosition >= mySize) {
+      return false;
+    }
+    myPosition = myNextPosition;
+    myNextPosition += myData[myPosition] == OutputInfoStream.TEXT ? 3 : 2;
+    return true;
+  }
+
+  /**
+   * @return    one of the {@link OutputInfoStream} opcodes
+   */
+  public int getOpcode() {
+    return myData[myPosition];
+  }
+
+  /**
+   * @return    style id of the current style change info or start offset of the current text info
+   */
+  public int getOperand() {
+    return myData[myPosition + 1];
+  }
+
+  /**
+   * @return    end offset of the current text info
+   */
+  public int getEndOffset() {
+    return myData[myPosition + 2];
+  }
+
+  /**
+   * Dispatches current info to the given visitor.
+   * <p/>
+   * <b>Note:</b> the visitor is given flyweight objects which are reused for the subsequent infos, i.e. they must not
+   * be retained by it.
+   *
+   * @param visitor  target visitor
+   */
+  public void invite(@NotNull OutputInfoVisitor visitor) {
+    int operand = getOperand();
+    switch (getOpcode()) {
+      case OutputInfoStream.TEXT: myText.set(operand, getEndOffset()); myText.invite(visitor); break;
+      case OutputInfoStream.STYLE_CHANGE: myStyleChange.setId(operand); myStyleChange.invite(visitor); break;
+      default: throw new IllegalStateException("Unknown output info opcode " + getOpcode());
+    }
+  }
+
+  /**
+   * @return    newly created object for the current info
+   */
+  @NotNull
+  public OutputInfo toOutputInfo() {
+    int operand = getOperand();
+    switch (getOpcode()) {
+      case OutputInfoStream.TEXT: return new Text(operand, getEndOffset());
+      case OutputInfoStream.STYLE_CHANGE: return new StyleChange(operand);
+      default: throw new IllegalStateException("Unknown output info opcode " + getOpcode());
+    }
+  }
+}
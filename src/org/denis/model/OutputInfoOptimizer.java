@@ -0,0 +1,52 @@
+package org.denis.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Peephole optimizer of the {@link OutputInfoStream output infos} which produces equivalent but shorter stream:
+ * <ul>
+ *   <li>adjacent text ranges which are not separated by style changes are merged;</li>
+ *   <li>style changes which are overwritten before any text or which repeat current style are dropped.</li>
+ * </ul>
+ * Font settings are a part of the {@link TextStyle style}, so, a stream with uniform formatting gets a single style change at
+ * its head.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 7:30 PM
+ */
+public class OutputInfoOptimizer {
+
+  private OutputInfoOptimizer() {
+  }
+
+  @NotNull
+  public static OutputInfoStream optimize(@NotNull OutputInfoStream infos) {
+    OutputInfoStream result = new OutputInfoStream();
+    int writtenStyle = 0;
+    int pendingStyle = 0;
+    int lastTextEndOffset = -1; // Negative value means that the last written info is not a text
+    for (OutputInfoCursor cursor = infos.cursor(); cursor.advance(); ) {
+      if (cursor.getOpcode() != OutputInfoStream.TEXT) {
+        pendingStyle = cursor.getOperand();
+        continue;
+      }
+
+      if (pendingStyle != writtenStyle) {
+        result.addStyleChange(pendingStyle);
+        writtenStyle = pendingStyle;
+        lastTextEndOffset = -1;
+      }
+
+      int startOffset = cursor.getOperand();
+      int endOffset = cursor.getEndOffset();
+      if (startOffset == lastTextEndOffset) {
+        result.setLastTextEndOffset(endOffset);
+      }
+      else {
+        result.addText(startOffset, endOffset);
+      }
+      lastTextEndOffset = endOffset;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,86 @@
+package org.denis.model;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Packed representation of the {@link OutputInfo output infos} sequence.
+ * <p/>
+ * Every info is encoded at the <code>int</code> array as an opcode followed by its operands:
+ * <pre>
+ * <ul>
+ *   <li>{@link #TEXT} start offset, end offset;</li>
+ *   <li>{@link #STYLE_CHANGE} style id;</li>
+ * </ul>
+ * </pre>
+ * Not thread-safe.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 2:40 PM
+ */
+public class OutputInfoStream implements Serializable {
+
+  public static final int TEXT         = 1;
+  public static final int STYLE_CHANGE = 2;
+
+  private static final long serialVersionUID = 1L;
+
+  @NotNull private int[] myData = new int[64];
+
+  private int mySize;
+  private int myInfoCount;
+
+  public void addText(int startOffset, int endOffset) {
+    ensureCapacity(3);
+    myData[mySize++] = TEXT;
+    myData[mySize++] = startOffset;
+    myData[mySize++] = endOffset;
+    myInfoCount++;
+  }
+
+  public void addStyleChange(int id) {
+    ensureCapacity(2);
+    myData[mySize++] = STYLE_CHANGE;
+    myData[mySize++] = id;
+    myInfoCount++;
+  }
+
+  /**
+   * @return    number of infos at the current stream
+   */
+  public int getInfoCount() {
+    return myInfoCount;
+  }
+
+  /**
+   * Moves end offset of the last info which is expected to be a text info.
+   *
+   * @param endOffset  new end offset of the last text info
+   */
+  void setLastTextEndOffset(int endOffset) {
+    assert mySize >= 3 && myData[mySize - 3] == TEXT;
+    myData[mySize - 1] = endOffset;
+  }
+
+  /**
+   * Releases unused capacity, is expected to be called when all infos are added.
+   */
+  public void trimToSize() {
+    if (myData.length > mySize) {
+      myData = Arrays.copyOf(myData, mySize);
+    }
+  }
+
+  @NotNull
+  public OutputInfoCursor cursor() {
+    return new OutputInfoCursor(myData, mySize);
+  }
+
+  private void ensureCapacity(int toAdd) {
+    if (mySize + toAdd > myData.length) {
+      myData = Arrays.copyOf(myData, Math.max(mySize + toAdd, myData.length * 2));
+    }
+  }
+}
@@ -9,9 +9,5 @@ import org.jetbrains.annotations.NotNull;
 public interface OutputInfoVisitor {
 
   void visit(@NotNull Text text);
-  void visit(@NotNull Foreground color);
-  void visit(@NotNull Background color);
-  void visit(@NotNull FontFamilyName name);
-  void visit(@NotNull FontStyle style);
-  void visit(@NotNull FontSize size);
+  void visit(@NotNull StyleChange change);
 }
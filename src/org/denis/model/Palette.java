@@ -0,0 +1,52 @@
+package org.denis.model;
+
+import com.intellij.openapi.util.UserDataHolderBase;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interned colors and font family names of a colors scheme together with ids of the scheme's default colors.
+ * <p/>
+ * A palette is shared by all {@link SyntaxInfo syntax infos} which don't use colors and fonts beyond it, so, renderers
+ * cache the data derived from it (color and font tables, color strings etc) at its user data. Palette registries are sealed,
+ * i.e. it's immutable except the user data.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 9:05 PM
+ */
+public class Palette extends UserDataHolderBase {
+
+  @NotNull private final ColorRegistry    myColorRegistry;
+  @NotNull private final FontNameRegistry myFontNameRegistry;
+
+  private final int myDefaultForeground;
+  private final int myDefaultBackground;
+
+  public Palette(@NotNull ColorRegistry colorRegistry,
+                 @NotNull FontNameRegistry fontNameRegistry,
+                 int defaultForeground,
+                 int defaultBackground)
+  {
+    myColorRegistry = colorRegistry;
+    myFontNameRegistry = fontNameRegistry;
+    myDefaultForeground = defaultForeground;
+    myDefaultBackground = defaultBackground;
+  }
+
+  @NotNull
+  public ColorRegistry getColorRegistry() {
+    return myColorRegistry;
+  }
+
+  @NotNull
+  public FontNameRegistry getFontNameRegistry() {
+    return myFontNameRegistry;
+  }
+
+  public int getDefaultForeground() {
+    return myDefaultForeground;
+  }
+
+  public int getDefaultBackground() {
+    return myDefaultBackground;
+  }
+}
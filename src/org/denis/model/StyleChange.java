@@ -3,12 +3,14 @@ package org.denis.model;
 import org.jetbrains.annotations.NotNull;
 
 /**
+ * Defines {@link StyleRegistry style} of the subsequent text infos.
+ *
  * @author Denis Zhdanov
- * @since 3/23/13 3:23 PM
+ * @since 10/17/26 8:20 PM
  */
-public class Background extends AbstractFlyweightInfo {
+public class StyleChange extends AbstractFlyweightInfo {
 
-  public Background(int id) {
+  public StyleChange(int id) {
     super(id);
   }
 
@@ -19,6 +21,6 @@ public class Background extends AbstractFlyweightInfo {
 
   @Override
   public String toString() {
-    return "background=" + getId();
+    return "style=" + getId();
   }
 }
@@ -0,0 +1,27 @@
+package org.denis.model;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Interned {@link TextStyle text styles} referenced by the {@link StyleChange} infos.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 8:15 PM
+ */
+public class StyleRegistry extends AbstractRegistry<TextStyle> {
+
+  /**
+   * Allows renderers to resolve styles by a plain array access and to precompute per-style markup into the arrays with
+   * the same indexing.
+   *
+   * @return    registered styles indexed by their ids, i.e. the first element is always <code>null</code>
+   */
+  @NotNull
+  public TextStyle[] toArray() {
+    TextStyle[] result = new TextStyle[size() + 1];
+    for (int id = 1; id < result.length; id++) {
+      result[id] = dataById(id);
+    }
+    return result;
+  }
+}
@@ -1,5 +1,6 @@
 package org.denis.model;
 
+import com.intellij.util.containers.ContainerUtilRt;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
@@ -13,50 +14,100 @@ public class SyntaxInfo implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
-  @NotNull private final List<OutputInfo> myOutputInfos;
-  @NotNull private final ColorRegistry    myColorRegistry;
-  @NotNull private final FontNameRegistry myFontNameRegistry;
+  @NotNull private final OutputInfoStream myOutputInfos;
+  @NotNull private final Palette          myPalette;
+  @NotNull private final StyleRegistry    myStyleRegistry;
 
-  private final int myDefaultForeground;
-  private final int myDefaultBackground;
+  private final int mySingleFontFamilyName;
   private final int mySingleFontSize;
 
-  public SyntaxInfo(@NotNull List<OutputInfo> infos,
-                    int defaultForeground,
-                    int defaultBackground,
-                    int singleFontSize,
-                    @NotNull FontNameRegistry fontNameRegistry,
-                    @NotNull ColorRegistry colorRegistry)
+  public SyntaxInfo(@NotNull OutputInfoStream infos,
+                    @NotNull Palette palette,
+                    @NotNull StyleRegistry styleRegistry,
+                    int singleFontFamilyName,
+                    int singleFontSize)
   {
     myOutputInfos = infos;
-    myDefaultForeground = defaultForeground;
-    myDefaultBackground = defaultBackground;
+    myPalette = palette;
+    myStyleRegistry = styleRegistry;
+    mySingleFontFamilyName = singleFontFamilyName;
     mySingleFontSize = singleFontSize;
-    myFontNameRegistry = fontNameRegistry;
-    myColorRegistry = colorRegistry;
   }
 
+  /**
+   * @return    newly created objects for all output infos of the current syntax info. Prefer {@link #cursor()} or
+   *            {@link #invite(OutputInfoVisitor)} which don't allocate objects per info
+   */
   @NotNull
   public List<OutputInfo> getOutputInfos() {
-    return myOutputInfos;
+    List<OutputInfo> result = ContainerUtilRt.newArrayList();
+    for (OutputInfoCursor cursor = cursor(); cursor.advance(); ) {
+      result.add(cursor.toOutputInfo());
+    }
+    return result;
+  }
+
+  public int getOutputInfoCount() {
+    return myOutputInfos.getInfoCount();
+  }
+
+  @NotNull
+  public OutputInfoCursor cursor() {
+    return myOutputInfos.cursor();
+  }
+
+  /**
+   * Dispatches all output infos of the current syntax info to the given visitor.
+   * 
+   * @param visitor  target visitor, must not retain given infos (see {@link OutputInfoCursor#invite(OutputInfoVisitor)})
+   */
+  public void invite(@NotNull OutputInfoVisitor visitor) {
+    for (OutputInfoCursor cursor = cursor(); cursor.advance(); ) {
+      cursor.invite(visitor);
+    }
+  }
+
+  /**
+   * @return    palette which defines colors and fonts referenced by the current syntax info, might be shared with other syntax
+   *            infos
+   */
+  @NotNull
+  public Palette getPalette() {
+    return myPalette;
   }
 
   @NotNull
   public ColorRegistry getColorRegistry() {
-    return myColorRegistry;
+    return myPalette.getColorRegistry();
   }
 
   @NotNull
   public FontNameRegistry getFontNameRegistry() {
-    return myFontNameRegistry;
+    return myPalette.getFontNameRegistry();
+  }
+
+  /**
+   * @return    styles referenced by the {@link StyleChange style change infos}
+   */
+  @NotNull
+  public StyleRegistry getStyleRegistry() {
+    return myStyleRegistry;
   }
 
   public int getDefaultForeground() {
-    return myDefaultForeground;
+    return myPalette.getDefaultForeground();
   }
 
   public int getDefaultBackground() {
-    return myDefaultBackground;
+    return myPalette.getDefaultBackground();
+  }
+
+  /**
+   * @return    positive value if all tokens use the same font family (id of the returned value);
+   *            non-positive value otherwise
+   */
+  public int getSingleFontFamilyName() {
+    return mySingleFontFamilyName;
   }
 
   /**
@@ -70,6 +121,6 @@ public class SyntaxInfo implements Serializable {
   @Override
   public String toString() {
     return String.format("default colors: foreground=%d, background=%d; output infos: %s",
-                         myDefaultForeground, myDefaultBackground, myOutputInfos);
+                         getDefaultForeground(), getDefaultBackground(), getOutputInfos());
   }
 }
@@ -8,14 +8,19 @@ import org.jetbrains.annotations.NotNull;
  */
 public class Text implements OutputInfo {
   
-  private final int myStartOffset;
-  private final int myEndOffset;
+  private int myStartOffset;
+  private int myEndOffset;
 
   public Text(int startOffset, int endOffset) {
     myStartOffset = startOffset;
     myEndOffset = endOffset;
   }
 
+  void set(int startOffset, int endOffset) {
+    myStartOffset = startOffset;
+    myEndOffset = endOffset;
+  }
+
   @Override
   public void invite(@NotNull OutputInfoVisitor visitor) {
     visitor.visit(this);
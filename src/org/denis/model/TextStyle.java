@@ -0,0 +1,96 @@
+package org.denis.model;
+
+import java.awt.*;
+import java.io.Serializable;
+
+/**
+ * Complete visual attributes of a text range.
+ * <p/>
+ * Zero color ids, font family id and font size mean that the corresponding attribute is not defined for the range, i.e. it's
+ * displayed with the default attribute value. Immutable.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 8:10 PM
+ */
+public class TextStyle implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int myForeground;
+  private final int myBackground;
+  private final int myFontFamilyName;
+  private final int myFontStyle;
+  private final int myFontSize;
+
+  /**
+   * @param foreground      foreground color id
+   * @param background      background color id
+   * @param fontFamilyName  font family name id
+   * @param fontStyle       font style, a combination of {@link Font#BOLD} and {@link Font#ITALIC} flags
+   * @param fontSize        font size
+   */
+  public TextStyle(int foreground, int background, int fontFamilyName, int fontStyle, int fontSize) {
+    myForeground = foreground;
+    myBackground = background;
+    myFontFamilyName = fontFamilyName;
+    myFontStyle = fontStyle;
+    myFontSize = fontSize;
+  }
+
+  public int getForeground() {
+    return myForeground;
+  }
+
+  public int getBackground() {
+    return myBackground;
+  }
+
+  public int getFontFamilyName() {
+    return myFontFamilyName;
+  }
+
+  public int getFontStyle() {
+    return myFontStyle;
+  }
+
+  public int getFontSize() {
+    return myFontSize;
+  }
+
+  public boolean isBold() {
+    return (myFontStyle & Font.BOLD) != 0;
+  }
+
+  public boolean isItalic() {
+    return (myFontStyle & Font.ITALIC) != 0;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = myForeground;
+    result = 31 * result + myBackground;
+    result = 31 * result + myFontFamilyName;
+    result = 31 * result + myFontStyle;
+    result = 31 * result + myFontSize;
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    TextStyle style = (TextStyle)o;
+    return myForeground == style.myForeground
+           && myBackground == style.myBackground
+           && myFontFamilyName == style.myFontFamilyName
+           && myFontStyle == style.myFontStyle
+           && myFontSize == style.myFontSize;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("foreground=%d, background=%d, font family=%d, font style=%d, font size=%d",
+                         myForeground, myBackground, myFontFamilyName, myFontStyle, myFontSize);
+  }
+}
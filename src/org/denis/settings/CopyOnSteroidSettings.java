@@ -6,6 +6,7 @@ import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.colors.EditorColorsManager;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
 import com.intellij.util.xmlb.XmlSerializerUtil;
+import com.intellij.util.xmlb.annotations.Transient;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -21,11 +22,31 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
 
   @NotNull public static final String ACTIVE_GLOBAL_SCHEME_MARKER = "__ACTIVE_GLOBAL_SCHEME__";
 
+  /**
+   * Markup of the provided HTML.
+   */
+  public enum HtmlProfile {
+    /** Every distinct formatting is defined as a CSS class at a single stylesheet. */
+    COMPACT,
+    /** Formatting is repeated at every styled text run, for the paste targets which ignore stylesheets. */
+    INLINE
+  }
+
   private String  mySchemeName = ACTIVE_GLOBAL_SCHEME_MARKER;
   private boolean myProvideRtf = true;
   private boolean myProvideHtml = true;
+  private HtmlProfile myHtmlProfile = HtmlProfile.COMPACT;
   private boolean myStripIndents = true;
+  private boolean myIndexAttributeRuns;
   private boolean myDebugProcessing;
+  private boolean myCollectStatistics;
+  private boolean myRecordCopies;
+  private int     myMaxCharacters   = 1000000;
+  private int     myMaxHighlighters = 100000;
+  private int     myMaxMillis       = 2000;
+
+  /** Is not stored, it's used only for detecting settings changes within the current session. */
+  private int myModificationCount;
 
   @NotNull
   public static CopyOnSteroidSettings getInstance() {
@@ -50,6 +71,7 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
   @Override
   public void loadState(CopyOnSteroidSettings state) {
     XmlSerializerUtil.copyBean(state, this);
+    myModificationCount++;
   }
 
   @Override
@@ -66,6 +88,14 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
     return getClass().getName();
   }
 
+  /**
+   * @return    number of the settings modifications so far, i.e. the settings are not changed as long as the number is the same
+   */
+  @Transient
+  public int getModificationCount() {
+    return myModificationCount;
+  }
+
   @NotNull
   public String getSchemeName() {
     return mySchemeName == null ? ACTIVE_GLOBAL_SCHEME_MARKER : mySchemeName;
@@ -73,6 +103,7 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
 
   public void setSchemeName(@Nullable String schemeName) {
     mySchemeName = schemeName;
+    myModificationCount++;
   }
 
   public boolean isProvideRtf() {
@@ -81,6 +112,7 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
 
   public void setProvideRtf(boolean provideRtf) {
     myProvideRtf = provideRtf;
+    myModificationCount++;
   }
 
   public boolean isProvideHtml() {
@@ -89,6 +121,17 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
 
   public void setProvideHtml(boolean provideHtml) {
     myProvideHtml = provideHtml;
+    myModificationCount++;
+  }
+
+  @NotNull
+  public HtmlProfile getHtmlProfile() {
+    return myHtmlProfile == null ? HtmlProfile.COMPACT : myHtmlProfile;
+  }
+
+  public void setHtmlProfile(@Nullable HtmlProfile htmlProfile) {
+    myHtmlProfile = htmlProfile;
+    myModificationCount++;
   }
 
   public boolean isStripIndents() {
@@ -97,6 +140,21 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
 
   public void setStripIndents(boolean stripIndents) {
     myStripIndents = stripIndents;
+    myModificationCount++;
+  }
+
+  /**
+   * @return    <code>true</code> if attribute runs of the copied regions should be kept for the visible documents in order to
+   *            speed up subsequent copies of the same regions; <code>false</code> otherwise.
+   *            The runs are cached, not indexed - property name is kept for compatibility with the stored settings
+   */
+  public boolean isIndexAttributeRuns() {
+    return myIndexAttributeRuns;
+  }
+
+  public void setIndexAttributeRuns(boolean indexAttributeRuns) {
+    myIndexAttributeRuns = indexAttributeRuns;
+    myModificationCount++;
   }
 
   public boolean isDebugProcessing() {
@@ -105,5 +163,72 @@ public class CopyOnSteroidSettings implements PersistentStateComponent<CopyOnSte
 
   public void setDebugProcessing(boolean debugProcessing) {
     myDebugProcessing = debugProcessing;
+    myModificationCount++;
+  }
+
+  /**
+   * @return    <code>true</code> if per-phase latencies and sizes of the copies should be recorded to the
+   *            {@link org.denis.stats.CopyStatistics}; <code>false</code> otherwise. Disabled by default as every lexer
+   *            token and highlighter is timed then
+   */
+  public boolean isCollectStatistics() {
+    return myCollectStatistics;
+  }
+
+  public void setCollectStatistics(boolean collectStatistics) {
+    myCollectStatistics = collectStatistics;
+    myModificationCount++;
+  }
+
+  /**
+   * @return    <code>true</code> if copies should be recorded to the local files which can be replayed without IDE for the
+   *            performance investigations; <code>false</code> otherwise
+   */
+  public boolean isRecordCopies() {
+    return myRecordCopies;
+  }
+
+  public void setRecordCopies(boolean recordCopies) {
+    myRecordCopies = recordCopies;
+    myModificationCount++;
+  }
+
+  /**
+   * @return    max number of the copied symbols formatted flavors are provided for (copies of larger text are provided as
+   *            plain text only); non-positive value means no limit
+   */
+  public int getMaxCharacters() {
+    return myMaxCharacters;
+  }
+
+  public void setMaxCharacters(int maxCharacters) {
+    myMaxCharacters = maxCharacters;
+    myModificationCount++;
+  }
+
+  /**
+   * @return    max number of markup highlighters a copy processes before falling back to the lexer-only highlighting;
+   *            non-positive value means no limit
+   */
+  public int getMaxHighlighters() {
+    return myMaxHighlighters;
+  }
+
+  public void setMaxHighlighters(int maxHighlighters) {
+    myMaxHighlighters = maxHighlighters;
+    myModificationCount++;
+  }
+
+  /**
+   * @return    max duration of the formatting collection for a copy before falling back to the single style formatting;
+   *            non-positive value means no limit
+   */
+  public int getMaxMillis() {
+    return myMaxMillis;
+  }
+
+  public void setMaxMillis(int maxMillis) {
+    myMaxMillis = maxMillis;
+    myModificationCount++;
   }
 }
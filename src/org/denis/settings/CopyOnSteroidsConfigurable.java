@@ -2,18 +2,27 @@ package org.denis.settings;
 
 import com.intellij.openapi.editor.colors.EditorColorsManager;
 import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.ide.CopyPasteManager;
 import com.intellij.openapi.options.BaseConfigurable;
 import com.intellij.openapi.options.ConfigurationException;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.ui.ListCellRendererWrapper;
 import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBScrollPane;
 import com.intellij.util.ui.GridBag;
+import org.denis.AttributeRunCacheManager;
+import org.denis.CopyRecording;
+import org.denis.stats.CopyStatistics;
 import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 /**
  * @author Denis Zhdanov
@@ -22,13 +31,21 @@ import java.awt.*;
 @SuppressWarnings("unchecked")
 public class CopyOnSteroidsConfigurable extends BaseConfigurable {
 
-  private JComponent           myContent                 = new JPanel(new GridBagLayout());
-  private DefaultComboBoxModel myColorsSchemeModel       = new DefaultComboBoxModel();
-  private JComboBox            myColorsSchemeComboBox    = new JComboBox(myColorsSchemeModel);
-  private JBCheckBox           myStripIndentsCheckBox    = new JBCheckBox("Strip indents when appropriate");
-  private JBCheckBox           myDebugProcessingCheckBox = new JBCheckBox("Debug processing");
-  private JBCheckBox           myCopyRtfCheckBox         = new JBCheckBox("Provide RTF on 'Copy'");
-  private JBCheckBox           myCopyHtmlCheckBox         = new JBCheckBox("Provide HTML on 'Copy'");
+  private JComponent           myContent                    = new JPanel(new GridBagLayout());
+  private DefaultComboBoxModel myColorsSchemeModel          = new DefaultComboBoxModel();
+  private JComboBox            myColorsSchemeComboBox       = new JComboBox(myColorsSchemeModel);
+  private JBCheckBox           myStripIndentsCheckBox       = new JBCheckBox("Strip indents when appropriate");
+  private JBCheckBox           myIndexAttributeRunsCheckBox = new JBCheckBox("Cache highlighting of copied regions at visible editors");
+  private JBCheckBox           myDebugProcessingCheckBox    = new JBCheckBox("Debug processing");
+  private JBCheckBox           myCopyRtfCheckBox            = new JBCheckBox("Provide RTF on 'Copy'");
+  private JBCheckBox           myCopyHtmlCheckBox           = new JBCheckBox("Provide HTML on 'Copy'");
+  private JComboBox            myHtmlProfileComboBox        = new JComboBox(CopyOnSteroidSettings.HtmlProfile.values());
+  private JBCheckBox           myCollectStatisticsCheckBox  = new JBCheckBox("Collect performance statistics");
+  private JBCheckBox           myRecordCopiesCheckBox       = new JBCheckBox("Record copies for replay");
+  private JTextArea            myStatisticsTextArea         = new JTextArea();
+  private JSpinner             myMaxCharactersSpinner       = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 10000));
+  private JSpinner             myMaxHighlightersSpinner     = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 1000));
+  private JSpinner             myMaxMillisSpinner           = new JSpinner(new SpinnerNumberModel(0, 0, Integer.MAX_VALUE, 100));
 
   @SuppressWarnings("UnusedDeclaration")
   public CopyOnSteroidsConfigurable() {
@@ -46,6 +63,17 @@ public class CopyOnSteroidsConfigurable extends BaseConfigurable {
         setText(textToUse);
       }
     });
+    myHtmlProfileComboBox.setRenderer(new ListCellRendererWrapper<CopyOnSteroidSettings.HtmlProfile>() {
+      @Override
+      public void customize(JList list, CopyOnSteroidSettings.HtmlProfile value, int index, boolean selected, boolean hasFocus) {
+        if (value == CopyOnSteroidSettings.HtmlProfile.INLINE) {
+          setText("Inline styles (for targets which ignore stylesheets)");
+        }
+        else {
+          setText("Compact (stylesheet)");
+        }
+      }
+    });
 
     GridBagConstraints labelConstraints = new GridBag().anchor(GridBagConstraints.WEST);
     GridBagConstraints lineConstraints = new GridBag().weightx(1).coverLine().anchor(GridBagConstraints.WEST).insets(0, 7, 0, 0);
@@ -53,10 +81,63 @@ public class CopyOnSteroidsConfigurable extends BaseConfigurable {
     myContent.add(new JLabel("Use colors of scheme"), labelConstraints);
     myContent.add(myColorsSchemeComboBox, lineConstraints);
     myContent.add(myStripIndentsCheckBox, lineConstraints);
+    myContent.add(myIndexAttributeRunsCheckBox, lineConstraints);
     myContent.add(myDebugProcessingCheckBox, lineConstraints);
     myContent.add(myCopyRtfCheckBox, lineConstraints);
     myContent.add(myCopyHtmlCheckBox, lineConstraints);
-    myContent.add(new JLabel(" "), new GridBag().weighty(1).fillCell());
+    myContent.add(new JLabel("HTML markup"), labelConstraints);
+    myContent.add(myHtmlProfileComboBox, lineConstraints);
+    myContent.add(new JLabel("Plain text only for copies longer than (0 - no limit)"), labelConstraints);
+    myContent.add(myMaxCharactersSpinner, lineConstraints);
+    myContent.add(new JLabel("Lexer highlighting only for copies with highlighters more than"), labelConstraints);
+    myContent.add(myMaxHighlightersSpinner, lineConstraints);
+    myContent.add(new JLabel("Single style for copies processed longer than (ms)"), labelConstraints);
+    myContent.add(myMaxMillisSpinner, lineConstraints);
+    myContent.add(myCollectStatisticsCheckBox, lineConstraints);
+    myRecordCopiesCheckBox.setToolTipText("Recordings are stored at " + CopyRecording.getRecordingsDirectory());
+    myContent.add(myRecordCopiesCheckBox, lineConstraints);
+    myContent.add(createStatisticsButtons(), lineConstraints);
+    myStatisticsTextArea.setEditable(false);
+    myStatisticsTextArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, myStatisticsTextArea.getFont().getSize()));
+    myContent.add(new JBScrollPane(myStatisticsTextArea), new GridBag().weightx(1).weighty(1).coverLine().fillCell());
+  }
+
+  @NotNull
+  private JComponent createStatisticsButtons() {
+    JPanel result = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    JButton refreshButton = new JButton("Refresh stats");
+    refreshButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        refreshStatistics();
+      }
+    });
+    JButton resetButton = new JButton("Reset stats");
+    resetButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        CopyStatistics.getInstance().reset();
+        refreshStatistics();
+      }
+    });
+    JButton copyButton = new JButton("Copy stats to clipboard");
+    copyButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        String report = CopyStatistics.getInstance().getReport();
+        myStatisticsTextArea.setText(report);
+        CopyPasteManager.getInstance().setContents(new StringSelection(report));
+      }
+    });
+    result.add(refreshButton);
+    result.add(resetButton);
+    result.add(copyButton);
+    return result;
+  }
+
+  private void refreshStatistics() {
+    myStatisticsTextArea.setText(CopyStatistics.getInstance().getReport());
+    myStatisticsTextArea.setCaretPosition(0);
   }
 
   @Nls
@@ -82,9 +163,20 @@ public class CopyOnSteroidsConfigurable extends BaseConfigurable {
     CopyOnSteroidSettings settings = CopyOnSteroidSettings.getInstance();
     return !Comparing.equal(settings.getSchemeName(), myColorsSchemeComboBox.getSelectedItem())
            || myStripIndentsCheckBox.isSelected() != settings.isStripIndents()
+           || myIndexAttributeRunsCheckBox.isSelected() != settings.isIndexAttributeRuns()
            || myDebugProcessingCheckBox.isSelected() != settings.isDebugProcessing()
            || myCopyRtfCheckBox.isSelected() != settings.isProvideRtf()
-           || myCopyHtmlCheckBox.isSelected() != settings.isProvideHtml();
+           || myCopyHtmlCheckBox.isSelected() != settings.isProvideHtml()
+           || myHtmlProfileComboBox.getSelectedItem() != settings.getHtmlProfile()
+           || myCollectStatisticsCheckBox.isSelected() != settings.isCollectStatistics()
+           || myRecordCopiesCheckBox.isSelected() != settings.isRecordCopies()
+           || getValue(myMaxCharactersSpinner) != Math.max(settings.getMaxCharacters(), 0)
+           || getValue(myMaxHighlightersSpinner) != Math.max(settings.getMaxHighlighters(), 0)
+           || getValue(myMaxMillisSpinner) != Math.max(settings.getMaxMillis(), 0);
+  }
+
+  private static int getValue(@NotNull JSpinner spinner) {
+    return ((Number)spinner.getValue()).intValue();
   }
 
   @Override
@@ -96,8 +188,18 @@ public class CopyOnSteroidsConfigurable extends BaseConfigurable {
     }
     settings.setDebugProcessing(myDebugProcessingCheckBox.isSelected());
     settings.setStripIndents(myStripIndentsCheckBox.isSelected());
+    settings.setIndexAttributeRuns(myIndexAttributeRunsCheckBox.isSelected());
+    if (!settings.isIndexAttributeRuns()) {
+      AttributeRunCacheManager.getInstance().clear();
+    }
     settings.setProvideRtf(myCopyRtfCheckBox.isSelected());
     settings.setProvideHtml(myCopyHtmlCheckBox.isSelected());
+    settings.setHtmlProfile((CopyOnSteroidSettings.HtmlProfile)myHtmlProfileComboBox.getSelectedItem());
+    settings.setCollectStatistics(myCollectStatisticsCheckBox.isSelected());
+    settings.setRecordCopies(myRecordCopiesCheckBox.isSelected());
+    settings.setMaxCharacters(getValue(myMaxCharactersSpinner));
+    settings.setMaxHighlighters(getValue(myMaxHighlightersSpinner));
+    settings.setMaxMillis(getValue(myMaxMillisSpinner));
   }
 
   @Override
@@ -117,8 +219,16 @@ public class CopyOnSteroidsConfigurable extends BaseConfigurable {
     
     myDebugProcessingCheckBox.setSelected(settings.isDebugProcessing());
     myStripIndentsCheckBox.setSelected(settings.isStripIndents());
+    myIndexAttributeRunsCheckBox.setSelected(settings.isIndexAttributeRuns());
     myCopyRtfCheckBox.setSelected(settings.isProvideRtf());
     myCopyHtmlCheckBox.setSelected(settings.isProvideHtml());
+    myHtmlProfileComboBox.setSelectedItem(settings.getHtmlProfile());
+    myCollectStatisticsCheckBox.setSelected(settings.isCollectStatistics());
+    myRecordCopiesCheckBox.setSelected(settings.isRecordCopies());
+    myMaxCharactersSpinner.setValue(Math.max(settings.getMaxCharacters(), 0));
+    myMaxHighlightersSpinner.setValue(Math.max(settings.getMaxHighlighters(), 0));
+    myMaxMillisSpinner.setValue(Math.max(settings.getMaxMillis(), 0));
+    refreshStatistics();
   }
 
   @Override
@@ -128,7 +238,15 @@ public class CopyOnSteroidsConfigurable extends BaseConfigurable {
     myColorsSchemeComboBox = null;
     myDebugProcessingCheckBox = null; 
     myStripIndentsCheckBox = null; 
+    myIndexAttributeRunsCheckBox = null;
     myCopyRtfCheckBox = null;
     myCopyHtmlCheckBox = null;
+    myHtmlProfileComboBox = null;
+    myCollectStatisticsCheckBox = null;
+    myRecordCopiesCheckBox = null;
+    myStatisticsTextArea = null;
+    myMaxCharactersSpinner = null;
+    myMaxHighlightersSpinner = null;
+    myMaxMillisSpinner = null;
   }
 }
@@ -0,0 +1,167 @@
+package org.denis.stats;
+
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ApplicationComponent;
+import org.denis.model.Fidelity;
+import org.denis.settings.CopyOnSteroidSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps {@link Histogram histograms} of per-phase latencies, allocations and sizes of the copies performed since the IDE
+ * start (or since the last {@link #reset() reset}). That allows to tell whether slow paste is caused by the IDE or by the
+ * paste target.
+ * <p/>
+ * Thread-safe.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:10 PM
+ */
+public class CopyStatistics implements ApplicationComponent {
+
+  @Nullable private static final com.sun.management.ThreadMXBean THREAD_BEAN = getThreadBean();
+
+  @NotNull private final Map<Metric, Histogram> myHistograms     = new EnumMap<Metric, Histogram>(Metric.class);
+  /** Number of copies per {@link Fidelity} ordinal. */
+  @NotNull private final AtomicLongArray        myFidelityCounts = new AtomicLongArray(Fidelity.values().length);
+
+  public CopyStatistics() {
+    for (Metric metric : Metric.values()) {
+      myHistograms.put(metric, new Histogram());
+    }
+  }
+
+  @NotNull
+  public static CopyStatistics getInstance() {
+    return ApplicationManager.getApplication().getComponent(CopyStatistics.class);
+  }
+
+  @Nullable
+  private static com.sun.management.ThreadMXBean getThreadBean() {
+    try {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean)bean;
+        if (result.isThreadAllocatedMemorySupported() && result.isThreadAllocatedMemoryEnabled()) {
+          return result;
+        }
+      }
+    }
+    catch (Throwable e) {
+      // Not a HotSpot-compatible VM.
+    }
+    return null;
+  }
+
+  /**
+   * @return    number of bytes allocated by the current thread so far if the VM supports that; negative value otherwise
+   */
+  public static long getThreadAllocatedBytes() {
+    return THREAD_BEAN == null ? -1 : THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public boolean isEnabled() {
+    return CopyOnSteroidSettings.getInstance().isCollectStatistics();
+  }
+
+  public void record(@NotNull Metric metric, long value) {
+    myHistograms.get(metric).record(value);
+  }
+
+  /**
+   * @param fidelity  fidelity a copy has been actually processed with
+   */
+  public void recordFidelity(@NotNull Fidelity fidelity) {
+    myFidelityCounts.incrementAndGet(fidelity.ordinal());
+  }
+
+  /**
+   * @return    recorder for a rendering of the data of the flavor with the given metrics if statistics is
+   *            {@link #isEnabled() enabled}; <code>null</code> otherwise
+   */
+  @Nullable
+  public RenderRecorder newRenderRecorder(@NotNull Metric timeMetric, @NotNull Metric outputMetric, @NotNull Metric allocationMetric) {
+    return isEnabled() ? new RenderRecorder(this, timeMetric, outputMetric, allocationMetric) : null;
+  }
+
+  public void reset() {
+    for (Histogram histogram : myHistograms.values()) {
+      histogram.reset();
+    }
+    for (int i = 0; i < myFidelityCounts.length(); i++) {
+      myFidelityCounts.set(i, 0);
+    }
+  }
+
+  /**
+   * @return    plain text table with the recorded values, is intended to be attached to the performance problem reports
+   */
+  @NotNull
+  public String getReport() {
+    StringBuilder buffer = new StringBuilder();
+    ApplicationInfo applicationInfo = ApplicationInfo.getInstance();
+    buffer.append(String.format("%s %s, Java %s (%s)%s%n", applicationInfo.getVersionName(), applicationInfo.getBuild(),
+                                System.getProperty("java.version"), System.getProperty("java.vm.name"),
+                                THREAD_BEAN == null ? ", allocation tracking is not supported" : ""));
+    buffer.append("Copies by fidelity:");
+    for (Fidelity fidelity : Fidelity.values()) {
+      buffer.append(' ').append(fidelity).append('=').append(myFidelityCounts.get(fidelity.ordinal()));
+    }
+    buffer.append(String.format("%n"));
+    String format = "%-24s %8s %10s %10s %10s %10s %10s%n";
+    buffer.append(String.format(format, "", "count", "mean", "p50", "p90", "p99", "max"));
+    for (Metric metric : Metric.values()) {
+      Histogram histogram = myHistograms.get(metric);
+      if (histogram.getCount() <= 0) {
+        continue;
+      }
+      Metric.Unit unit = metric.getUnit();
+      buffer.append(String.format(format, metric.getDescription(), histogram.getCount(),
+                                  formatValue(histogram.getMean(), unit),
+                                  formatValue(histogram.getPercentile(50), unit),
+                                  formatValue(histogram.getPercentile(90), unit),
+                                  formatValue(histogram.getPercentile(99), unit),
+                                  formatValue(histogram.getMax(), unit)));
+    }
+    return buffer.toString();
+  }
+
+  @NotNull
+  private static String formatValue(long value, @NotNull Metric.Unit unit) {
+    switch (unit) {
+      case NANOS:
+        return String.format("%.2fms", value / 1000000d);
+      case BYTES:
+        if (value < 1024) {
+          return value + "B";
+        }
+        if (value < 1024 * 1024) {
+          return String.format("%.1fKB", value / 1024d);
+        }
+        return String.format("%.1fMB", value / (1024d * 1024));
+      default:
+        return String.valueOf(value);
+    }
+  }
+
+  @Override
+  public void initComponent() {
+  }
+
+  @Override
+  public void disposeComponent() {
+  }
+
+  @NotNull
+  @Override
+  public String getComponentName() {
+    return getClass().getName();
+  }
+}
@@ -0,0 +1,260 @@
+package org.denis.stats;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.denis.model.Fidelity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Flight Recorder event of the copy pipeline, allows to correlate freezes at a flight recording with particular copies.
+ * <p/>
+ * The plugin is compiled against Java versions without flight recorder API, so, event types are defined at runtime via
+ * <code>jdk.jfr.EventFactory</code> (if it's available) and accessed through reflection. All event types share the same
+ * fields, the ones which are irrelevant for particular event are left with default values.
+ * <p/>
+ * Events are begun per copied region and per rendered chunk, so, {@link #begin(Type)} must be cheap when nothing is recorded.
+ * Enabled state of the event types is cached and re-checked {@link #ENABLED_CHECK_PERIOD_NANOS periodically}, events of
+ * the disabled types are not even created.
+ * <p/>
+ * {@link #begin(Type) Begun} event is expected to be used from a single thread.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:50 PM
+ */
+public class FlightRecorderEvent {
+
+  private static final Logger LOG = Logger.getInstance("#" + FlightRecorderEvent.class.getName());
+
+  public enum Type {
+    COLLECT("CopyCollect", "Copy Collect", "Syntax info construction for the copied text"),
+    MERGE("CopyMerge", "Copy Merge", "Merge of the lexer tokens and markup highlighters of a copied region"),
+    RENDER("FlavorRender", "Flavor Render", "Rendering of a chunk of the copied text for a paste target"),
+    CLIPBOARD_FETCH("ClipboardFetch", "Clipboard Fetch", "Wait for the syntax info and the plain text when a paste target reads the data");
+
+    @NotNull private final String myName;
+    @NotNull private final String myLabel;
+    @NotNull private final String myDescription;
+
+    Type(@NotNull String name, @NotNull String label, @NotNull String description) {
+      myName = name;
+      myLabel = label;
+      myDescription = description;
+    }
+  }
+
+  private static final int SELECTION_LENGTH = 0;
+  private static final int REGIONS          = 1;
+  private static final int HIGHLIGHTERS     = 2;
+  private static final int OUTPUT_INFOS     = 3;
+  private static final int OUTPUT_SIZE      = 4;
+  private static final int SCHEME           = 5;
+  private static final int FLAVOR           = 6;
+  private static final int FIDELITY         = 7;
+
+  /** Recordings might be started and stopped at any moment, so, enabled event types are re-checked with this period. */
+  private static final long ENABLED_CHECK_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** Event factories indexed by the {@link Type} ordinals, <code>null</code> if flight recorder is not available. */
+  @Nullable private static volatile Object[] ourFactories;
+
+  /** <code>jdk.jfr.EventType</code> instances indexed by the {@link Type} ordinals. */
+  private static Object[] ourEventTypes;
+
+  /** Bit mask of the {@link Type} ordinals which events are recorded. */
+  private static volatile int  ourEnabledTypes;
+  private static volatile long ourEnabledCheckTime;
+
+  private static Method ourNewEventMethod;
+  private static Method ourIsEnabledMethod;
+  private static Method ourBeginMethod;
+  private static Method ourEndMethod;
+  private static Method ourShouldCommitMethod;
+  private static Method ourCommitMethod;
+  private static Method ourSetMethod;
+
+  static {
+    try {
+      Object[] factories = createFactories();
+      ourFactories = factories;
+      refreshEnabledTypes(System.nanoTime());
+    }
+    catch (ClassNotFoundException e) {
+      // Flight recorder API is not available at the current VM.
+    }
+    catch (Throwable e) {
+      LOG.info("Can't define flight recorder events", e);
+    }
+  }
+
+  /** <code>jdk.jfr.Event</code> instance. */
+  @NotNull private final Object myEvent;
+
+  private FlightRecorderEvent(@NotNull Object event) {
+    myEvent = event;
+  }
+
+  @NotNull
+  private static Object[] createFactories() throws Exception {
+    Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+    Constructor<?> annotationElementConstructor = annotationElementClass.getConstructor(Class.class, Object.class);
+    Class<?> nameClass = Class.forName("jdk.jfr.Name");
+    Class<?> labelClass = Class.forName("jdk.jfr.Label");
+    Class<?> descriptionClass = Class.forName("jdk.jfr.Description");
+    Class<?> categoryClass = Class.forName("jdk.jfr.Category");
+    Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+    Constructor<?> valueDescriptorConstructor = valueDescriptorClass.getConstructor(Class.class, String.class);
+    Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+    Method createMethod = factoryClass.getMethod("create", List.class, List.class);
+    Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+    // Field order corresponds to the field index constants.
+    List<Object> fields = Arrays.asList(
+      valueDescriptorConstructor.newInstance(int.class, "selectionLength"),
+      valueDescriptorConstructor.newInstance(int.class, "regions"),
+      valueDescriptorConstructor.newInstance(int.class, "highlighters"),
+      valueDescriptorConstructor.newInstance(int.class, "outputInfos"),
+      valueDescriptorConstructor.newInstance(long.class, "outputSize"),
+      valueDescriptorConstructor.newInstance(String.class, "scheme"),
+      valueDescriptorConstructor.newInstance(String.class, "flavor"),
+      valueDescriptorConstructor.newInstance(String.class, "fidelity")
+    );
+    Type[] types = Type.values();
+    Object[] result = new Object[types.length];
+    ourEventTypes = new Object[types.length];
+    Method getEventTypeMethod = factoryClass.getMethod("getEventType");
+    for (Type type : types) {
+      List<Object> annotations = new ArrayList<Object>();
+      annotations.add(annotationElementConstructor.newInstance(nameClass, "org.denis." + type.myName));
+      annotations.add(annotationElementConstructor.newInstance(labelClass, type.myLabel));
+      annotations.add(annotationElementConstructor.newInstance(descriptionClass, type.myDescription));
+      annotations.add(annotationElementConstructor.newInstance(categoryClass, new String[] { "Copy on Steroids" }));
+      result[type.ordinal()] = createMethod.invoke(null, annotations, fields);
+      ourEventTypes[type.ordinal()] = getEventTypeMethod.invoke(result[type.ordinal()]);
+    }
+
+    ourNewEventMethod = factoryClass.getMethod("newEvent");
+    ourIsEnabledMethod = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+    ourBeginMethod = eventClass.getMethod("begin");
+    ourEndMethod = eventClass.getMethod("end");
+    ourShouldCommitMethod = eventClass.getMethod("shouldCommit");
+    ourCommitMethod = eventClass.getMethod("commit");
+    ourSetMethod = eventClass.getMethod("set", int.class, Object.class);
+    return result;
+  }
+
+  /**
+   * Starts timing of a new event.
+   *
+   * @param type  target event type
+   * @return      started event if flight recorder is available and records events of the given type;
+   *              <code>null</code> otherwise
+   */
+  @Nullable
+  public static FlightRecorderEvent begin(@NotNull Type type) {
+    Object[] factories = ourFactories;
+    if (factories == null) {
+      return null;
+    }
+    long now = System.nanoTime();
+    if (now - ourEnabledCheckTime > ENABLED_CHECK_PERIOD_NANOS) {
+      refreshEnabledTypes(now);
+    }
+    if ((ourEnabledTypes & (1 << type.ordinal())) == 0) {
+      return null;
+    }
+    Object event = invoke(ourNewEventMethod, factories[type.ordinal()]);
+    if (event == null) {
+      return null;
+    }
+    invoke(ourBeginMethod, event);
+    return new FlightRecorderEvent(event);
+  }
+
+  /**
+   * Updates enabled state of the event types. Concurrent updates are harmless, all of them get the same state.
+   *
+   * @param now  current {@link System#nanoTime() time}
+   */
+  private static void refreshEnabledTypes(long now) {
+    int enabledTypes = 0;
+    for (int i = 0; i < ourEventTypes.length; i++) {
+      if (Boolean.TRUE.equals(invoke(ourIsEnabledMethod, ourEventTypes[i]))) {
+        enabledTypes |= 1 << i;
+      }
+    }
+    ourEnabledTypes = enabledTypes;
+    ourEnabledCheckTime = now;
+  }
+
+  public void setSelectionLength(int selectionLength) {
+    invoke(ourSetMethod, myEvent, SELECTION_LENGTH, selectionLength);
+  }
+
+  /**
+   * @param regions  number of the copied regions, i.e. number of carets or block selection rows
+   */
+  public void setRegions(int regions) {
+    invoke(ourSetMethod, myEvent, REGIONS, regions);
+  }
+
+  /**
+   * @param highlighters  number of the markup highlighters applied to the copied text
+   */
+  public void setHighlighters(int highlighters) {
+    invoke(ourSetMethod, myEvent, HIGHLIGHTERS, highlighters);
+  }
+
+  public void setOutputInfos(int outputInfos) {
+    invoke(ourSetMethod, myEvent, OUTPUT_INFOS, outputInfos);
+  }
+
+  /**
+   * @param outputSize  number of bytes (or symbols for the character flavors) produced for a paste target
+   */
+  public void setOutputSize(long outputSize) {
+    invoke(ourSetMethod, myEvent, OUTPUT_SIZE, outputSize);
+  }
+
+  public void setScheme(@Nullable String scheme) {
+    invoke(ourSetMethod, myEvent, SCHEME, scheme);
+  }
+
+  public void setFlavor(@Nullable String flavor) {
+    invoke(ourSetMethod, myEvent, FLAVOR, flavor);
+  }
+
+  public void setFidelity(@NotNull Fidelity fidelity) {
+    invoke(ourSetMethod, myEvent, FIDELITY, fidelity.toString());
+  }
+
+  /**
+   * Ends timing of the current event and writes it to the flight recording if it matches recording settings (e.g. duration
+   * threshold).
+   */
+  public void commit() {
+    invoke(ourEndMethod, myEvent);
+    if (Boolean.TRUE.equals(invoke(ourShouldCommitMethod, myEvent))) {
+      invoke(ourCommitMethod, myEvent);
+    }
+  }
+
+  @Nullable
+  private static Object invoke(@NotNull Method method, @NotNull Object target, Object... args) {
+    try {
+      return method.invoke(target, args);
+    }
+    catch (Exception e) {
+      // Don't fail copy-paste because of the diagnostics.
+      ourFactories = null;
+      LOG.info("Flight recorder events are disabled", e);
+      return null;
+    }
+  }
+}
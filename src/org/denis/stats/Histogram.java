@@ -0,0 +1,117 @@
+package org.denis.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative <code>long</code> values which occupies fixed memory regardless of the number of recorded
+ * values.
+ * <p/>
+ * Values are counted at log-linear buckets: every power of two range is split into {@link #SUB_BUCKETS} equal buckets,
+ * i.e. reported percentiles are accurate within 25% of the value. Exact count, total and max are kept as well.
+ * <p/>
+ * Thread-safe, values are recorded from the background threads and read at the EDT.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:10 PM
+ */
+public class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 2;
+  private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+  /** Values below {@link #SUB_BUCKETS} have own buckets, every subsequent power of two has {@link #SUB_BUCKETS} buckets. */
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  @NotNull private final AtomicLongArray myCounts = new AtomicLongArray(BUCKETS);
+  @NotNull private final AtomicLong      myCount  = new AtomicLong();
+  @NotNull private final AtomicLong      myTotal  = new AtomicLong();
+  @NotNull private final AtomicLong      myMax    = new AtomicLong();
+
+  /**
+   * @param value  value to record, negative values are treated as zero
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    myCounts.incrementAndGet(bucket(value));
+    myCount.incrementAndGet();
+    myTotal.addAndGet(value);
+    for (long max = myMax.get(); value > max; max = myMax.get()) {
+      if (myMax.compareAndSet(max, value)) {
+        break;
+      }
+    }
+  }
+
+  public long getCount() {
+    return myCount.get();
+  }
+
+  public long getTotal() {
+    return myTotal.get();
+  }
+
+  public long getMax() {
+    return myMax.get();
+  }
+
+  public long getMean() {
+    long count = getCount();
+    return count <= 0 ? 0 : getTotal() / count;
+  }
+
+  /**
+   * @param percentile  target percentile in <code>(0; 100]</code> range
+   * @return            upper bound of the bucket which holds the given percentile, but not more than the max recorded value;
+   *                    zero if no value has been recorded
+   */
+  public long getPercentile(double percentile) {
+    long count = getCount();
+    if (count <= 0) {
+      return 0;
+    }
+    long threshold = Math.max(1, (long)Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += myCounts.get(i);
+      if (seen >= threshold) {
+        return Math.min(i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Drops all recorded values. Values which are recorded concurrently might be partially kept.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      myCounts.set(i, 0);
+    }
+    myCount.set(0);
+    myTotal.set(0);
+    myMax.set(0);
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int)value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+}
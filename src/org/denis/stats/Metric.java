@@ -0,0 +1,55 @@
+package org.denis.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Values recorded per copy by the {@link CopyStatistics}.
+ * <p/>
+ * Syntax info phases of a region which is processed by chunks in parallel are summed over the chunks, so, they might exceed
+ * the {@link #COLLECT_TOTAL total} time. {@link #COLLECT_ALLOCATION Allocation} is summed over the processing threads as well.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:10 PM
+ */
+public enum Metric {
+
+  SELECTION_SIZE("Selection size", Unit.SYMBOLS),
+  INDENT_CALCULATION("Indent calculation", Unit.NANOS),
+  HIGHLIGHTER_SETUP("Highlighter setup", Unit.NANOS),
+  LEXER_WALK("Lexer walk", Unit.NANOS),
+  MARKUP_WALK("Markup walk", Unit.NANOS),
+  /** Time of merging lexer tokens with markup highlighters or of reading cached attribute runs. */
+  MERGE("Merge", Unit.NANOS),
+  CONTEXT_BUILD("Context build", Unit.NANOS),
+  COLLECT_TOTAL("Syntax info total", Unit.NANOS),
+  COLLECT_ALLOCATION("Syntax info allocation", Unit.BYTES),
+  OUTPUT_INFOS("Output infos", Unit.COUNT),
+  RTF_RENDER("RTF render", Unit.NANOS),
+  RTF_OUTPUT("RTF output", Unit.BYTES),
+  RTF_ALLOCATION("RTF render allocation", Unit.BYTES),
+  HTML_RENDER("HTML render", Unit.NANOS),
+  HTML_OUTPUT("HTML output", Unit.SYMBOLS),
+  HTML_ALLOCATION("HTML render allocation", Unit.BYTES);
+
+  public enum Unit {
+    NANOS, BYTES, SYMBOLS, COUNT
+  }
+
+  @NotNull private final String myDescription;
+  @NotNull private final Unit   myUnit;
+
+  Metric(@NotNull String description, @NotNull Unit unit) {
+    myDescription = description;
+    myUnit = unit;
+  }
+
+  @NotNull
+  public String getDescription() {
+    return myDescription;
+  }
+
+  @NotNull
+  public Unit getUnit() {
+    return myUnit;
+  }
+}
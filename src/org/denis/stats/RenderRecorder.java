@@ -0,0 +1,68 @@
+package org.denis.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Accumulates statistics of a single transferable data rendering which is performed chunk by chunk as a paste target reads
+ * the data, and records the totals when the whole output is produced.
+ * <p/>
+ * Not thread-safe, is expected to be used by the owning transferable data only.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:10 PM
+ */
+public class RenderRecorder {
+
+  @NotNull private final CopyStatistics myStatistics;
+  @NotNull private final Metric         myTimeMetric;
+  @NotNull private final Metric         myOutputMetric;
+  @NotNull private final Metric         myAllocationMetric;
+
+  private long myNanos;
+  private long myOutput;
+  private long myAllocatedBytes;
+  private long myChunkStartTime;
+  private long myChunkStartAllocatedBytes;
+
+  RenderRecorder(@NotNull CopyStatistics statistics,
+                 @NotNull Metric timeMetric,
+                 @NotNull Metric outputMetric,
+                 @NotNull Metric allocationMetric)
+  {
+    myStatistics = statistics;
+    myTimeMetric = timeMetric;
+    myOutputMetric = outputMetric;
+    myAllocationMetric = allocationMetric;
+  }
+
+  public void onChunkStart() {
+    myChunkStartAllocatedBytes = CopyStatistics.getThreadAllocatedBytes();
+    myChunkStartTime = System.nanoTime();
+  }
+
+  /**
+   * @param chunkSize  size of the chunk rendered since the last {@link #onChunkStart()}
+   */
+  public void onChunkEnd(int chunkSize) {
+    myNanos += System.nanoTime() - myChunkStartTime;
+    myOutput += chunkSize;
+    long allocatedBytes = CopyStatistics.getThreadAllocatedBytes();
+    if (myAllocatedBytes >= 0 && myChunkStartAllocatedBytes >= 0 && allocatedBytes >= 0) {
+      myAllocatedBytes += allocatedBytes - myChunkStartAllocatedBytes;
+    }
+    else {
+      myAllocatedBytes = -1;
+    }
+  }
+
+  /**
+   * Is expected to be called once when the whole output is rendered.
+   */
+  public void onFinish() {
+    myStatistics.record(myTimeMetric, myNanos);
+    myStatistics.record(myOutputMetric, myOutput);
+    if (myAllocatedBytes >= 0) {
+      myStatistics.record(myAllocationMetric, myAllocatedBytes);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package org.denis.view;
+
+import org.denis.model.*;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Renders {@link SyntaxInfo} chunk by chunk, that allows to provide output to the paste target as it reads it without holding
+ * the whole output in memory.
+ * <p/>
+ * Output is built from the prologue, {@link OutputInfo output infos} and epilogue. Text infos are split into pieces when they
+ * don't fit into a chunk. Not thread-safe.
+ *
+ * @param <B>  output buffer type
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 3:20 PM
+ */
+public abstract class AbstractIncrementalRenderer<B> implements OutputInfoVisitor {
+
+  /** Approximate number of symbols rendered per {@link #render(Object) chunk}. */
+  public static final int CHUNK_SIZE = 8 * 1024;
+
+  @NotNull private final OutputInfoCursor myCursor;
+
+  private B myBuffer;
+
+  private boolean myStarted;
+  private boolean myFinished;
+  private int     myTextOffset = -1;
+  private int     myTextEndOffset;
+
+  protected AbstractIncrementalRenderer(@NotNull SyntaxInfo syntaxInfo) {
+    myCursor = syntaxInfo.cursor();
+  }
+
+  /**
+   * Appends the next output chunk to the given buffer.
+   *
+   * @param buffer  target buffer
+   * @return        <code>true</code> if there might be more output; <code>false</code> if the whole output is rendered
+   */
+  public boolean render(@NotNull B buffer) {
+    if (myFinished) {
+      return false;
+    }
+    myBuffer = buffer;
+    try {
+      return doRender(buffer);
+    }
+    finally {
+      myBuffer = null;
+    }
+  }
+
+  private boolean doRender(@NotNull B buffer) {
+    if (!myStarted) {
+      myStarted = true;
+      prologue();
+    }
+    int limit = length(buffer) + CHUNK_SIZE;
+    while (length(buffer) < limit) {
+      if (myTextOffset >= 0) {
+        int end = Math.min(myTextEndOffset, myTextOffset + limit - length(buffer));
+        text(myTextOffset, end);
+        if (end < myTextEndOffset) {
+          myTextOffset = end;
+        }
+        else {
+          myTextOffset = -1;
+          textEnd();
+        }
+        continue;
+      }
+      if (!myCursor.advance()) {
+        epilogue();
+        myFinished = true;
+        return false;
+      }
+      if (myCursor.getOpcode() == OutputInfoStream.TEXT) {
+        myTextOffset = myCursor.getOperand();
+        myTextEndOffset = myCursor.getEndOffset();
+        textStart();
+      }
+      else {
+        myCursor.invite(this);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Renders the whole output at once.
+   *
+   * @param buffer  target buffer
+   */
+  public void renderAll(@NotNull B buffer) {
+    while (render(buffer)) {
+    }
+  }
+
+  /**
+   * @return    buffer to append output to, is available only during {@link #render(Object) rendering}
+   */
+  @NotNull
+  protected B getBuffer() {
+    assert myBuffer != null;
+    return myBuffer;
+  }
+
+  @Override
+  public void visit(@NotNull Text text) {
+    throw new UnsupportedOperationException("Text infos are expected to be rendered by chunks");
+  }
+
+  /**
+   * @param buffer  target buffer
+   * @return        current size of the given buffer
+   */
+  protected abstract int length(@NotNull B buffer);
+
+  protected abstract void prologue();
+
+  protected abstract void epilogue();
+
+  /**
+   * Is called before the first chunk of every text info.
+   */
+  protected void textStart() {
+  }
+
+  /**
+   * Renders given text range which is either a whole text info or its part.
+   *
+   * @param startOffset  start offset of the range to render (inclusive)
+   * @param endOffset    end offset of the range to render (exclusive)
+   */
+  protected abstract void text(int startOffset, int endOffset);
+
+  /**
+   * Is called after the last chunk of every text info.
+   */
+  protected void textEnd() {
+  }
+}
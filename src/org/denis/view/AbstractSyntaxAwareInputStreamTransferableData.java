@@ -1,36 +1,34 @@
 package org.denis.view;
 
 import com.intellij.codeInsight.editorActions.TextBlockTransferableData;
-import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.ide.CopyPasteManager;
-import com.intellij.util.StringBuilderSpinAllocator;
 import org.denis.model.SyntaxInfo;
-import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.stats.RenderRecorder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.awt.datatransfer.DataFlavor;
-import java.awt.datatransfer.Transferable;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Serializable;
+import java.util.concurrent.Future;
 
 /**
+ * Is not {@link java.io.Serializable serializable}: the content is rendered on demand from a background syntax info
+ * computation and from the clipboard plain text, neither of them outlives the current IDE session. The flavor is exposed
+ * via the stream representation class, so, paste targets don't serialize the object.
+ *
  * @author Denis Zhdanov
  * @since 3/28/13 1:20 PM
  */
 public abstract class AbstractSyntaxAwareInputStreamTransferableData extends InputStream
-  implements TextBlockTransferableData, Serializable
+  implements TextBlockTransferableData
 {
 
-  private static final Logger LOG = Logger.getInstance("#" + AbstractSyntaxAwareInputStreamTransferableData.class.getName());
+  @NotNull private final Future<SyntaxInfo> mySyntaxInfo;
 
-  @NotNull private final SyntaxInfo mySyntaxInfo;
+  @Nullable private ChunkedOutput<ByteArraySink> myOutput;
 
-  @Nullable private transient InputStream myDelegate;
+  private int myPosition;
 
-  public AbstractSyntaxAwareInputStreamTransferableData(@NotNull SyntaxInfo syntaxInfo) {
+  public AbstractSyntaxAwareInputStreamTransferableData(@NotNull Future<SyntaxInfo> syntaxInfo) {
     mySyntaxInfo = syntaxInfo;
   }
 
@@ -51,48 +49,89 @@ public abstract class AbstractSyntaxAwareInputStreamTransferableData extends Inp
 
   @Override
   public int read() throws IOException {
-    return getDelegate().read();
+    ByteArraySink buffer = getBuffer();
+    return buffer == null ? -1 : buffer.getInternalBuffer()[myPosition++] & 0xFF;
   }
 
   @Override
   public int read(@NotNull byte[] b, int off, int len) throws IOException {
-    return getDelegate().read(b, off, len);
+    if (len <= 0) {
+      return 0;
+    }
+    ByteArraySink buffer = getBuffer();
+    if (buffer == null) {
+      return -1;
+    }
+    int result = Math.min(len, buffer.size() - myPosition);
+    System.arraycopy(buffer.getInternalBuffer(), myPosition, b, off, result);
+    myPosition += result;
+    return result;
   }
 
   @Override
   public void close() throws IOException {
-    myDelegate = null;
+    myOutput = null;
+  }
+
+  /**
+   * @return    buffer with the current output chunk which has unread bytes (starting from {@link #myPosition}) if any;
+   *            <code>null</code> if the whole output has been read
+   */
+  @Nullable
+  private ByteArraySink getBuffer() throws IOException {
+    if (myOutput == null) {
+      ChunkedOutput<ByteArraySink> output = new MyOutput();
+      output.init(mySyntaxInfo);
+      myOutput = output;
+      myPosition = 0;
+    }
+    ByteArraySink buffer = myOutput.getBuffer();
+    while (myPosition >= buffer.size()) {
+      if (!myOutput.renderNextChunk()) {
+        return null;
+      }
+      myPosition = 0;
+    }
+    return buffer;
   }
 
   @NotNull
-  private InputStream getDelegate() {
-    if (myDelegate != null) {
-      return myDelegate;
+  protected abstract AbstractIncrementalRenderer<ByteArraySink> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText);
+
+  /**
+   * @return    recorder of the rendering statistics if it's {@link org.denis.stats.CopyStatistics#isEnabled() collected};
+   *            <code>null</code> otherwise
+   */
+  @Nullable
+  protected abstract RenderRecorder createRenderRecorder();
+
+  private class MyOutput extends ChunkedOutput<ByteArraySink> {
+
+    MyOutput() {
+      super(getFlavor().getMimeType());
     }
-    Transferable contents = CopyPasteManager.getInstance().getContents();
-    final String rawText;
-    assert contents != null;
-    try {
-      rawText = (String)contents.getTransferData(DataFlavor.stringFlavor);
+
+    @NotNull
+    @Override
+    protected ByteArraySink createBuffer(int capacity) {
+      return new ByteArraySink(capacity);
     }
-    catch (Exception e) {
-      throw new RuntimeException(e);
+
+    @Override
+    protected void clear(@NotNull ByteArraySink buffer) {
+      buffer.reset();
     }
 
-    final StringBuilder buffer = StringBuilderSpinAllocator.alloc();
-    try {
-      build(mySyntaxInfo, rawText, buffer);
-      String s = buffer.toString();
-      if (CopyOnSteroidSettings.getInstance().isDebugProcessing()) {
-        LOG.info("Resulting text: \n'" + s + "'");
-      }
-      myDelegate = new ByteArrayInputStream(s.getBytes());
-      return myDelegate;
+    @NotNull
+    @Override
+    protected AbstractIncrementalRenderer<ByteArraySink> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+      return AbstractSyntaxAwareInputStreamTransferableData.this.createRenderer(syntaxInfo, rawText);
     }
-    finally {
-      StringBuilderSpinAllocator.dispose(buffer);
+
+    @Nullable
+    @Override
+    protected RenderRecorder createRenderRecorder() {
+      return AbstractSyntaxAwareInputStreamTransferableData.this.createRenderRecorder();
     }
   }
-  
-  protected abstract void build(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText, @NotNull StringBuilder holder);
 }
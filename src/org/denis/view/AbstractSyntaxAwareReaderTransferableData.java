@@ -1,33 +1,33 @@
 package org.denis.view;
 
 import com.intellij.codeInsight.editorActions.TextBlockTransferableData;
-import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.ide.CopyPasteManager;
-import com.intellij.util.StringBuilderSpinAllocator;
 import org.denis.model.SyntaxInfo;
-import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.stats.RenderRecorder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.awt.datatransfer.DataFlavor;
-import java.awt.datatransfer.Transferable;
 import java.io.*;
+import java.util.concurrent.Future;
 
 /**
+ * Is not {@link java.io.Serializable serializable}: the content is rendered on demand from a background syntax info
+ * computation and from the clipboard plain text, neither of them outlives the current IDE session. The flavor is exposed
+ * via the stream representation class, so, paste targets don't serialize the object.
+ *
  * @author Denis Zhdanov
  * @since 3/28/13 7:09 PM
  */
 public abstract class AbstractSyntaxAwareReaderTransferableData extends Reader
-  implements TextBlockTransferableData, Serializable
+  implements TextBlockTransferableData
 {
 
-  private static final Logger LOG = Logger.getInstance("#" + AbstractSyntaxAwareReaderTransferableData.class.getName());
+  @NotNull private final Future<SyntaxInfo> mySyntaxInfo;
 
-  @NotNull private final SyntaxInfo mySyntaxInfo;
+  @Nullable private ChunkedOutput<StringBuilder> myOutput;
 
-  @Nullable private transient Reader myDelegate;
+  private int myPosition;
 
-  public AbstractSyntaxAwareReaderTransferableData(@NotNull SyntaxInfo syntaxInfo) {
+  public AbstractSyntaxAwareReaderTransferableData(@NotNull Future<SyntaxInfo> syntaxInfo) {
     mySyntaxInfo = syntaxInfo;
   }
 
@@ -48,48 +48,89 @@ public abstract class AbstractSyntaxAwareReaderTransferableData extends Reader
 
   @Override
   public int read() throws IOException {
-    return getDelegate().read();
+    StringBuilder buffer = getBuffer();
+    return buffer == null ? -1 : buffer.charAt(myPosition++);
   }
 
   @Override
   public int read(char[] cbuf, int off, int len) throws IOException {
-    return getDelegate().read(cbuf, off, len);
+    if (len <= 0) {
+      return 0;
+    }
+    StringBuilder buffer = getBuffer();
+    if (buffer == null) {
+      return -1;
+    }
+    int result = Math.min(len, buffer.length() - myPosition);
+    buffer.getChars(myPosition, myPosition + result, cbuf, off);
+    myPosition += result;
+    return result;
   }
 
   @Override
   public void close() throws IOException {
-    myDelegate = null;
+    myOutput = null;
+  }
+
+  /**
+   * @return    buffer with the current output chunk which has unread symbols (starting from {@link #myPosition}) if any;
+   *            <code>null</code> if the whole output has been read
+   */
+  @Nullable
+  private StringBuilder getBuffer() throws IOException {
+    if (myOutput == null) {
+      ChunkedOutput<StringBuilder> output = new MyOutput();
+      output.init(mySyntaxInfo);
+      myOutput = output;
+      myPosition = 0;
+    }
+    StringBuilder buffer = myOutput.getBuffer();
+    while (myPosition >= buffer.length()) {
+      if (!myOutput.renderNextChunk()) {
+        return null;
+      }
+      myPosition = 0;
+    }
+    return buffer;
   }
 
   @NotNull
-  private Reader getDelegate() {
-    if (myDelegate != null) {
-      return myDelegate;
+  protected abstract AbstractIncrementalRenderer<StringBuilder> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText);
+
+  /**
+   * @return    recorder of the rendering statistics if it's {@link org.denis.stats.CopyStatistics#isEnabled() collected};
+   *            <code>null</code> otherwise
+   */
+  @Nullable
+  protected abstract RenderRecorder createRenderRecorder();
+
+  private class MyOutput extends ChunkedOutput<StringBuilder> {
+
+    MyOutput() {
+      super(getFlavor().getMimeType());
     }
-    Transferable contents = CopyPasteManager.getInstance().getContents();
-    final String rawText;
-    assert contents != null;
-    try {
-      rawText = (String)contents.getTransferData(DataFlavor.stringFlavor);
+
+    @NotNull
+    @Override
+    protected StringBuilder createBuffer(int capacity) {
+      return new StringBuilder(capacity);
     }
-    catch (Exception e) {
-      throw new RuntimeException(e);
+
+    @Override
+    protected void clear(@NotNull StringBuilder buffer) {
+      buffer.setLength(0);
     }
 
-    final StringBuilder buffer = StringBuilderSpinAllocator.alloc();
-    try {
-      build(mySyntaxInfo, rawText, buffer);
-      String s = buffer.toString();
-      if (CopyOnSteroidSettings.getInstance().isDebugProcessing()) {
-        LOG.info("Resulting text: \n'" + s + "'");
-      }
-      myDelegate = new StringReader(s);
-      return myDelegate;
+    @NotNull
+    @Override
+    protected AbstractIncrementalRenderer<StringBuilder> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+      return AbstractSyntaxAwareReaderTransferableData.this.createRenderer(syntaxInfo, rawText);
     }
-    finally {
-      StringBuilderSpinAllocator.dispose(buffer);
+
+    @Nullable
+    @Override
+    protected RenderRecorder createRenderRecorder() {
+      return AbstractSyntaxAwareReaderTransferableData.this.createRenderRecorder();
     }
   }
-
-  protected abstract void build(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText, @NotNull StringBuilder holder);
 }
@@ -0,0 +1,121 @@
+package org.denis.view;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Growable <code>byte</code> array which allows to write ascii output without intermediate strings. Not thread-safe.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 6:10 PM
+ */
+public class ByteArraySink {
+
+  /** Max number of symbols in a decimal <code>int</code> representation, sign included. */
+  private static final int MAX_INT_LENGTH = 11;
+
+  @NotNull private byte[] myData;
+
+  private int mySize;
+
+  public ByteArraySink() {
+    this(64);
+  }
+
+  public ByteArraySink(int capacity) {
+    myData = new byte[Math.max(1, capacity)];
+  }
+
+  public void write(byte b) {
+    ensureCapacity(1);
+    myData[mySize++] = b;
+  }
+
+  public void write(@NotNull byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, myData, mySize, bytes.length);
+    mySize += bytes.length;
+  }
+
+  /**
+   * Writes decimal representation of the given number.
+   *
+   * @param value  number to write
+   */
+  public void writeInt(int value) {
+    ensureCapacity(MAX_INT_LENGTH);
+    if (value == Integer.MIN_VALUE) {
+      // Can't be negated.
+      write(ascii(String.valueOf(value)));
+      return;
+    }
+    if (value < 0) {
+      myData[mySize++] = '-';
+      value = -value;
+    }
+    int end = mySize + digitsNumber(value);
+    for (int i = end - 1; i >= mySize; i--) {
+      myData[i] = (byte)('0' + value % 10);
+      value /= 10;
+    }
+    mySize = end;
+  }
+
+  private static int digitsNumber(int value) {
+    int result = 1;
+    for (int limit = 10; result < 10 && value >= limit; limit *= 10) {
+      result++;
+    }
+    return result;
+  }
+
+  public int size() {
+    return mySize;
+  }
+
+  public void reset() {
+    mySize = 0;
+  }
+
+  /**
+   * @return    backing array, its first {@link #size()} bytes hold the data written so far
+   */
+  @NotNull
+  public byte[] getInternalBuffer() {
+    return myData;
+  }
+
+  @NotNull
+  public byte[] toByteArray() {
+    return Arrays.copyOf(myData, mySize);
+  }
+
+  private void ensureCapacity(int toAdd) {
+    if (mySize + toAdd > myData.length) {
+      myData = Arrays.copyOf(myData, Math.max(myData.length * 2, mySize + toAdd));
+    }
+  }
+
+  /**
+   * @param s  ascii string
+   * @return   bytes of the given string
+   */
+  @NotNull
+  public static byte[] ascii(@NotNull String s) {
+    byte[] result = new byte[s.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte)s.charAt(i);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(mySize);
+    for (int i = 0; i < mySize; i++) {
+      result.append((char)(myData[i] & 0xFF));
+    }
+    return result.toString();
+  }
+}
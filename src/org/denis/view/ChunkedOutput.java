@@ -0,0 +1,130 @@
+package org.denis.view;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.denis.model.SyntaxInfo;
+import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.stats.FlightRecorderEvent;
+import org.denis.stats.RenderRecorder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * Output of the syntax aware transferables which is rendered chunk by chunk as the paste target reads it. Covers everything
+ * which doesn't depend on the buffer type: renderer set up, the chunk loop, flight recorder events, rendering statistics
+ * and debug logging.
+ * <p/>
+ * Not thread-safe.
+ *
+ * @param <B>  buffer type
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:40 PM
+ */
+abstract class ChunkedOutput<B> {
+
+  private static final Logger LOG = Logger.getInstance("#" + ChunkedOutput.class.getName());
+
+  @NotNull private final String myFlavor;
+
+  @Nullable private AbstractIncrementalRenderer<B> myRenderer;
+  @Nullable private B                              myBuffer;
+  @Nullable private RenderRecorder                 myRecorder;
+
+  private int     myOutputInfoCount;
+  private boolean myHasMore;
+
+  /**
+   * @param flavor  mime type of the output, is used for the flight recorder events
+   */
+  ChunkedOutput(@NotNull String flavor) {
+    myFlavor = flavor;
+  }
+
+  /**
+   * Waits for the given syntax info and sets up its renderer.
+   *
+   * @param syntaxInfo  syntax info computation
+   * @throws IOException  if the syntax info is not available
+   */
+  public void init(@NotNull Future<SyntaxInfo> syntaxInfo) throws IOException {
+    FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.CLIPBOARD_FETCH);
+    SyntaxInfo info = TransferableDataUtil.getSyntaxInfo(syntaxInfo);
+    String rawText = TransferableDataUtil.getRawText();
+    myOutputInfoCount = info.getOutputInfoCount();
+    if (event != null) {
+      event.setSelectionLength(rawText.length());
+      event.setOutputInfos(myOutputInfoCount);
+      event.setFlavor(myFlavor);
+      event.commit();
+    }
+    myRecorder = createRenderRecorder();
+    if (myRecorder != null) {
+      // Renderer set up (e.g. building of a document header or a stylesheet) is a part of the rendering.
+      myRecorder.onChunkStart();
+    }
+    myRenderer = createRenderer(info, rawText);
+    if (myRecorder != null) {
+      myRecorder.onChunkEnd(0);
+    }
+    myBuffer = createBuffer(AbstractIncrementalRenderer.CHUNK_SIZE * 2);
+    myHasMore = true;
+  }
+
+  /**
+   * @return    buffer which holds the current output chunk
+   */
+  @NotNull
+  public B getBuffer() {
+    assert myBuffer != null;
+    return myBuffer;
+  }
+
+  /**
+   * Replaces current output chunk at the {@link #getBuffer() buffer} by the next one.
+   *
+   * @return    <code>true</code> if the next chunk is rendered; <code>false</code> if the whole output has been rendered already
+   */
+  public boolean renderNextChunk() {
+    assert myRenderer != null;
+    assert myBuffer != null;
+    if (!myHasMore) {
+      return false;
+    }
+    clear(myBuffer);
+    FlightRecorderEvent event = FlightRecorderEvent.begin(FlightRecorderEvent.Type.RENDER);
+    if (myRecorder != null) {
+      myRecorder.onChunkStart();
+    }
+    myHasMore = myRenderer.render(myBuffer);
+    int length = myRenderer.length(myBuffer);
+    if (event != null) {
+      event.setOutputInfos(myOutputInfoCount);
+      event.setOutputSize(length);
+      event.setFlavor(myFlavor);
+      event.commit();
+    }
+    if (myRecorder != null) {
+      myRecorder.onChunkEnd(length);
+      if (!myHasMore) {
+        myRecorder.onFinish();
+      }
+    }
+    if (CopyOnSteroidSettings.getInstance().isDebugProcessing()) {
+      LOG.info("Resulting text chunk: \n'" + myBuffer + "'");
+    }
+    return true;
+  }
+
+  @NotNull
+  protected abstract B createBuffer(int capacity);
+
+  protected abstract void clear(@NotNull B buffer);
+
+  @NotNull
+  protected abstract AbstractIncrementalRenderer<B> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText);
+
+  @Nullable
+  protected abstract RenderRecorder createRenderRecorder();
+}
@@ -1,36 +1,34 @@
 package org.denis.view;
 
-import com.intellij.util.StringBuilderSpinAllocator;
+import com.intellij.openapi.util.Key;
 import org.denis.model.*;
+import org.denis.settings.CopyOnSteroidSettings;
+import org.denis.stats.CopyStatistics;
+import org.denis.stats.Metric;
+import org.denis.stats.RenderRecorder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * @author Denis Zhdanov
  * @since 3/28/13 1:06 PM
  */
-public class HtmlTransferableData extends AbstractSyntaxAwareReaderTransferableData implements OutputInfoVisitor {
+public class HtmlTransferableData extends AbstractSyntaxAwareReaderTransferableData {
 
-  @NotNull private static final DataFlavor FLAVOR = new DataFlavor("text/html;class=java.io.Reader", "HTML text");
-
-  private static final long serialVersionUID = 1L;
+  /** <code>'#rrggbb'</code> representations of the palette colors indexed by their registry ids. */
+  @NotNull private static final Key<String[]> COLORS_KEY = Key.create("copy.on.steroids.html.colors");
 
-  private StringBuilder    myResultBuffer;
-  private String           myRawText;
-  private ColorRegistry    myColorRegistry;
-  private FontNameRegistry myFontNameRegistry;
-
-  private int     myForeground;
-  private int     myBackground;
-  private int     myFontFamily;
-  private int     myFontSize;
-  private boolean myBold;
-  private boolean myItalic;
-  private boolean myIgnoreFontSize;
+  @NotNull private static final DataFlavor FLAVOR = new DataFlavor("text/html;class=java.io.Reader", "HTML text");
 
-  public HtmlTransferableData(@NotNull SyntaxInfo syntaxInfo) {
+  public HtmlTransferableData(@NotNull Future<SyntaxInfo> syntaxInfo) {
     super(syntaxInfo);
   }
 
@@ -39,161 +37,305 @@ public class HtmlTransferableData extends AbstractSyntaxAwareReaderTransferableD
     return FLAVOR;
   }
 
+  @Nullable
   @Override
-  protected void build(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText, @NotNull StringBuilder holder) {
-    myResultBuffer = holder;
-    myRawText = rawText;
-    myColorRegistry = syntaxInfo.getColorRegistry();
-    myFontNameRegistry = syntaxInfo.getFontNameRegistry();
-    try {
-      myResultBuffer.append("<div style=\"border:1px inset;padding:2%;\">")
-              .append("<pre style=\"margin:0;padding:6px;background-color:")
-//              .append("<pre style='height:30%;overflow:auto;margin:0;padding:6px;background-color:")
-              .append(color(syntaxInfo.getDefaultBackground())).append(';');
-      if (myFontNameRegistry.size() == 1) {
-        appendFontFamilyRule(myFontNameRegistry.getAllIds()[0]);
-        myFontNameRegistry = null;
-      }
-      int fontSize = syntaxInfo.getSingleFontSize();
-      if (fontSize > 0) {
-        appendFontSizeRule(fontSize);
-        myIgnoreFontSize = true;
-      }
-      myResultBuffer.append("\" bgcolor=\"").append(color(syntaxInfo.getDefaultBackground())).append("\">");
-      
-      for (OutputInfo info : syntaxInfo.getOutputInfos()) {
-        info.invite(this);
-      }
-      myResultBuffer.append("</pre></div>");
-    }
-    finally {
-      myResultBuffer = null;
-      myRawText = null;
-      myColorRegistry = null;
-      myFontNameRegistry = null;
-      myIgnoreFontSize = false;
-    }
+  protected RenderRecorder createRenderRecorder() {
+    return CopyStatistics.getInstance().newRenderRecorder(Metric.HTML_RENDER, Metric.HTML_OUTPUT, Metric.HTML_ALLOCATION);
   }
 
-  private void defineForeground(int id, @NotNull StringBuilder styleBuffer, @NotNull StringBuilder closeTagBuffer) {
-    myResultBuffer.append("<font color=\"").append(color(id)).append("\">");
-    styleBuffer.append("color:").append(color(id)).append(";");
-    closeTagBuffer.insert(0, "</font>");
+  @NotNull
+  @Override
+  protected AbstractIncrementalRenderer<StringBuilder> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+    return createRenderer(syntaxInfo, rawText, CopyOnSteroidSettings.getInstance().getHtmlProfile());
   }
 
-  private void defineBackground(int id, @NotNull StringBuilder styleBuffer, @NotNull StringBuilder closeTagBuffer) {
-    myResultBuffer.append("<font bgcolor=\"").append(color(id)).append("\">");
-    styleBuffer.append("background-color:").append(color(id)).append(";");
-    closeTagBuffer.insert(0, "</font>");
+  @NotNull
+  private static AbstractIncrementalRenderer<StringBuilder> createRenderer(@NotNull SyntaxInfo syntaxInfo,
+                                                                           @NotNull String rawText,
+                                                                           @NotNull CopyOnSteroidSettings.HtmlProfile profile)
+  {
+    switch (profile) {
+      case INLINE: return new InlineRenderer(syntaxInfo, rawText);
+      default: return new CompactRenderer(syntaxInfo, rawText);
+    }
   }
 
-  private void defineBold(@NotNull StringBuilder styleBuffer, @NotNull StringBuilder closeTagBuffer) {
-    myResultBuffer.append("<b>");
-    styleBuffer.append("font-weight:bold;");
-    closeTagBuffer.insert(0, "</b>");
+  /**
+   * Renders given syntax info at once.
+   *
+   * @param syntaxInfo  syntax info to render
+   * @param rawText     plain text referenced by the given syntax info
+   * @param profile     markup to use
+   * @param buffer      target buffer
+   */
+  public static void build(@NotNull SyntaxInfo syntaxInfo,
+                           @NotNull String rawText,
+                           @NotNull CopyOnSteroidSettings.HtmlProfile profile,
+                           @NotNull StringBuilder buffer)
+  {
+    createRenderer(syntaxInfo, rawText, profile).renderAll(buffer);
   }
 
-  private void defineItalic(@NotNull StringBuilder styleBuffer, @NotNull StringBuilder closeTagBuffer) {
-    myResultBuffer.append("<i>");
-    styleBuffer.append("font-style:italic;");
-    closeTagBuffer.insert(0, "</i>");
-  }
-  
-  @NotNull
-  private String color(int id) {
-    Color color = myColorRegistry.dataById(id);
-    return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
-  }
+  /**
+   * Renders the container and text which are common for all HTML profiles. Formatted text infos are wrapped into the markup
+   * which is precomputed by the subclasses for every style.
+   */
+  private abstract static class AbstractHtmlRenderer extends AbstractIncrementalRenderer<StringBuilder> {
 
-  private void appendFontFamilyRule(int fontFamilyId) {
-    myResultBuffer.append("font-family:'").append(myFontNameRegistry.dataById(fontFamilyId)).append("';"); 
-  }
+    /** <code>'#rrggbb'</code> representations of the colors indexed by their registry ids. */
+    @NotNull protected final String[] myColors;
 
-  private void appendFontSizeRule(int fontSize) {
-    myResultBuffer.append("font-size:").append(fontSize).append(';');
-  }
+    /** Styles indexed by their registry ids. */
+    @NotNull protected final TextStyle[] myStyles;
 
-  @Override
-  public void visit(@NotNull Text text) {
-    boolean formattedText = myForeground > 0 || myBackground > 0 || myFontFamily > 0 || myFontSize > 0 || myBold || myItalic;
-    if (!formattedText) {
-      escapeAndAdd(text.getStartOffset(), text.getEndOffset());
-      return;
+    /** Markup to put before and after the text of every style, <code>null</code> for the styles without formatting. */
+    @NotNull protected final String[] myOpenMarkup;
+    @NotNull protected final String[] myCloseMarkup;
+
+    @NotNull private final FontNameRegistry myFontNameRegistry;
+    @NotNull private final SyntaxInfo       mySyntaxInfo;
+    @NotNull private final String           myRawText;
+
+    /** Font family and size are defined for the whole container if all text uses the same one. */
+    private final int     mySingleFontFamilyName;
+    private final boolean myIgnoreFontFamily;
+    private final boolean myIgnoreFontSize;
+
+    private int myStyleId;
+
+    AbstractHtmlRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+      super(syntaxInfo);
+      mySyntaxInfo = syntaxInfo;
+      myRawText = rawText;
+      myFontNameRegistry = syntaxInfo.getFontNameRegistry();
+      myColors = getColors(syntaxInfo.getPalette());
+      myStyles = syntaxInfo.getStyleRegistry().toArray();
+      myOpenMarkup = new String[myStyles.length];
+      myCloseMarkup = new String[myStyles.length];
+      mySingleFontFamilyName = syntaxInfo.getSingleFontFamilyName();
+      myIgnoreFontFamily = mySingleFontFamilyName > 0;
+      myIgnoreFontSize = syntaxInfo.getSingleFontSize() > 0;
     }
 
-    StringBuilder styleBuffer = StringBuilderSpinAllocator.alloc();
-    StringBuilder closeTagBuffer = StringBuilderSpinAllocator.alloc();
-    try {
-      if (myForeground > 0) {
-        defineForeground(myForeground, styleBuffer, closeTagBuffer);
+    @NotNull
+    private static String[] getColors(@NotNull Palette palette) {
+      String[] result = palette.getUserData(COLORS_KEY);
+      if (result == null) {
+        result = buildColors(palette.getColorRegistry());
+        palette.putUserData(COLORS_KEY, result);
       }
-      if (myBackground > 0) {
-        defineBackground(myBackground, styleBuffer, closeTagBuffer);
+      return result;
+    }
+
+    @NotNull
+    private static String[] buildColors(@NotNull ColorRegistry registry) {
+      String[] result = new String[registry.size() + 1];
+      for (int id = 1; id < result.length; id++) {
+        Color color = registry.dataById(id);
+        result[id] = String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
       }
-      if (myBold) {
-        defineBold(styleBuffer, closeTagBuffer);
+      return result;
+    }
+
+    @Override
+    protected int length(@NotNull StringBuilder buffer) {
+      return buffer.length();
+    }
+
+    @Override
+    protected void prologue() {
+      StringBuilder buffer = getBuffer();
+      buffer.append("<div style=\"border:1px inset;padding:2%;\">")
+        .append("<pre style=\"margin:0;padding:6px;background-color:")
+        .append(myColors[mySyntaxInfo.getDefaultBackground()]).append(';');
+      if (myIgnoreFontFamily) {
+        appendFontFamilyRule(mySingleFontFamilyName, buffer);
       }
-      if (myItalic) {
-        defineItalic(styleBuffer, closeTagBuffer);
+      if (myIgnoreFontSize) {
+        appendFontSizeRule(mySyntaxInfo.getSingleFontSize(), buffer);
+      }
+      buffer.append("\" bgcolor=\"").append(myColors[mySyntaxInfo.getDefaultBackground()]).append("\">");
+    }
+
+    @Override
+    protected void epilogue() {
+      getBuffer().append("</pre></div>");
+    }
+
+    @Override
+    protected void textStart() {
+      if (myStyleId > 0 && myOpenMarkup[myStyleId] != null) {
+        getBuffer().append(myOpenMarkup[myStyleId]);
       }
-      if (myFontFamily > 0) {
-        appendFontFamilyRule(myFontFamily);
+    }
+
+    @Override
+    protected void text(int startOffset, int endOffset) {
+      StringBuilder buffer = getBuffer();
+      int unescapedStart = startOffset;
+      for (int i = startOffset; i < endOffset; i++) {
+        final String escaped;
+        switch (myRawText.charAt(i)) {
+          case '<': escaped = "&lt;"; break;
+          case '>': escaped = "&gt;"; break;
+          case '&': escaped = "&amp;"; break;
+          default: continue;
+        }
+        buffer.append(myRawText, unescapedStart, i).append(escaped);
+        unescapedStart = i + 1;
       }
-      if (myFontSize > 0) {
-        appendFontSizeRule(myFontSize);
+      buffer.append(myRawText, unescapedStart, endOffset);
+    }
+
+    @Override
+    protected void textEnd() {
+      if (myStyleId > 0 && myCloseMarkup[myStyleId] != null) {
+        getBuffer().append(myCloseMarkup[myStyleId]);
       }
-      myResultBuffer.append("<span style=\"");
-      myResultBuffer.append(styleBuffer);
-      myResultBuffer.append("\">");
-      escapeAndAdd(text.getStartOffset(), text.getEndOffset());
-      myResultBuffer.append("</span>");
-      myResultBuffer.append(closeTagBuffer);
     }
-    finally {
-      StringBuilderSpinAllocator.dispose(styleBuffer);
-      StringBuilderSpinAllocator.dispose(closeTagBuffer);
+
+    protected boolean isFormatted(@NotNull TextStyle style) {
+      return style.getForeground() > 0
+             || style.getBackground() > 0
+             || (!myIgnoreFontFamily && style.getFontFamilyName() > 0)
+             || (!myIgnoreFontSize && style.getFontSize() > 0)
+             || style.isBold()
+             || style.isItalic();
     }
-  }
 
-  private void escapeAndAdd(int start, int end) {
-    for (int i = start; i < end; i++) {
-      char c = myRawText.charAt(i);
-      switch (c) {
-        case '<': myResultBuffer.append("&lt;"); break;
-        case '>': myResultBuffer.append("&gt;"); break;
-        case '&': myResultBuffer.append("&amp;"); break;
-        default: myResultBuffer.append(c);
+    /**
+     * Appends CSS rules of the given style, font family and size are omitted if they are defined for the whole container.
+     *
+     * @param style   target style
+     * @param buffer  target buffer
+     */
+    protected void appendStyleRules(@NotNull TextStyle style, @NotNull StringBuilder buffer) {
+      if (style.getForeground() > 0) {
+        buffer.append("color:").append(myColors[style.getForeground()]).append(';');
+      }
+      if (style.getBackground() > 0) {
+        buffer.append("background-color:").append(myColors[style.getBackground()]).append(';');
+      }
+      if (style.isBold()) {
+        buffer.append("font-weight:bold;");
+      }
+      if (style.isItalic()) {
+        buffer.append("font-style:italic;");
+      }
+      if (!myIgnoreFontFamily && style.getFontFamilyName() > 0) {
+        appendFontFamilyRule(style.getFontFamilyName(), buffer);
+      }
+      if (!myIgnoreFontSize && style.getFontSize() > 0) {
+        appendFontSizeRule(style.getFontSize(), buffer);
       }
     }
-  }
 
-  @Override
-  public void visit(@NotNull Foreground color) {
-    myForeground = color.getId();
-  }
+    private void appendFontFamilyRule(int fontFamilyId, @NotNull StringBuilder buffer) {
+      buffer.append("font-family:'").append(myFontNameRegistry.dataById(fontFamilyId)).append("';");
+    }
 
-  @Override
-  public void visit(@NotNull Background color) {
-    myBackground = color.getId(); 
-  }
+    private static void appendFontSizeRule(int fontSize, @NotNull StringBuilder buffer) {
+      buffer.append("font-size:").append(fontSize).append(';');
+    }
 
-  @Override
-  public void visit(@NotNull FontFamilyName name) {
-    if (myFontNameRegistry != null) {
-      myFontFamily = name.getId();
+    @Override
+    public void visit(@NotNull StyleChange change) {
+      myStyleId = change.getId();
     }
   }
 
-  @Override
-  public void visit(@NotNull FontStyle style) {
-    myBold = (Font.BOLD & style.getStyle()) != 0;
-    myItalic = (Font.ITALIC & style.getStyle()) != 0;
+  /**
+   * Legacy markup - every formatted text info is wrapped into presentational tags and a span with inline style, that works
+   * for the targets which ignore stylesheets.
+   */
+  private static class InlineRenderer extends AbstractHtmlRenderer {
+
+    InlineRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+      super(syntaxInfo, rawText);
+      StringBuilder openMarkup = new StringBuilder();
+      StringBuilder closeMarkup = new StringBuilder();
+      for (int id = 1; id < myStyles.length; id++) {
+        TextStyle style = myStyles[id];
+        if (style == null || !isFormatted(style)) {
+          continue;
+        }
+        openMarkup.setLength(0);
+        closeMarkup.setLength(0);
+        closeMarkup.append("</span>");
+        // Tags are closed in reverse order.
+        if (style.getForeground() > 0) {
+          openMarkup.append("<font color=\"").append(myColors[style.getForeground()]).append("\">");
+        }
+        if (style.getBackground() > 0) {
+          openMarkup.append("<font bgcolor=\"").append(myColors[style.getBackground()]).append("\">");
+        }
+        if (style.isBold()) {
+          openMarkup.append("<b>");
+        }
+        if (style.isItalic()) {
+          openMarkup.append("<i>");
+          closeMarkup.append("</i>");
+        }
+        if (style.isBold()) {
+          closeMarkup.append("</b>");
+        }
+        if (style.getBackground() > 0) {
+          closeMarkup.append("</font>");
+        }
+        if (style.getForeground() > 0) {
+          closeMarkup.append("</font>");
+        }
+        openMarkup.append("<span style=\"");
+        appendStyleRules(style, openMarkup);
+        openMarkup.append("\">");
+        myOpenMarkup[id] = openMarkup.toString();
+        myCloseMarkup[id] = closeMarkup.toString();
+      }
+    }
   }
 
-  @Override
-  public void visit(@NotNull FontSize size) {
-    if (!myIgnoreFontSize) {
-      myFontSize = size.getSize();
+  /**
+   * Every distinct formatting used by the text infos gets a CSS class defined at a single stylesheet, formatted text infos
+   * are wrapped into spans which refer to the classes.
+   */
+  private static class CompactRenderer extends AbstractHtmlRenderer {
+
+    /** CSS rules of the classes indexed by class number. */
+    @NotNull private final List<String> myClassRules = new ArrayList<String>();
+
+    CompactRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+      super(syntaxInfo, rawText);
+      // Styles which differ only by the attributes defined for the whole container share the same class.
+      Map<String, Integer> classes = new HashMap<String, Integer>();
+      StringBuilder rules = new StringBuilder();
+      for (int id = 1; id < myStyles.length; id++) {
+        TextStyle style = myStyles[id];
+        if (style == null || !isFormatted(style)) {
+          continue;
+        }
+        rules.setLength(0);
+        appendStyleRules(style, rules);
+        String rulesText = rules.toString();
+        Integer classNumber = classes.get(rulesText);
+        if (classNumber == null) {
+          classNumber = myClassRules.size();
+          classes.put(rulesText, classNumber);
+          myClassRules.add(rulesText);
+        }
+        myOpenMarkup[id] = "<span class=\"s" + classNumber + "\">";
+        myCloseMarkup[id] = "</span>";
+      }
+    }
+
+    @Override
+    protected void prologue() {
+      StringBuilder buffer = getBuffer();
+      buffer.append("<style type=\"text/css\">");
+      for (int i = 0; i < myClassRules.size(); i++) {
+        buffer.append(".s").append(i).append('{').append(myClassRules.get(i)).append('}');
+      }
+      buffer.append("</style>");
+      super.prologue();
     }
   }
 }
@@ -1,26 +1,63 @@
 package org.denis.view;
 
+import com.intellij.openapi.util.Key;
 import org.denis.model.*;
+import org.denis.stats.CopyStatistics;
+import org.denis.stats.Metric;
+import org.denis.stats.RenderRecorder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
+import java.util.concurrent.Future;
 
 public class RtfTransferableData extends AbstractSyntaxAwareInputStreamTransferableData {
 
-  private static final long serialVersionUID = 1L;
-
   @NotNull private static final DataFlavor FLAVOR = new DataFlavor("text/rtf;class=java.io.InputStream", "RTF text");
 
-  @NotNull private static final String HEADER_PREFIX = "{\\rtf1\\ansi\\deff0";
-  @NotNull private static final String HEADER_SUFFIX = "}";
-  @NotNull private static final String TAB           = "\\tab\n";
-  @NotNull private static final String NEW_LINE      = "\\line\n";
-  @NotNull private static final String BOLD          = "\\b";
-  @NotNull private static final String ITALIC        = "\\i";
-  @NotNull private static final String PLAIN         = "\\plain\n";
+  @NotNull private static final byte[] HEADER_PREFIX = ByteArraySink.ascii("{\\rtf1\\ansi\\deff0");
+  @NotNull private static final byte[] HEADER_SUFFIX = ByteArraySink.ascii("}");
+  @NotNull private static final byte[] TAB           = ByteArraySink.ascii("\\tab\n");
+  @NotNull private static final byte[] NEW_LINE      = ByteArraySink.ascii("\\line\n");
+  @NotNull private static final byte[] BOLD          = ByteArraySink.ascii("\\b");
+  @NotNull private static final byte[] BOLD_OFF      = ByteArraySink.ascii("\\b0");
+  @NotNull private static final byte[] ITALIC        = ByteArraySink.ascii("\\i");
+  @NotNull private static final byte[] ITALIC_OFF    = ByteArraySink.ascii("\\i0");
+  @NotNull private static final byte[] PARAGRAPH     = ByteArraySink.ascii("\\par");
+  @NotNull private static final byte[] FOREGROUND    = ByteArraySink.ascii("\\cf");
+  @NotNull private static final byte[] BACKGROUND    = ByteArraySink.ascii("\\cb");
+  @NotNull private static final byte[] FONT          = ByteArraySink.ascii("\\f");
+  @NotNull private static final byte[] FONT_SIZE     = ByteArraySink.ascii("\\fs");
+  @NotNull private static final byte[] UNICODE       = ByteArraySink.ascii("\\u");
+  @NotNull private static final byte[] COLOR_TABLE   = ByteArraySink.ascii("{\\colortbl;");
+  @NotNull private static final byte[] RED           = ByteArraySink.ascii("\\red");
+  @NotNull private static final byte[] GREEN         = ByteArraySink.ascii("\\green");
+  @NotNull private static final byte[] BLUE          = ByteArraySink.ascii("\\blue");
+  @NotNull private static final byte[] FONT_TABLE    = ByteArraySink.ascii("{\\fonttbl");
+  @NotNull private static final byte[] FONT_ENTRY    = ByteArraySink.ascii("{\\f");
+  @NotNull private static final byte[] ENTRY_END     = ByteArraySink.ascii(";}");
+  @NotNull private static final byte[] TABLE_END     = ByteArraySink.ascii("}\n");
+  @NotNull private static final byte[] BOX           = ByteArraySink.ascii("\n\\s0\\box\\brdrhair\\brdrcf");
+  @NotNull private static final byte[] BOX_SPACING   = ByteArraySink.ascii("\\brsp317\\cbpat");
+
+  /** Prologue depends only on the palette, so, it's built once per palette. */
+  @NotNull private static final Key<byte[]> PROLOGUE_KEY = Key.create("copy.on.steroids.rtf.prologue");
+
+  /** Replacement of the unpaired surrogates, <code>U+FFFD</code> as a signed 16-bit value. */
+  private static final int REPLACEMENT_CHARACTER = (short)0xFFFD;
 
-  public RtfTransferableData(@NotNull SyntaxInfo syntaxInfo) {
+  /** Escape sequences of the ascii symbols, <code>null</code> means that a symbol is written as-is. */
+  @NotNull private static final byte[][] ESCAPES = new byte[128][];
+  static {
+    ESCAPES['\t'] = TAB;
+    ESCAPES['\n'] = NEW_LINE;
+    ESCAPES['\\'] = ByteArraySink.ascii("\\\\");
+    ESCAPES['{'] = ByteArraySink.ascii("\\{");
+    ESCAPES['}'] = ByteArraySink.ascii("\\}");
+  }
+
+  public RtfTransferableData(@NotNull Future<SyntaxInfo> syntaxInfo) {
     super(syntaxInfo);
   }
 
@@ -29,170 +66,233 @@ public class RtfTransferableData extends AbstractSyntaxAwareInputStreamTransfera
     return FLAVOR;
   }
 
+  @Nullable
   @Override
-  protected void build(@NotNull final SyntaxInfo syntaxInfo, @NotNull final String rawText, @NotNull final StringBuilder holder) {
-    header(syntaxInfo, holder, new Runnable() {
-      @Override
-      public void run() {
-        rectangularBackground(syntaxInfo, holder, new Runnable() {
-          @Override
-          public void run() {
-            content(syntaxInfo, holder, rawText);
-          }
-        });
-      }
-    });
+  protected RenderRecorder createRenderRecorder() {
+    return CopyStatistics.getInstance().newRenderRecorder(Metric.RTF_RENDER, Metric.RTF_OUTPUT, Metric.RTF_ALLOCATION);
+  }
+
+  @NotNull
+  @Override
+  protected AbstractIncrementalRenderer<ByteArraySink> createRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+    return new MyRenderer(syntaxInfo, rawText);
+  }
+
+  /**
+   * Renders given syntax info at once.
+   *
+   * @param syntaxInfo  syntax info to render
+   * @param rawText     plain text referenced by the given syntax info
+   * @param buffer      target buffer
+   */
+  public static void build(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText, @NotNull ByteArraySink buffer) {
+    new MyRenderer(syntaxInfo, rawText).renderAll(buffer);
   }
 
-  private static void header(@NotNull SyntaxInfo syntaxInfo, @NotNull StringBuilder buffer, @NotNull Runnable next) {
-    buffer.append(HEADER_PREFIX);
+  private static void header(@NotNull SyntaxInfo syntaxInfo, @NotNull ByteArraySink buffer) {
+    buffer.write(HEADER_PREFIX);
 
     // Color table.
-    buffer.append("{\\colortbl;");
+    buffer.write(COLOR_TABLE);
     ColorRegistry colorRegistry = syntaxInfo.getColorRegistry();
-    for (int id : colorRegistry.getAllIds()) {
+    for (int id = 1, size = colorRegistry.size(); id <= size; id++) {
       Color color = colorRegistry.dataById(id);
-      buffer.append(String.format("\\red%d\\green%d\\blue%d;", color.getRed(), color.getGreen(), color.getBlue()));
+      buffer.write(RED);
+      buffer.writeInt(color.getRed());
+      buffer.write(GREEN);
+      buffer.writeInt(color.getGreen());
+      buffer.write(BLUE);
+      buffer.writeInt(color.getBlue());
+      buffer.write((byte)';');
     }
-    buffer.append("}\n");
+    buffer.write(TABLE_END);
     
     // Font table.
-    buffer.append("{\\fonttbl");
+    buffer.write(FONT_TABLE);
     FontNameRegistry fontNameRegistry = syntaxInfo.getFontNameRegistry();
-    for (int id : fontNameRegistry.getAllIds()) {
+    for (int id = 1, size = fontNameRegistry.size(); id <= size; id++) {
       String fontName = fontNameRegistry.dataById(id);
-      buffer.append(String.format("{\\f%d %s;}", id, fontName));
+      buffer.write(FONT_ENTRY);
+      buffer.writeInt(id);
+      buffer.write((byte)' ');
+      escape(fontName, 0, fontName.length(), buffer);
+      buffer.write(ENTRY_END);
     }
-    buffer.append("}\n");
-
-    next.run();
-    buffer.append(HEADER_SUFFIX);
+    buffer.write(TABLE_END);
   }
 
-  private static void rectangularBackground(@NotNull SyntaxInfo syntaxInfo, @NotNull StringBuilder buffer, @NotNull Runnable next) {
-    buffer.append("\n\\s0\\box\\brdrhair\\brdrcf").append(syntaxInfo.getDefaultForeground()).append("\\brsp317").append("\\cbpat")
-      .append(syntaxInfo.getDefaultBackground());
+  private static void rectangularBackground(@NotNull SyntaxInfo syntaxInfo, @NotNull ByteArraySink buffer) {
+    buffer.write(BOX);
+    buffer.writeInt(syntaxInfo.getDefaultForeground());
+    buffer.write(BOX_SPACING);
+    buffer.writeInt(syntaxInfo.getDefaultBackground());
     saveBackground(buffer, syntaxInfo.getDefaultBackground());
-    next.run();
-    buffer.append("\\par");
-  }
-
-  private static void content(@NotNull SyntaxInfo syntaxInfo, @NotNull StringBuilder buffer, @NotNull String rawText) {
-    MyVisitor visitor = new MyVisitor(buffer, rawText);
-    for (OutputInfo info : syntaxInfo.getOutputInfos()) {
-      info.invite(visitor);
-    }
   }
 
-  private static void saveBackground(@NotNull StringBuilder buffer, int id) {
-    buffer.append("\\cb").append(id);
+  private static void saveBackground(@NotNull ByteArraySink buffer, int id) {
+    buffer.write(BACKGROUND);
+    buffer.writeInt(id);
   }
 
-  private static void saveForeground(@NotNull StringBuilder buffer, int id) {
-    buffer.append("\\cf").append(id);
+  private static void saveForeground(@NotNull ByteArraySink buffer, int id) {
+    buffer.write(FOREGROUND);
+    buffer.writeInt(id);
   }
 
-  private static void saveFontName(@NotNull StringBuilder buffer, int id) {
-    buffer.append("\\f").append(id);
+  private static void saveFontName(@NotNull ByteArraySink buffer, int id) {
+    buffer.write(FONT);
+    buffer.writeInt(id);
   }
 
-  private static void saveFontSize(@NotNull StringBuilder buffer, int size) {
-    buffer.append("\\fs").append(size * 2);
+  private static void saveFontSize(@NotNull ByteArraySink buffer, int size) {
+    buffer.write(FONT_SIZE);
+    buffer.writeInt(size * 2);
   }
 
-  private static class MyVisitor implements OutputInfoVisitor {
-
-    @NotNull private final StringBuilder myBuffer;
-    @NotNull private final String        myRawText;
-
-    private int myBackgroundId = -1;
-    private int myForegroundId = -1;
-    private int myFontNameId   = -1;
-    private int myFontStyle    = -1;
-    private int myFontSize     = -1;
-
-    MyVisitor(@NotNull StringBuilder buffer, @NotNull String rawText) {
-      myBuffer = buffer;
-      myRawText = rawText;
-    }
-
-    @Override
-    public void visit(@NotNull Text text) {
-      myBuffer.append("\n");
-      for (int i = text.getStartOffset(), limit = text.getEndOffset(); i < limit; i++) {
-        char c = myRawText.charAt(i);
-        if (c > 127) {
-          // Escape non-ascii symbols.
-          myBuffer.append(String.format("\\u%04d?", (int)c));
-          continue;
+  /**
+   * Writes given text range escaping RTF special symbols. Non-ascii symbols are written as <code>&#92;uN?</code> where
+   * <code>N</code> is a signed 16-bit value of a UTF-16 code unit, i.e. supplementary code points are written as surrogate
+   * pairs. Unpaired surrogates are replaced by <code>U+FFFD</code>.
+   *
+   * @param text    text which range should be written
+   * @param start   start offset of the range to write (inclusive)
+   * @param end     end offset of the range to write (exclusive)
+   * @param buffer  target buffer
+   */
+  private static void escape(@NotNull String text, int start, int end, @NotNull ByteArraySink buffer) {
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c < 128) {
+        byte[] escape = ESCAPES[c];
+        if (escape == null) {
+          buffer.write((byte)c);
         }
+        else {
+          buffer.write(escape);
+        }
+        continue;
+      }
 
-        switch (c) {
-          case '\t':
-            myBuffer.append(TAB);
-            continue;
-          case '\n':
-            myBuffer.append(NEW_LINE);
-            continue;
-          case '\\':
-          case '{':
-          case '}':
-            myBuffer.append('\\');
+      int value = (short)c;
+      // Surrogate pair might be split between the ranges, hence, its symbols are checked against the whole text.
+      if (Character.isHighSurrogate(c)) {
+        if (i + 1 >= text.length() || !Character.isLowSurrogate(text.charAt(i + 1))) {
+          value = REPLACEMENT_CHARACTER;
+        }
+      }
+      else if (Character.isLowSurrogate(c)) {
+        if (i <= 0 || !Character.isHighSurrogate(text.charAt(i - 1))) {
+          value = REPLACEMENT_CHARACTER;
         }
-        myBuffer.append(c);
       }
+      buffer.write(UNICODE);
+      buffer.writeInt(value);
+      buffer.write((byte)'?');
     }
+  }
 
-    @Override
-    public void visit(@NotNull Foreground color) {
-      saveForeground(myBuffer, color.getId());
-      myForegroundId = color.getId();
+  /**
+   * Style change infos only update the target style, it's compared to the character state already set at the output before
+   * every text info and only changed properties are written.
+   */
+  private static class MyRenderer extends AbstractIncrementalRenderer<ByteArraySink> {
+
+    @NotNull private final SyntaxInfo  mySyntaxInfo;
+    @NotNull private final String      myRawText;
+    @NotNull private final TextStyle[] myStyles;
+
+    @Nullable private TextStyle myStyle;
+
+    private int myWrittenBackgroundId;
+    private int myWrittenForegroundId;
+    private int myWrittenFontNameId;
+    private int myWrittenFontStyle = Font.PLAIN;
+    private int myWrittenFontSize;
+
+    MyRenderer(@NotNull SyntaxInfo syntaxInfo, @NotNull String rawText) {
+      super(syntaxInfo);
+      mySyntaxInfo = syntaxInfo;
+      myRawText = rawText;
+      myStyles = syntaxInfo.getStyleRegistry().toArray();
+      myWrittenBackgroundId = syntaxInfo.getDefaultBackground();
+      myWrittenForegroundId = syntaxInfo.getDefaultForeground();
     }
 
     @Override
-    public void visit(@NotNull Background color) {
-      saveBackground(myBuffer, color.getId());
-      myBackgroundId = color.getId();
+    protected int length(@NotNull ByteArraySink buffer) {
+      return buffer.size();
     }
 
     @Override
-    public void visit(@NotNull FontFamilyName name) {
-      saveFontName(myBuffer, name.getId());
-      myFontNameId = name.getId();
+    protected void prologue() {
+      Palette palette = mySyntaxInfo.getPalette();
+      byte[] prologue = palette.getUserData(PROLOGUE_KEY);
+      if (prologue == null) {
+        ByteArraySink buffer = new ByteArraySink();
+        header(mySyntaxInfo, buffer);
+        rectangularBackground(mySyntaxInfo, buffer);
+        saveForeground(buffer, mySyntaxInfo.getDefaultForeground());
+        buffer.write((byte)'\n');
+        prologue = buffer.toByteArray();
+        palette.putUserData(PROLOGUE_KEY, prologue);
+      }
+      getBuffer().write(prologue);
     }
 
     @Override
-    public void visit(@NotNull FontSize size) {
-      saveFontSize(myBuffer, size.getSize());
-      myFontSize = size.getSize();
+    protected void epilogue() {
+      getBuffer().write(PARAGRAPH);
+      getBuffer().write(HEADER_SUFFIX);
     }
 
     @Override
-    public void visit(@NotNull FontStyle style) {
-      // Reset formatting settings
-      myBuffer.append(PLAIN);
-
-      // Restore target formatting settings.
-      if (myForegroundId >= 0) {
-        saveForeground(myBuffer, myForegroundId);
+    protected void textStart() {
+      TextStyle style = myStyle;
+      if (style == null) {
+        return;
       }
-      if (myBackgroundId >= 0) {
-        saveBackground(myBuffer, myBackgroundId);
+      ByteArraySink buffer = getBuffer();
+      int sizeBefore = buffer.size();
+      int foregroundId = style.getForeground() > 0 ? style.getForeground() : mySyntaxInfo.getDefaultForeground();
+      if (foregroundId != myWrittenForegroundId) {
+        saveForeground(buffer, foregroundId);
+        myWrittenForegroundId = foregroundId;
       }
-      if (myFontNameId >= 0) {
-        saveFontName(myBuffer, myFontNameId);
+      int backgroundId = style.getBackground() > 0 ? style.getBackground() : mySyntaxInfo.getDefaultBackground();
+      if (backgroundId != myWrittenBackgroundId) {
+        saveBackground(buffer, backgroundId);
+        myWrittenBackgroundId = backgroundId;
       }
-      if (myFontSize > 0) {
-        saveFontSize(myBuffer, myFontSize);
+      if (style.getFontFamilyName() > 0 && style.getFontFamilyName() != myWrittenFontNameId) {
+        saveFontName(buffer, style.getFontFamilyName());
+        myWrittenFontNameId = style.getFontFamilyName();
       }
-
-      myFontStyle = style.getStyle();
-      if ((myFontStyle & Font.ITALIC) > 0) {
-        myBuffer.append(ITALIC);
+      if (style.getFontSize() > 0 && style.getFontSize() != myWrittenFontSize) {
+        saveFontSize(buffer, style.getFontSize());
+        myWrittenFontSize = style.getFontSize();
       }
-      if ((myFontStyle & Font.BOLD) > 0) {
-        myBuffer.append(BOLD);
+      int changedStyle = style.getFontStyle() ^ myWrittenFontStyle;
+      if ((changedStyle & Font.BOLD) != 0) {
+        buffer.write(style.isBold() ? BOLD : BOLD_OFF);
       }
+      if ((changedStyle & Font.ITALIC) != 0) {
+        buffer.write(style.isItalic() ? ITALIC : ITALIC_OFF);
+      }
+      myWrittenFontStyle = style.getFontStyle();
+      if (buffer.size() > sizeBefore) {
+        // Control word delimiter.
+        buffer.write((byte)' ');
+      }
+    }
+
+    @Override
+    protected void text(int startOffset, int endOffset) {
+      escape(myRawText, startOffset, endOffset, getBuffer());
+    }
+
+    @Override
+    public void visit(@NotNull StyleChange change) {
+      myStyle = myStyles[change.getId()];
     }
   }
 }
@@ -0,0 +1,76 @@
+package org.denis.view;
+
+import com.intellij.openapi.ide.CopyPasteManager;
+import org.denis.model.SyntaxInfo;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 4:10 PM
+ */
+class TransferableDataUtil {
+
+  /** Max time to wait for the syntax info computation when its data is requested by a paste target. */
+  private static final long SYNTAX_INFO_TIMEOUT_MS = 3000;
+
+  private TransferableDataUtil() {
+  }
+
+  /**
+   * Waits for the given syntax info computation. The computation is left intact if it's not finished in time, i.e. other
+   * flavors of the same copy can still get its result.
+   *
+   * @param future  syntax info computation
+   * @return        computed syntax info
+   * @throws IOException  if the computation is cancelled, failed or is not finished in time - paste target falls back to
+   *                      other data flavors then
+   */
+  @NotNull
+  static SyntaxInfo getSyntaxInfo(@NotNull Future<SyntaxInfo> future) throws IOException {
+    try {
+      SyntaxInfo result = future.get(SYNTAX_INFO_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      if (result == null) {
+        throw new IOException("Syntax info is not available");
+      }
+      return result;
+    }
+    catch (TimeoutException e) {
+      // The computation is shared by all flavors of the copy and it's cancelled only when the copy is superseded.
+      throw new IOException("Syntax info is not computed in " + SYNTAX_INFO_TIMEOUT_MS + " ms");
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Can't compute syntax info: " + e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for syntax info");
+    }
+    catch (CancellationException e) {
+      throw new IOException("Syntax info computation is cancelled");
+    }
+  }
+
+  /**
+   * @return    plain text of the current clipboard contents which is referenced by the syntax info text ranges
+   */
+  @NotNull
+  static String getRawText() {
+    Transferable contents = CopyPasteManager.getInstance().getContents();
+    assert contents != null;
+    try {
+      return (String)contents.getTransferData(DataFlavor.stringFlavor);
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import junit.framework.TestCase;
+import org.denis.model.OutputInfoCursor;
+import org.denis.model.OutputInfoStream;
+import org.denis.model.SyntaxInfo;
+import org.denis.model.TextStyle;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 6:20 PM
+ */
+public class ChunkedSyntaxInfoConstructionTest extends TestCase {
+
+  private static final TextAttributes[] TOKEN_ATTRIBUTES = {
+    new TextAttributes(),
+    new TextAttributes(Color.BLUE, null, null, null, Font.BOLD),
+    new TextAttributes(new Color(0x660E7A), null, null, null, Font.ITALIC),
+    new TextAttributes(new Color(0x008000), Color.YELLOW, null, null, Font.PLAIN)
+  };
+
+  private static final TextAttributes MARKUP_ATTRIBUTES = new TextAttributes(null, Color.PINK, null, null, Font.PLAIN);
+
+  public void testChunksMatchSequentialProcessing() {
+    // Every other line ends by a highlighted background and all lines start by white spaces without background, i.e.
+    // a chunk which starts at line start must not inherit the style of the previous chunk's end.
+    StringBuilder text = new StringBuilder();
+    TestSegmentSources sources = new TestSegmentSources();
+    List<int[]> markup = new ArrayList<int[]>();
+    Random random = new Random(1);
+    for (int line = 0; text.length() < 300 * 1024; line++) {
+      int lineStart = text.length();
+      appendToken(text, sources, spaces(2 + random.nextInt(6)), TOKEN_ATTRIBUTES[0]);
+      int lastWordStart = text.length();
+      for (int i = 0, words = 1 + random.nextInt(5); i < words; i++) {
+        if (i > 0) {
+          appendToken(text, sources, " ", TOKEN_ATTRIBUTES[0]);
+        }
+        lastWordStart = text.length();
+        appendToken(text, sources, "word".substring(random.nextInt(4)), TOKEN_ATTRIBUTES[random.nextInt(TOKEN_ATTRIBUTES.length)]);
+      }
+      appendToken(text, sources, "\n", TOKEN_ATTRIBUTES[0]);
+      if (line % 2 == 0) {
+        markup.add(new int[] { line % 4 == 0 ? lineStart : lastWordStart, text.length() });
+      }
+    }
+    for (int[] range : markup) {
+      sources.addMarkup(range[0], range[1], HighlighterLayer.ADDITIONAL_SYNTAX, MARKUP_ATTRIBUTES);
+    }
+
+    for (int indentSymbolsToStrip = 0; indentSymbolsToStrip < 3; indentSymbolsToStrip++) {
+      CopyRequest request = new CopyRequest(text, "Default", "Monospaced", 12, Color.BLACK, Color.WHITE, new int[] { 0 },
+                                            new int[] { text.length() }, 0, -1, indentSymbolsToStrip);
+      SyntaxInfo sequential = AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(request, null, null, sources,
+                                                                                    new CollectTrace(false), null, null, 1);
+      final ExecutorService pool = Executors.newFixedThreadPool(3);
+      final AtomicInteger chunks = new AtomicInteger(1);
+      SyntaxInfo parallel;
+      try {
+        parallel = AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(request, null, null, sources, new CollectTrace(false), null,
+                                                                         new Executor() {
+                                                                           @Override
+                                                                           public void execute(@NotNull Runnable command) {
+                                                                             chunks.incrementAndGet();
+                                                                             pool.execute(command);
+                                                                           }
+                                                                         }, 4);
+      }
+      finally {
+        pool.shutdown();
+      }
+      assertEquals(4, chunks.get());
+      assertEquals(sequential.getSingleFontFamilyName() > 0, parallel.getSingleFontFamilyName() > 0);
+      assertEquals(sequential.getSingleFontSize(), parallel.getSingleFontSize());
+
+      List<String> expected = describe(sequential, text);
+      List<String> actual = describe(parallel, text);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals("symbol #" + i, expected.get(i), actual.get(i));
+      }
+    }
+  }
+
+  private static void appendToken(@NotNull StringBuilder text,
+                                  @NotNull TestSegmentSources sources,
+                                  @NotNull String token,
+                                  @NotNull TextAttributes attributes)
+  {
+    sources.addToken(text.length(), text.length() + token.length(), attributes);
+    text.append(token);
+  }
+
+  @NotNull
+  private static String spaces(int count) {
+    char[] result = new char[count];
+    Arrays.fill(result, ' ');
+    return new String(result);
+  }
+
+  /**
+   * Resolves effective formatting of every output symbol. Only background is significant for white spaces as they keep
+   * foreground and font of the preceding text.
+   */
+  @NotNull
+  private static List<String> describe(@NotNull SyntaxInfo info, @NotNull CharSequence text) {
+    List<String> result = new ArrayList<String>();
+    TextStyle style = null;
+    for (OutputInfoCursor cursor = info.cursor(); cursor.advance(); ) {
+      if (cursor.getOpcode() != OutputInfoStream.TEXT) {
+        style = info.getStyleRegistry().dataById(cursor.getOperand());
+        continue;
+      }
+      for (int i = cursor.getOperand(); i < cursor.getEndOffset(); i++) {
+        char c = text.charAt(i);
+        int background = style == null || style.getBackground() <= 0 ? info.getDefaultBackground() : style.getBackground();
+        StringBuilder buffer = new StringBuilder().append(c).append(" bg=").append(info.getColorRegistry().dataById(background));
+        if (c != ' ' && c != '\n') {
+          assertNotNull(style);
+          int foreground = style.getForeground() <= 0 ? info.getDefaultForeground() : style.getForeground();
+          buffer.append(" fg=").append(info.getColorRegistry().dataById(foreground))
+            .append(" font=").append(info.getFontNameRegistry().dataById(style.getFontFamilyName()))
+            .append(' ').append(style.getFontStyle()).append(' ').append(style.getFontSize());
+        }
+        result.add(buffer.toString());
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,97 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import junit.framework.TestCase;
+import org.denis.model.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 9:40 PM
+ */
+public class CopyFallbackTest extends TestCase {
+
+  private static final TextAttributes[] TOKEN_ATTRIBUTES = {
+    new TextAttributes(Color.BLUE, null, null, null, Font.BOLD),
+    new TextAttributes(new Color(0x008000), null, null, null, Font.PLAIN)
+  };
+
+  private static final TextAttributes MARKUP_ATTRIBUTES = new TextAttributes(null, Color.PINK, null, null, Font.PLAIN);
+
+  /** More segments than the budget's deadline check period. */
+  private static final int TOKENS_NUMBER = 1000;
+
+  private CopyRequest        myRequest;
+  private TestSegmentSources myFullSources;
+  private TestSegmentSources myLexerSources;
+  private Palette            myBasePalette;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    StringBuilder text = new StringBuilder();
+    myFullSources = new TestSegmentSources();
+    myLexerSources = new TestSegmentSources();
+    for (int i = 0; i < TOKENS_NUMBER; i++) {
+      int start = text.length();
+      text.append(i % 2 == 0 ? "ab" : " ");
+      myFullSources.addToken(start, text.length(), TOKEN_ATTRIBUTES[i % 2]);
+      myLexerSources.addToken(start, text.length(), TOKEN_ATTRIBUTES[i % 2]);
+    }
+    myFullSources.addMarkup(0, 5, HighlighterLayer.ADDITIONAL_SYNTAX, MARKUP_ATTRIBUTES);
+    myFullSources.addMarkup(10, 20, HighlighterLayer.ADDITIONAL_SYNTAX, MARKUP_ATTRIBUTES);
+    myRequest = new CopyRequest(text, "Default", "Monospaced", 12, Color.BLACK, Color.WHITE, new int[] { 0 },
+                                new int[] { text.length() }, 0, -1, 0);
+    // Palette of a previous copy which doesn't use markup colors.
+    myBasePalette = AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(myRequest, null, null, myLexerSources,
+                                                                          new CollectTrace(false), null, null, 1).getPalette();
+  }
+
+  public void testFullFidelityWithinBudget() {
+    AbstractCopyPasteSyntaxAwareProcessor.Attempt attempt = build(Fidelity.FULL, new CopyBudget(System.nanoTime(), 0, 0));
+    assertEquals(Fidelity.FULL, attempt.fidelity);
+    assertEquals(expected(myFullSources).getOutputInfos(), attempt.syntaxInfo.getOutputInfos());
+    // Markup colors extend the base palette.
+    assertNotSame(myBasePalette, attempt.syntaxInfo.getPalette());
+    assertTrue(attempt.syntaxInfo.getColorRegistry().size() > myBasePalette.getColorRegistry().size());
+  }
+
+  public void testHighlightersLimitFallsBackToLexerOnly() {
+    AbstractCopyPasteSyntaxAwareProcessor.Attempt attempt = build(Fidelity.FULL, new CopyBudget(System.nanoTime(), 0, 1));
+    assertEquals(Fidelity.LEXER_ONLY, attempt.fidelity);
+    assertEquals(expected(myLexerSources).getOutputInfos(), attempt.syntaxInfo.getOutputInfos());
+    // Markup color registered by the aborted attempt doesn't get to the result.
+    assertSame(myBasePalette, attempt.syntaxInfo.getPalette());
+  }
+
+  public void testDeadlineFallsBackToSingleStyle() {
+    // The highlighters limit is hit first, then the lexer walk runs out of time.
+    CopyBudget budget = new CopyBudget(System.nanoTime() - 10000000000L, 1, 1);
+    AbstractCopyPasteSyntaxAwareProcessor.Attempt attempt = build(Fidelity.FULL, budget);
+    assertEquals(Fidelity.SINGLE_STYLE, attempt.fidelity);
+    assertEquals(Arrays.asList(new StyleChange(1), new Text(0, myRequest.text.length())), attempt.syntaxInfo.getOutputInfos());
+    assertEquals(new TextStyle(0, 0, 1, Font.PLAIN, 12), attempt.syntaxInfo.getStyleRegistry().dataById(1));
+    assertSame(myBasePalette, attempt.syntaxInfo.getPalette());
+
+    budget = new CopyBudget(System.nanoTime() - 10000000000L, 1, 0);
+    attempt = build(Fidelity.LEXER_ONLY, budget);
+    assertEquals(Fidelity.SINGLE_STYLE, attempt.fidelity);
+    assertEquals(Arrays.asList(new StyleChange(1), new Text(0, myRequest.text.length())), attempt.syntaxInfo.getOutputInfos());
+  }
+
+  @NotNull
+  private AbstractCopyPasteSyntaxAwareProcessor.Attempt build(@NotNull Fidelity fidelity, @NotNull CopyBudget budget) {
+    return AbstractCopyPasteSyntaxAwareProcessor.buildWithFallback(myRequest, myBasePalette, null, myFullSources, myLexerSources,
+                                                                   fidelity, budget, false, false, false, null, 1);
+  }
+
+  @NotNull
+  private SyntaxInfo expected(@NotNull SegmentSources sources) {
+    return AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(myRequest, myBasePalette, null, sources, new CollectTrace(false),
+                                                                 null, null, 1);
+  }
+}
@@ -0,0 +1,123 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import junit.framework.TestCase;
+import org.denis.model.AbstractRegistry;
+import org.denis.model.Palette;
+import org.denis.model.SyntaxInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:10 PM
+ */
+public class CopyRecordingTest extends TestCase {
+
+  private static final String TEXT =
+    "package org;\n" +
+    "    int first = 1;\n" +
+    "      int second = 2;\n" +
+    "    }\n";
+
+  private static final TextAttributes PLAIN   = new TextAttributes();
+  private static final TextAttributes KEYWORD = new TextAttributes(new Color(0x000080), null, null, null, Font.BOLD);
+  private static final TextAttributes NUMBER  = new TextAttributes(Color.BLUE, null, null, null, Font.PLAIN);
+  private static final TextAttributes FIELD   = new TextAttributes(new Color(0x660E7A), null, null, null, Font.ITALIC);
+
+  private TestSegmentSources mySources;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mySources = new TestSegmentSources();
+    Matcher matcher = Pattern.compile("\\s+|\\w+|.").matcher(TEXT);
+    while (matcher.find()) {
+      String token = matcher.group();
+      TextAttributes attributes = PLAIN;
+      if (token.equals("package") || token.equals("int")) {
+        attributes = KEYWORD;
+      }
+      else if (Character.isDigit(token.charAt(0))) {
+        attributes = NUMBER;
+      }
+      else if (token.equals("first") || token.equals("second")) {
+        attributes = FIELD;
+      }
+      mySources.addToken(matcher.start(), matcher.end(), attributes);
+    }
+    int second = TEXT.indexOf("second");
+    mySources.addMarkup(second - 4, second + 6, HighlighterLayer.ADDITIONAL_SYNTAX,
+                        new TextAttributes(null, Color.YELLOW, null, null, Font.PLAIN));
+    mySources.addMarkup(second, second + 3, HighlighterLayer.ERROR, new TextAttributes(Color.RED, null, null, null, Font.PLAIN));
+  }
+
+  public void testRegularSelection() throws IOException {
+    int lineStart = TEXT.indexOf('\n') + 1;
+    CopyRequest request = new CopyRequest(TEXT, "Default", "Monospaced", 12, Color.BLACK, Color.WHITE,
+                                          new int[] { lineStart + 4 }, new int[] { TEXT.length() }, lineStart, -1, 4);
+    CopyRecording recording = doTest(request, null);
+    assertEquals(TEXT.substring(lineStart + 4), recording.getPlainText());
+  }
+
+  public void testBlockSelection() throws IOException {
+    int line1 = TEXT.indexOf('\n') + 1;
+    int line2 = TEXT.indexOf('\n', line1) + 1;
+    int line3 = TEXT.indexOf('\n', line2) + 1;
+    CopyRequest request = new CopyRequest(TEXT, "Default", "Monospaced", 12, Color.BLACK, Color.WHITE,
+                                          new int[] { line1 + 4, line2 + 4, line3 + 4 },
+                                          new int[] { line1 + 13, line2 + 13, line3 + 5 }, line1 + 4, 9, 0);
+    // Palette of a previous copy is recorded as well.
+    Palette palette = AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(request, null, null, mySources, new CollectTrace(false),
+                                                                            null, null, 1).getPalette();
+    doTest(request, palette);
+  }
+
+  /**
+   * Builds syntax info for the given request recording its sources, writes the recording to a file and checks that the
+   * recording read from the file is replayed to the same syntax info.
+   */
+  @NotNull
+  private CopyRecording doTest(@NotNull CopyRequest request, @Nullable Palette palette) throws IOException {
+    CopyRecorder recorder = new CopyRecorder(request, palette, mySources);
+    SyntaxInfo expected = AbstractCopyPasteSyntaxAwareProcessor.buildSyntaxInfo(request, palette, null, recorder,
+                                                                                new CollectTrace(false), null, null, 1);
+    File file = File.createTempFile("copy", "." + CopyRecording.EXTENSION);
+    CopyRecording recording;
+    try {
+      recorder.buildRecording().write(file);
+      recording = CopyRecording.read(file);
+    }
+    finally {
+      assertTrue(file.delete());
+    }
+    assertEquals("Default", recording.getSchemeName());
+    assertTrue(recording.getRangesCount() > 0);
+
+    SyntaxInfo actual = recording.replay();
+    assertEquals(expected.getOutputInfos(), actual.getOutputInfos());
+    assertEquals(Arrays.asList(expected.getStyleRegistry().toArray()), Arrays.asList(actual.getStyleRegistry().toArray()));
+    assertRegistry(expected.getColorRegistry(), actual.getColorRegistry());
+    assertRegistry(expected.getFontNameRegistry(), actual.getFontNameRegistry());
+    assertEquals(expected.getDefaultForeground(), actual.getDefaultForeground());
+    assertEquals(expected.getDefaultBackground(), actual.getDefaultBackground());
+    assertEquals(expected.getSingleFontFamilyName(), actual.getSingleFontFamilyName());
+    assertEquals(expected.getSingleFontSize(), actual.getSingleFontSize());
+    return recording;
+  }
+
+  private static <T> void assertRegistry(@NotNull AbstractRegistry<T> expected, @NotNull AbstractRegistry<T> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int id = 1; id <= expected.size(); id++) {
+      assertEquals(expected.dataById(id), actual.dataById(id));
+    }
+  }
+}
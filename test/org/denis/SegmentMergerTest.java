@@ -0,0 +1,81 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 9:10 PM
+ */
+public class SegmentMergerTest extends TestCase {
+
+  private static final String TEXT      = "0123456789abcdef";
+  private static final String FONT_NAME = "Monospaced";
+  private static final int    FONT_SIZE = 12;
+
+  public void testTopMostNonNullAttributeWins() {
+    TestSegmentSources sources = new TestSegmentSources()
+      .addToken(0, 10, new TextAttributes(Color.BLUE, null, null, null, Font.BOLD))
+      .addToken(10, 16, new TextAttributes())
+      .addMarkup(2, 8, HighlighterLayer.ADDITIONAL_SYNTAX, new TextAttributes(null, Color.YELLOW, null, null, Font.PLAIN))
+      .addMarkup(4, 12, HighlighterLayer.ERROR, new TextAttributes(Color.RED, null, null, null, Font.ITALIC))
+      .addMarkup(6, 8, HighlighterLayer.ADDITIONAL_SYNTAX, new TextAttributes(null, Color.GREEN, null, null, Font.PLAIN));
+
+    assertEquals(Arrays.asList(
+      segment(Color.BLUE, null, Font.BOLD, 0, 2),
+      // Lower layer provides attributes which are not defined by the upper one.
+      segment(Color.BLUE, Color.YELLOW, Font.BOLD, 2, 4),
+      segment(Color.RED, Color.YELLOW, Font.ITALIC, 4, 6),
+      // The most recently started range wins among the ranges of the same layer.
+      segment(Color.RED, Color.GREEN, Font.ITALIC, 6, 8),
+      segment(Color.RED, null, Font.ITALIC, 8, 10),
+      segment(Color.RED, null, Font.ITALIC, 10, 12),
+      segment(null, null, Font.PLAIN, 12, 16)
+    ), merge(new SegmentMerger(), sources));
+  }
+
+  public void testMergerIsReusable() {
+    TestSegmentSources sources1 = new TestSegmentSources()
+      .addToken(0, 16, new TextAttributes(Color.BLUE, null, null, null, Font.PLAIN))
+      .addMarkup(4, 8, HighlighterLayer.SELECTION, new TextAttributes(Color.WHITE, Color.BLUE, null, null, Font.PLAIN));
+    TestSegmentSources sources2 = new TestSegmentSources()
+      .addToken(0, 16, new TextAttributes(Color.RED, null, null, null, Font.PLAIN));
+
+    SegmentMerger merger = new SegmentMerger();
+    assertEquals(Arrays.asList(
+      segment(Color.BLUE, null, Font.PLAIN, 0, 4),
+      segment(Color.WHITE, Color.BLUE, Font.PLAIN, 4, 8),
+      segment(Color.BLUE, null, Font.PLAIN, 8, 16)
+    ), merge(merger, sources1));
+    assertEquals(Arrays.asList(segment(Color.RED, null, Font.PLAIN, 0, 16)), merge(merger, sources2));
+  }
+
+  @NotNull
+  private static List<SegmentInfo> merge(@NotNull SegmentMerger merger, @NotNull TestSegmentSources sources) {
+    List<SegmentInfo> result = new ArrayList<SegmentInfo>();
+    merger.start(TEXT, FONT_NAME, FONT_SIZE, sources.getTokens(0, TEXT.length()), sources.getMarkup(0, TEXT.length()));
+    try {
+      while (merger.hasNext()) {
+        result.add(merger.next().copy());
+      }
+    }
+    finally {
+      merger.dispose();
+    }
+    return result;
+  }
+
+  @NotNull
+  private static SegmentInfo segment(@Nullable Color foreground, @Nullable Color background, int fontStyle, int start, int end) {
+    Font font = FontResolver.getInstance(FONT_NAME, FONT_SIZE, fontStyle).getFont(TEXT.charAt(start));
+    return new SegmentInfo(foreground, background, font.getFamily(), fontStyle, font.getSize(), start, end);
+  }
+}
@@ -4,6 +4,10 @@ import com.intellij.codeInsight.editorActions.TextBlockTransferableData;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.LogicalPosition;
 import com.intellij.openapi.editor.SelectionModel;
+import com.intellij.openapi.editor.impl.DocumentMarkupModel;
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.HighlighterTargetArea;
+import com.intellij.openapi.editor.markup.MarkupModel;
 import com.intellij.openapi.util.Ref;
 import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
 import com.intellij.util.containers.ContainerUtilRt;
@@ -16,6 +20,7 @@ import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * @author Denis Zhdanov
@@ -23,6 +28,13 @@ import java.util.List;
  */
 public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase {
 
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // Color ids are checked, so, palettes built by the previous tests must not be reused.
+    PaletteManager.getInstance().clear();
+  }
+
   public void testBlockSelection() {
     // Block selection ends implicit line feeds at line end and fills short line to max line width by white spaces.
     String text =
@@ -39,15 +51,12 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
     myFixture.configureByText("Test.java", text);
 
     List<OutputInfo> expected = Arrays.asList(
-      new Foreground(1), new FontFamilyName(1), new FontStyle(Font.BOLD), new FontSize(12), new Text(0, 11), // 'public int '
-      new Foreground(2), new FontStyle(Font.PLAIN), new Text(11, 23), // 'getField() {'
-      new Text(23, 24), // '\n'
-      new Text(24, 28), // '    ' - indent before 'return field;'
-      new Foreground(1), new FontStyle(Font.BOLD), new Text(28, 35), // 'return '
-      new Foreground(3), new Text(35, 40), // 'field';
-      new Foreground(2), new FontStyle(Font.PLAIN), new Text(40, 41), // ';'
-      new Text(47, 48), // '\n'
-      new Text(48, 49) // '}'
+      new StyleChange(1), new Text(0, 11), // 'public int '
+      new StyleChange(2), new Text(11, 28), // 'getField() {\n' and indent before 'return field;'
+      new StyleChange(1), new Text(28, 35), // 'return '
+      new StyleChange(3), new Text(35, 40), // 'field';
+      new StyleChange(2), new Text(40, 41), // ';'
+      new Text(47, 49) // '\n}'
     );
 
     int blockSelectionStartOffset = text.indexOf("public int");
@@ -57,7 +66,10 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
       blockSelectionStartPosition.line + 2,
       editor.offsetToLogicalPosition(text.indexOf('{', blockSelectionStartOffset)).column + 1);
     editor.getSelectionModel().setBlockSelection(blockSelectionStartPosition, blockSelectionEndPosition);
-    assertEquals(expected, getSyntaxInfoForBlockSelection().getOutputInfos());
+    SyntaxInfo syntaxInfo = getSyntaxInfoForBlockSelection();
+    assertEquals(expected, syntaxInfo.getOutputInfos());
+    assertStyles(syntaxInfo, new TextStyle(1, 0, 1, Font.BOLD, 12), new TextStyle(2, 0, 1, Font.PLAIN, 12),
+                 new TextStyle(3, 0, 1, Font.BOLD, 12));
   }
 
   public void testRegularSelection() {
@@ -81,16 +93,19 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
     selectionModel.setSelection(selectionStart, selectionEnd);
 
     List<OutputInfo> expected = Arrays.asList(
-      new Foreground(1), new FontFamilyName(1), new FontStyle(Font.BOLD), new FontSize(12), new Text(0, 11), // 'public int '
-      new Foreground(2), new FontStyle(Font.PLAIN), new Text(11, 24), // 'getField() {\n'
+      new StyleChange(1), new Text(0, 11), // 'public int '
+      new StyleChange(2), new Text(11, 24), // 'getField() {\n'
       new Text(28, 32), // '    ' - indent before 'return field;'
-      new Foreground(1), new FontStyle(Font.BOLD), new Text(32, 39), // 'return '
-      new Foreground(3), new Text(39, 44), // 'field'
-      new Foreground(2), new FontStyle(Font.PLAIN), new Text(44, 46), // ';\n'
+      new StyleChange(1), new Text(32, 39), // 'return '
+      new StyleChange(3), new Text(39, 44), // 'field'
+      new StyleChange(2), new Text(44, 46), // ';\n'
       new Text(50, 51) // '}'
     );
     
-    assertEquals(expected, getSyntaxInfoForRegularSelection().getOutputInfos());
+    SyntaxInfo syntaxInfo = getSyntaxInfoForRegularSelection();
+    assertEquals(expected, syntaxInfo.getOutputInfos());
+    assertStyles(syntaxInfo, new TextStyle(1, 0, 1, Font.BOLD, 12), new TextStyle(2, 0, 1, Font.PLAIN, 12),
+                 new TextStyle(3, 0, 1, Font.BOLD, 12));
     
     selectionModel.setSelection(selectionStart - 2, selectionEnd);
     assertEquals(shiftText(expected, 2), getSyntaxInfoForRegularSelection().getOutputInfos());
@@ -108,9 +123,11 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
     myFixture.getEditor().getSelectionModel().setSelection(start, end);
     
     List<OutputInfo> expected = Arrays.asList(
-      new FontFamilyName(1), new FontStyle(Font.PLAIN), new FontSize(12), new Text(0, 26)
+      new StyleChange(1), new Text(0, 26)
     );
-    assertEquals(expected, getSyntaxInfoForRegularSelection().getOutputInfos());
+    SyntaxInfo syntaxInfo = getSyntaxInfoForRegularSelection();
+    assertEquals(expected, syntaxInfo.getOutputInfos());
+    assertStyles(syntaxInfo, new TextStyle(0, 0, 1, Font.PLAIN, 12));
   }
 
   public void testJavadoc() {
@@ -133,25 +150,76 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
     int end = text.indexOf("*/", start);
     myFixture.getEditor().getSelectionModel().setSelection(start, end);
     List<OutputInfo> expected = Arrays.asList(
-      new Foreground(1), new FontFamilyName(1), new FontStyle(Font.ITALIC), new FontSize(12), new Text(0, 4),
-      new Text(4, 15),
-      new Background(2), new Text(15, 21),
-      new Background(3), new Text(21, 25),
-      new Background(2), new Text(25, 32),
-      new Background(3), new Text(32, 33),
-      new Text(33, 36),
-      new Background(2), new Text(36, 44),
-      new Background(3), new Text(44, 46),
-      new Background(2), new Text(46, 55),
-      new Background(3), new Text(55, 60),
-      new Text(60, 63),
-      new FontStyle(Font.BOLD + Font.ITALIC), new Text(63, 70),
-      new Foreground(4), new Text(70, 74),
-      new Text(74, 75)
+      new StyleChange(1), new Text(0, 15),
+      new StyleChange(2), new Text(15, 21),
+      new StyleChange(3), new Text(21, 25),
+      new StyleChange(2), new Text(25, 32),
+      new StyleChange(3), new Text(32, 36),
+      new StyleChange(2), new Text(36, 44),
+      new StyleChange(3), new Text(44, 46),
+      new StyleChange(2), new Text(46, 55),
+      new StyleChange(3), new Text(55, 63),
+      new StyleChange(4), new Text(63, 70),
+      new StyleChange(5), new Text(70, 75)
     );
-    assertEquals(expected, getSyntaxInfoForRegularSelection().getOutputInfos());
+    SyntaxInfo syntaxInfo = getSyntaxInfoForRegularSelection();
+    assertEquals(expected, syntaxInfo.getOutputInfos());
+    assertStyles(syntaxInfo,
+                 new TextStyle(1, 0, 1, Font.ITALIC, 12),
+                 new TextStyle(1, 2, 1, Font.ITALIC, 12),
+                 new TextStyle(1, 3, 1, Font.ITALIC, 12),
+                 new TextStyle(1, 3, 1, Font.BOLD + Font.ITALIC, 12),
+                 new TextStyle(4, 3, 1, Font.BOLD + Font.ITALIC, 12));
   }
   
+  public void testUnhighlightedText() {
+    // Plain text is formatted by the default style right away, without walking the highlighters.
+    String text =
+      "first line\n" +
+      "second line";
+    myFixture.configureByText("test.txt", text);
+    Editor editor = myFixture.getEditor();
+    editor.getSelectionModel().setSelection(0, text.length());
+    assertTrue(isUnhighlighted(0, text.length()));
+    SyntaxInfo syntaxInfo = getSyntaxInfoForRegularSelection();
+    assertEquals(Arrays.asList(new StyleChange(1), new Text(0, text.length())), syntaxInfo.getOutputInfos());
+    assertStyles(syntaxInfo, new TextStyle(0, 0, 1, Font.PLAIN, 12));
+
+    // Highlighters which don't change text appearance are skipped, but only a limited number of them is examined.
+    MarkupModel markupModel = DocumentMarkupModel.forDocument(editor.getDocument(), myFixture.getProject(), true);
+    for (int i = 0; i < 1000; i++) {
+      markupModel.addRangeHighlighter(0, text.length(), HighlighterLayer.ADDITIONAL_SYNTAX, null, HighlighterTargetArea.EXACT_RANGE);
+    }
+    assertFalse(isUnhighlighted(0, text.length() - 1));
+    editor.getSelectionModel().setSelection(0, text.length() - 1);
+    syntaxInfo = getSyntaxInfoForRegularSelection();
+    assertEquals(Arrays.asList(new StyleChange(1), new Text(0, text.length() - 1)), syntaxInfo.getOutputInfos());
+    assertStyles(syntaxInfo, new TextStyle(0, 0, 1, Font.PLAIN, 12));
+  }
+
+  public void testPlainTextCutOff() {
+    String text = "class A {}";
+    myFixture.configureByText("A.java", text);
+    CopyOnSteroidSettings settings = CopyOnSteroidSettings.getInstance();
+    int maxCharacters = settings.getMaxCharacters();
+    settings.setMaxCharacters(text.length() - 1);
+    try {
+      // Selection beyond the limit is copied as plain text, i.e. syntax info is not even built.
+      assertNull(doGetSyntaxInfo(new int[] { 0 }, new int[] { text.length() }));
+      assertNotNull(doGetSyntaxInfo(new int[] { 0 }, new int[] { text.length() - 1 }));
+    }
+    finally {
+      settings.setMaxCharacters(maxCharacters);
+    }
+  }
+
+  private boolean isUnhighlighted(int startOffset, int endOffset) {
+    Editor editor = myFixture.getEditor();
+    return AbstractCopyPasteSyntaxAwareProcessor.isUnhighlighted(myFixture.getFile(), editor,
+                                                                 CopyOnSteroidSettings.getInstance().getColorsScheme(editor),
+                                                                 new int[] { startOffset }, new int[] { endOffset });
+  }
+
   @NotNull
   private static List<OutputInfo> shiftText(@NotNull List<OutputInfo> base, final int offsetShift) {
     final List<OutputInfo> result = ContainerUtilRt.newArrayList();
@@ -162,28 +230,8 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
       }
 
       @Override
-      public void visit(@NotNull Foreground color) {
-        result.add(color);
-      }
-
-      @Override
-      public void visit(@NotNull Background color) {
-        result.add(color);
-      }
-
-      @Override
-      public void visit(@NotNull FontFamilyName name) {
-        result.add(name);
-      }
-
-      @Override
-      public void visit(@NotNull FontStyle style) {
-        result.add(style);
-      }
-
-      @Override
-      public void visit(@NotNull FontSize size) {
-        result.add(size);
+      public void visit(@NotNull StyleChange change) {
+        result.add(change);
       }
     };
     for (OutputInfo info : base) {
@@ -192,6 +240,14 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
     return result;
   }
   
+  private static void assertStyles(@NotNull SyntaxInfo syntaxInfo, @NotNull TextStyle... expected) {
+    StyleRegistry registry = syntaxInfo.getStyleRegistry();
+    assertEquals(expected.length, registry.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], registry.dataById(i + 1));
+    }
+  }
+
   @NotNull
   private SyntaxInfo getSyntaxInfoForRegularSelection() {
     SelectionModel model = myFixture.getEditor().getSelectionModel();
@@ -213,8 +269,13 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
     new AbstractCopyPasteSyntaxAwareProcessor<DummyTransferable>() {
       @Nullable
       @Override
-      protected DummyTransferable build(@NotNull SyntaxInfo info) {
-        syntaxInfo.set(info);
+      protected DummyTransferable build(@NotNull Future<SyntaxInfo> info) {
+        try {
+          syntaxInfo.set(info.get());
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
         return null;
       }
 
@@ -222,12 +283,6 @@ public class SyntaxInfoConstructionTest extends LightCodeInsightFixtureTestCase
       protected boolean isEnabled(@NotNull CopyOnSteroidSettings settings) {
         return true;
       }
-
-      @Nullable
-      @Override
-      protected SyntaxInfo getCached() {
-        return null;
-      }
     }.collectTransferableData(myFixture.getFile(), editor, startOffsets, endOffsets);
     
     return syntaxInfo.get();
@@ -0,0 +1,119 @@
+package org.denis;
+
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Attribute sources over predefined lexer tokens and markup highlighters. Sources of any sub-range are supported, i.e. the
+ * instance can be used for the chunked processing as well.
+ * <p/>
+ * Ranges have to be added in non-decreasing order of their start offsets.
+ *
+ * @author Denis Zhdanov
+ * @since 10/17/26 6:20 PM
+ */
+class TestSegmentSources implements SegmentSources {
+
+  @NotNull private final List<Range> myTokens = new ArrayList<Range>();
+  @NotNull private final List<Range> myMarkup = new ArrayList<Range>();
+
+  @NotNull
+  public TestSegmentSources addToken(int startOffset, int endOffset, @NotNull TextAttributes attributes) {
+    myTokens.add(new Range(startOffset, endOffset, HighlighterLayer.SYNTAX, attributes));
+    return this;
+  }
+
+  @NotNull
+  public TestSegmentSources addMarkup(int startOffset, int endOffset, int layer, @NotNull TextAttributes attributes) {
+    myMarkup.add(new Range(startOffset, endOffset, layer, attributes));
+    return this;
+  }
+
+  @NotNull
+  @Override
+  public TextAttributesSource getTokens(int startOffset, int endOffset) {
+    return new Source(myTokens, startOffset, endOffset);
+  }
+
+  @NotNull
+  @Override
+  public TextAttributesSource getMarkup(int startOffset, int endOffset) {
+    return new Source(myMarkup, startOffset, endOffset);
+  }
+
+  private static class Range {
+
+    @NotNull final TextAttributes attributes;
+
+    final int startOffset;
+    final int endOffset;
+    final int layer;
+
+    Range(int startOffset, int endOffset, int layer, @NotNull TextAttributes attributes) {
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+      this.layer = layer;
+      this.attributes = attributes;
+    }
+  }
+
+  private static class Source implements TextAttributesSource {
+
+    @NotNull private final List<Range> myRanges;
+
+    private final int myStartOffset;
+    private final int myEndOffset;
+
+    private int myIndex = -1;
+
+    Source(@NotNull List<Range> ranges, int startOffset, int endOffset) {
+      myRanges = ranges;
+      myStartOffset = startOffset;
+      myEndOffset = endOffset;
+    }
+
+    @Override
+    public boolean advance() {
+      while (++myIndex < myRanges.size()) {
+        Range range = myRanges.get(myIndex);
+        if (range.startOffset >= myEndOffset) {
+          break;
+        }
+        if (range.endOffset > myStartOffset) {
+          return true;
+        }
+      }
+      myIndex = myRanges.size();
+      return false;
+    }
+
+    @Override
+    public int getStartOffset() {
+      return Math.max(myRanges.get(myIndex).startOffset, myStartOffset);
+    }
+
+    @Override
+    public int getEndOffset() {
+      return Math.min(myRanges.get(myIndex).endOffset, myEndOffset);
+    }
+
+    @Override
+    public int getLayer() {
+      return myRanges.get(myIndex).layer;
+    }
+
+    @NotNull
+    @Override
+    public TextAttributes getAttributes() {
+      return myRanges.get(myIndex).attributes;
+    }
+
+    @Override
+    public void dispose() {
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package org.denis.model;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 10:25 PM
+ */
+public class OutputInfoOptimizerTest extends TestCase {
+
+  public void testAdjacentTextRangesAreMerged() {
+    assertEquals(Arrays.asList(new StyleChange(1), new Text(0, 5), new Text(7, 10)),
+                 optimize(new StyleChange(1), new Text(0, 3), new Text(3, 5), new Text(7, 9), new Text(9, 10)));
+  }
+
+  public void testOverwrittenStyleChangesAreDropped() {
+    assertEquals(Arrays.asList(new StyleChange(2), new Text(0, 3), new StyleChange(1), new Text(3, 4)),
+                 optimize(new StyleChange(1), new StyleChange(2), new Text(0, 3), new StyleChange(3), new StyleChange(1),
+                          new Text(3, 4), new StyleChange(2)));
+  }
+
+  public void testRepeatedStyleChangesAreDropped() {
+    // Text ranges separated only by a repeated style are merged as well.
+    assertEquals(Arrays.asList(new StyleChange(1), new Text(0, 9)),
+                 optimize(new StyleChange(1), new Text(0, 2), new StyleChange(1), new Text(2, 4), new StyleChange(3),
+                          new StyleChange(1), new Text(4, 9)));
+  }
+
+  public void testTextBeforeFirstStyleChange() {
+    assertEquals(Arrays.asList(new Text(0, 2), new StyleChange(1), new Text(2, 4)),
+                 optimize(new Text(0, 2), new StyleChange(1), new Text(2, 4)));
+  }
+
+  public void testEmptyStream() {
+    assertEquals(Collections.<OutputInfo>emptyList(), optimize());
+    assertEquals(Collections.<OutputInfo>emptyList(), optimize(new StyleChange(1), new StyleChange(2)));
+  }
+
+  @NotNull
+  private static List<OutputInfo> optimize(@NotNull OutputInfo... infos) {
+    return toList(OutputInfoOptimizer.optimize(build(infos)));
+  }
+
+  @NotNull
+  private static OutputInfoStream build(@NotNull OutputInfo... infos) {
+    final OutputInfoStream result = new OutputInfoStream();
+    OutputInfoVisitor visitor = new OutputInfoVisitor() {
+      @Override
+      public void visit(@NotNull Text text) {
+        result.addText(text.getStartOffset(), text.getEndOffset());
+      }
+
+      @Override
+      public void visit(@NotNull StyleChange change) {
+        result.addStyleChange(change.getId());
+      }
+    };
+    for (OutputInfo info : infos) {
+      info.invite(visitor);
+    }
+    return result;
+  }
+
+  @NotNull
+  private static List<OutputInfo> toList(@NotNull OutputInfoStream infos) {
+    List<OutputInfo> result = new ArrayList<OutputInfo>();
+    for (OutputInfoCursor cursor = infos.cursor(); cursor.advance(); ) {
+      if (cursor.getOpcode() == OutputInfoStream.TEXT) {
+        result.add(new Text(cursor.getOperand(), cursor.getEndOffset()));
+      }
+      else {
+        result.add(new StyleChange(cursor.getOperand()));
+      }
+    }
+    return result;
+  }
+}
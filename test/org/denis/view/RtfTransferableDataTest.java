@@ -0,0 +1,79 @@
+package org.denis.view;
+
+import junit.framework.TestCase;
+import org.denis.model.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+/**
+ * @author Denis Zhdanov
+ * @since 10/17/26 9:55 PM
+ */
+public class RtfTransferableDataTest extends TestCase {
+
+  public void testAsciiSpecialSymbols() {
+    assertEquals("a\\{b\\}\\\\c\\tab\nd\\line\ne", render("a{b}\\c\td\ne"));
+  }
+
+  public void testCyrillic() {
+    assertEquals("\\u1055?\\u1088?\\u1080?", render("\u041F\u0440\u0438"));
+  }
+
+  public void testCjk() {
+    // Code units beyond 0x7FFF are written as negative numbers.
+    assertEquals("\\u20013?\\u25991?\\u-10916?", render("\u4E2D\u6587\uD55C"));
+  }
+
+  public void testEmoji() {
+    // U+1F600 is written as a surrogate pair.
+    assertEquals("a\\u-10179?\\u-8704?b", render("a\uD83D\uDE00b"));
+    // Pair split between text ranges stays paired.
+    assertEquals("\\u-10179?\\u-8704?", render("\uD83D\uDE00", 1));
+  }
+
+  public void testLoneSurrogates() {
+    assertEquals("\\u-3?x", render("\uD83Dx"));
+    assertEquals("x\\u-3?", render("x\uDE00"));
+    assertEquals("\\u-3?\\u-3?", render("\uDE00\uD83D"));
+  }
+
+  /**
+   * Renders given text by the default style and returns the bytes written for it.
+   *
+   * @param text    text to render
+   * @param splits  offsets within the given text where text ranges are split
+   * @return        bytes written for the given text
+   */
+  @NotNull
+  private static String render(@NotNull String text, int... splits) {
+    // Brackets are not used by the RTF prologue and epilogue, so, they delimit the text.
+    String rawText = "<" + text + ">";
+    ColorRegistry colorRegistry = new ColorRegistry();
+    int foreground = colorRegistry.getId(Color.BLACK);
+    int background = colorRegistry.getId(Color.WHITE);
+    FontNameRegistry fontNameRegistry = new FontNameRegistry();
+    int fontName = fontNameRegistry.getId("Monospaced");
+    StyleRegistry styleRegistry = new StyleRegistry();
+    OutputInfoStream infos = new OutputInfoStream();
+    infos.addStyleChange(styleRegistry.getId(new TextStyle(foreground, background, fontName, Font.PLAIN, 12)));
+    int start = 0;
+    for (int split : splits) {
+      infos.addText(start, split + 1);
+      start = split + 1;
+    }
+    infos.addText(start, rawText.length());
+    SyntaxInfo syntaxInfo = new SyntaxInfo(infos, new Palette(colorRegistry, fontNameRegistry, foreground, background),
+                                           styleRegistry, fontName, 12);
+
+    ByteArraySink buffer = new ByteArraySink();
+    RtfTransferableData.build(syntaxInfo, rawText, buffer);
+    byte[] bytes = buffer.toByteArray();
+    StringBuilder result = new StringBuilder();
+    for (byte b : bytes) {
+      assertTrue("non-ascii byte " + b, b >= 0);
+      result.append((char)b);
+    }
+    return result.substring(result.indexOf("<") + 1, result.lastIndexOf(">"));
+  }
+}